@@ -0,0 +1,171 @@
+/*
+ * Created by dengshiwei on 2022/07/26.
+ * Copyright 2015－2022 Sensors Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sensorsdata.analytics.android.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地数据接收服务，替代真实的数据接收地址。支持 Content-Length 和分块传输的请求体，所有请求返回 200
+ */
+class LocalUploadServer implements Runnable {
+    private final ServerSocket mServerSocket;
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicLong mReceivedBytes = new AtomicLong();
+    private volatile boolean mRunning = true;
+
+    LocalUploadServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread thread = new Thread(this, "LocalUploadServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/sa?project=benchmark";
+    }
+
+    int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    long getReceivedBytes() {
+        return mReceivedBytes.get();
+    }
+
+    void shutdown() {
+        mRunning = false;
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    @Override
+    public void run() {
+        while (mRunning) {
+            try {
+                final Socket socket = mServerSocket.accept();
+                Thread worker = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                }, "LocalUploadServer-Connection");
+                worker.setDaemon(true);
+                worker.start();
+            } catch (IOException e) {
+                // 服务关闭
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            String requestLine;
+            // 同一连接上可能有多个请求
+            while ((requestLine = readLine(in)) != null && requestLine.length() > 0) {
+                long contentLength = -1;
+                boolean chunked = false;
+                String header;
+                while ((header = readLine(in)) != null && header.length() > 0) {
+                    String lower = header.toLowerCase(Locale.US);
+                    if (lower.startsWith("content-length:")) {
+                        contentLength = Long.parseLong(lower.substring("content-length:".length()).trim());
+                    } else if (lower.startsWith("transfer-encoding:") && lower.contains("chunked")) {
+                        chunked = true;
+                    }
+                }
+                long bodyBytes = chunked ? readChunkedBody(in) : skip(in, Math.max(0, contentLength));
+                mReceivedBytes.addAndGet(bodyBytes);
+                mRequestCount.incrementAndGet();
+                out.write("HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n".getBytes("UTF-8"));
+                out.flush();
+            }
+        } catch (IOException e) {
+            // 连接断开
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static long readChunkedBody(InputStream in) throws IOException {
+        long total = 0;
+        String sizeLine;
+        while ((sizeLine = readLine(in)) != null) {
+            int extension = sizeLine.indexOf(';');
+            long size = Long.parseLong((extension >= 0 ? sizeLine.substring(0, extension) : sizeLine).trim(), 16);
+            if (size == 0) {
+                // 跳过 trailer
+                String trailer;
+                while ((trailer = readLine(in)) != null && trailer.length() > 0) {
+                    // ignore
+                }
+                break;
+            }
+            total += skip(in, size);
+            readLine(in);
+        }
+        return total;
+    }
+
+    private static long skip(InputStream in, long count) throws IOException {
+        byte[] buffer = new byte[8192];
+        long remaining = count;
+        while (remaining > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                break;
+            }
+            remaining -= read;
+        }
+        return count - remaining;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                break;
+            }
+            if (c != '\r') {
+                line.write(c);
+            }
+        }
+        if (c == -1 && line.size() == 0) {
+            return null;
+        }
+        return line.toString("UTF-8");
+    }
+}
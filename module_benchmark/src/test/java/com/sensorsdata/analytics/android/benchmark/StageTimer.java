@@ -0,0 +1,63 @@
+/*
+ * Created by dengshiwei on 2022/07/26.
+ * Copyright 2015－2022 Sensors Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sensorsdata.analytics.android.benchmark;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * 记录单个阶段每次执行的耗时，输出吞吐量和耗时分位数
+ */
+class StageTimer {
+    private final String mName;
+    private final long[] mSamples;
+    private int mCount;
+    private long mTotal;
+
+    StageTimer(String name, int capacity) {
+        this.mName = name;
+        this.mSamples = new long[capacity];
+    }
+
+    void record(long costNanos) {
+        if (mCount < mSamples.length) {
+            mSamples[mCount++] = costNanos;
+            mTotal += costNanos;
+        }
+    }
+
+    int count() {
+        return mCount;
+    }
+
+    long percentile(double percent) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(mSamples, mCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percent / 100 * mCount) - 1;
+        return sorted[Math.max(0, Math.min(mCount - 1, index))];
+    }
+
+    String report() {
+        double opsPerSecond = mTotal == 0 ? 0 : mCount * 1e9 / mTotal;
+        return String.format(Locale.US, "%-40s n=%-6d ops/s=%-10.0f p50=%-8.1fus p90=%-8.1fus p99=%-8.1fus",
+                mName, mCount, opsPerSecond, percentile(50) / 1000.0, percentile(90) / 1000.0, percentile(99) / 1000.0);
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Created by dengshiwei on 2022/07/26.
+ * Copyright 2015－2022 Sensors Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sensorsdata.analytics.android.benchmark;
+
+import android.app.Application;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.sensorsdata.analytics.android.sdk.SAConfigOptions;
+import com.sensorsdata.analytics.android.sdk.SensorsDataAPI;
+import com.sensorsdata.analytics.android.sdk.data.adapter.DbAdapter;
+import com.sensorsdata.analytics.android.sdk.data.adapter.DbParams;
+import com.sensorsdata.analytics.android.sdk.internal.beans.EventTimer;
+import com.sensorsdata.analytics.android.sdk.internal.beans.EventType;
+import com.sensorsdata.analytics.android.sdk.plugin.property.SensorsDataPropertyPluginManager;
+import com.sensorsdata.analytics.android.sdk.util.SADataHelper;
+
+import org.json.JSONObject;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+/**
+ * 埋点主流程各阶段的吞吐量和耗时分位数，结果输出到标准输出，用于对比版本间热点路径的性能变化。
+ * 私有阶段通过反射调用，反射开销相对各阶段耗时可以忽略
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Config.OLDEST_SDK})
+public class TrackPipelineBenchmark {
+    private static final int WARM_UP = 200;
+    private static final int ITERATIONS = 2000;
+    private static final String EVENT_NAME = "BenchmarkEvent";
+    private static final String CORE_PACKAGE = "com.sensorsdata.analytics.android.sdk.";
+    private static LocalUploadServer sServer;
+    private final Application mApplication = ApplicationProvider.getApplicationContext();
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        sServer = new LocalUploadServer();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        if (sServer != null) {
+            sServer.shutdown();
+        }
+    }
+
+    @Test
+    public void trackStages() throws Exception {
+        SensorsDataAPI sensorsDataAPI = initSensors(false);
+        DbAdapter dbAdapter = DbAdapter.getInstance();
+        dbAdapter.deleteAllEvents();
+
+        StageTimer pluginTimer = new StageTimer("property plugin merge", ITERATIONS);
+        StageTimer assertTimer = new StageTimer("SADataHelper.assertPropertyTypes", ITERATIONS);
+        StageTimer trackInternalTimer = new StageTimer("trackEventInternal", ITERATIONS);
+        StageTimer addJsonTimer = new StageTimer("DbAdapter.addJSON", ITERATIONS);
+        StageTimer queryTimer = new StageTimer("EventDataOperation.queryData(50)", ITERATIONS);
+        StageTimer encodeTimer = new StageTimer("AnalyticsMessages.encodeData(50)", ITERATIONS);
+
+        SensorsDataPropertyPluginManager pluginManager = SensorsDataPropertyPluginManager.getInstance();
+        for (int i = 0; i < WARM_UP + ITERATIONS; i++) {
+            JSONObject properties = createProperties(i);
+            long start = System.nanoTime();
+            pluginManager.properties(EVENT_NAME, EventType.TRACK, properties);
+            record(pluginTimer, i, start);
+
+            start = System.nanoTime();
+            SADataHelper.assertPropertyTypes(properties);
+            record(assertTimer, i, start);
+        }
+
+        Method trackEventInternal = Class.forName(CORE_PACKAGE + "AbstractSensorsDataAPI").getDeclaredMethod("trackEventInternal",
+                EventType.class, String.class, JSONObject.class, JSONObject.class, JSONObject.class,
+                String.class, String.class, String.class, EventTimer.class);
+        trackEventInternal.setAccessible(true);
+        JSONObject identities = new JSONObject().put("$identity_android_id", sensorsDataAPI.getAnonymousId());
+        for (int i = 0; i < WARM_UP + ITERATIONS; i++) {
+            JSONObject properties = createProperties(i);
+            long start = System.nanoTime();
+            trackEventInternal.invoke(sensorsDataAPI, EventType.TRACK, EVENT_NAME, properties, new JSONObject(),
+                    identities, sensorsDataAPI.getDistinctId(), null, null, null);
+            record(trackInternalTimer, i, start);
+        }
+        dbAdapter.commitBufferedEvents();
+        dbAdapter.deleteAllEvents();
+
+        for (int i = 0; i < WARM_UP + ITERATIONS; i++) {
+            JSONObject event = createEvent(i);
+            long start = System.nanoTime();
+            dbAdapter.addJSON(event);
+            record(addJsonTimer, i, start);
+        }
+        dbAdapter.commitBufferedEvents();
+
+        Field messagesField = Class.forName(CORE_PACKAGE + "AbstractSensorsDataAPI").getDeclaredField("mMessages");
+        messagesField.setAccessible(true);
+        Object messages = messagesField.get(sensorsDataAPI);
+        Method encodeData = Class.forName(CORE_PACKAGE + "AnalyticsMessages").getDeclaredMethod("encodeData", String.class);
+        encodeData.setAccessible(true);
+        for (int i = 0; i < WARM_UP + ITERATIONS; i++) {
+            long start = System.nanoTime();
+            String[] eventsData = dbAdapter.generateDataString(DbParams.TABLE_EVENTS, 50);
+            record(queryTimer, i, start);
+            Assert.assertNotNull(eventsData);
+
+            start = System.nanoTime();
+            encodeData.invoke(messages, eventsData[1]);
+            record(encodeTimer, i, start);
+        }
+        dbAdapter.deleteAllEvents();
+
+        System.out.println("==== SensorsData track pipeline benchmark ====");
+        for (StageTimer timer : new StageTimer[]{pluginTimer, assertTimer, trackInternalTimer, addJsonTimer, queryTimer, encodeTimer}) {
+            Assert.assertEquals(ITERATIONS, timer.count());
+            System.out.println(timer.report());
+        }
+    }
+
+    @Test
+    public void trackEndToEnd() throws Exception {
+        SensorsDataAPI sensorsDataAPI = initSensors(true);
+        DbAdapter.getInstance().deleteAllEvents();
+        int requestsBefore = sServer.getRequestCount();
+
+        StageTimer trackTimer = new StageTimer("SensorsDataAPI.track (caller thread)", ITERATIONS);
+        long begin = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            JSONObject properties = createProperties(i);
+            long start = System.nanoTime();
+            sensorsDataAPI.track(EVENT_NAME, properties);
+            trackTimer.record(System.nanoTime() - start);
+        }
+        sensorsDataAPI.flush();
+        // 等待事件全部入库并上报完成
+        long deadline = System.currentTimeMillis() + 60 * 1000;
+        while (System.currentTimeMillis() < deadline) {
+            if (DbAdapter.getInstance().getPendingEventCount() == 0 && sServer.getRequestCount() > requestsBefore) {
+                break;
+            }
+            sensorsDataAPI.flush();
+            Thread.sleep(50);
+        }
+        long totalNanos = System.nanoTime() - begin;
+
+        System.out.println("==== SensorsData end-to-end benchmark ====");
+        System.out.println(trackTimer.report());
+        System.out.println(String.format("track -> upload: %d events in %.1f ms, %.0f events/s, %d requests, %d bytes received",
+                ITERATIONS, totalNanos / 1e6, ITERATIONS * 1e9 / totalNanos,
+                sServer.getRequestCount() - requestsBefore, sServer.getReceivedBytes()));
+        Assert.assertEquals(ITERATIONS, trackTimer.count());
+    }
+
+    private SensorsDataAPI initSensors(boolean enableNetworkRequest) {
+        SAConfigOptions configOptions = new SAConfigOptions(sServer.getUrl())
+                .setNetworkTypePolicy(SensorsDataAPI.NetworkType.TYPE_ALL)
+                .setFlushBulkSize(50)
+                .setFlushInterval(5 * 1000);
+        SensorsDataAPI.startWithConfigOptions(mApplication, configOptions);
+        SensorsDataAPI sensorsDataAPI = SensorsDataAPI.sharedInstance();
+        sensorsDataAPI.enableNetworkRequest(enableNetworkRequest);
+        return sensorsDataAPI;
+    }
+
+    private static void record(StageTimer timer, int iteration, long start) {
+        long cost = System.nanoTime() - start;
+        if (iteration >= WARM_UP) {
+            timer.record(cost);
+        }
+    }
+
+    private static JSONObject createProperties(int index) throws Exception {
+        return new JSONObject()
+                .put("product_id", "P" + index)
+                .put("product_name", "benchmark product " + index)
+                .put("price", index * 1.5)
+                .put("count", index % 10)
+                .put("is_vip", index % 2 == 0)
+                .put("source", "benchmark");
+    }
+
+    private static JSONObject createEvent(int index) throws Exception {
+        JSONObject properties = createProperties(index)
+                .put("$lib", "Android")
+                .put("$lib_version", "benchmark")
+                .put("$os", "Android")
+                .put("$model", "Robolectric")
+                .put("$network_type", "WIFI")
+                .put("$wifi", true);
+        return new JSONObject()
+                .put("_track_id", index)
+                .put("time", System.currentTimeMillis())
+                .put("type", "track")
+                .put("event", EVENT_NAME)
+                .put("distinct_id", "benchmark_distinct_id")
+                .put("anonymous_id", "benchmark_distinct_id")
+                .put("lib", new JSONObject().put("$lib", "Android").put("$lib_method", "code"))
+                .put("properties", properties);
+    }
+}
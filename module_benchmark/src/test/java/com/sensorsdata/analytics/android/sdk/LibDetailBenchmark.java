@@ -0,0 +1,69 @@
+/*
+ * Created by dengshiwei on 2022/07/25.
+ * Copyright 2015－2022 Sensors Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sensorsdata.analytics.android.sdk;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * $lib_detail 单条事件耗时对比：每条事件获取调用栈并格式化 vs 缓存调用位置
+ */
+public class LibDetailBenchmark {
+    private static final int WARM_UP = 2000;
+    private static final int ITERATIONS = 20000;
+    private static volatile String sCachedLibDetail;
+    private static volatile String sSink;
+
+    @Test
+    public void perEventCost() {
+        for (int i = 0; i < WARM_UP; i++) {
+            stackWalk();
+            cached();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            stackWalk();
+        }
+        long stackWalkCost = (System.nanoTime() - start) / ITERATIONS;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            cached();
+        }
+        long cachedCost = (System.nanoTime() - start) / ITERATIONS;
+        System.out.println("==== $lib_detail benchmark ====");
+        System.out.println("$lib_detail per event: stack walk = " + stackWalkCost + " ns, cached = " + cachedCost + " ns");
+        Assert.assertNotNull(sSink);
+    }
+
+    private static void stackWalk() {
+        StackTraceElement[] trace = (new Exception()).getStackTrace();
+        if (trace.length > 1) {
+            StackTraceElement traceElement = trace[0];
+            sSink = String.format("%s##%s##%s##%s", traceElement
+                            .getClassName(), traceElement.getMethodName(), traceElement.getFileName(),
+                    traceElement.getLineNumber());
+        }
+    }
+
+    private static void cached() {
+        if (sCachedLibDetail == null) {
+            sCachedLibDetail = AbstractSensorsDataAPI.formatLibDetail((new Exception()).getStackTrace());
+        }
+        sSink = sCachedLibDetail;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Created by dengshiwei on 2022/07/27.
+ * Copyright 2015－2022 Sensors Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sensorsdata.analytics.android.sdk;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 多线程同时埋点时任务队列的吞吐量对比：LinkedBlockingQueue vs TrackRingBuffer，生产者线程数为 1、4、16，单个消费线程批量取出。
+ * 任务对象预先创建，只统计入队和出队的开销，同时校验每个生产者的任务按顺序被消费
+ */
+public class TrackQueueContentionBenchmark {
+    private static final int TOTAL_TASKS = 1 << 20;
+    private static final int CAPACITY = 1024;
+    private static final int DRAIN_SIZE = 64;
+
+    @Test
+    public void contention() throws Exception {
+        System.out.println("==== Track queue contention benchmark ====");
+        for (int producers : new int[]{1, 4, 16}) {
+            // 第一轮预热
+            run(new BlockingQueueAdapter(), producers);
+            run(new RingBufferAdapter(), producers);
+            long blockingQueue = run(new BlockingQueueAdapter(), producers);
+            long ringBuffer = run(new RingBufferAdapter(), producers);
+            System.out.println(String.format(Locale.US, "producers=%-2d LinkedBlockingQueue=%6.1f Mops/s TrackRingBuffer=%6.1f Mops/s",
+                    producers, TOTAL_TASKS * 1e3 / blockingQueue, TOTAL_TASKS * 1e3 / ringBuffer));
+        }
+    }
+
+    private static long run(final QueueAdapter queue, int producers) throws Exception {
+        final int tasksPerProducer = TOTAL_TASKS / producers;
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final SequenceTask[] tasks = new SequenceTask[tasksPerProducer];
+            for (int i = 0; i < tasksPerProducer; i++) {
+                tasks[i] = new SequenceTask(p, i);
+            }
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                        for (SequenceTask task : tasks) {
+                            queue.put(task);
+                        }
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        int[] nextSequence = new int[producers];
+        List<Runnable> batch = new ArrayList<>(DRAIN_SIZE);
+        int consumed = 0;
+        long start = System.nanoTime();
+        startLatch.countDown();
+        while (consumed < tasksPerProducer * producers) {
+            if (queue.drainTo(batch, DRAIN_SIZE) == 0) {
+                batch.add(queue.take());
+            }
+            for (Runnable runnable : batch) {
+                SequenceTask task = (SequenceTask) runnable;
+                Assert.assertEquals(nextSequence[task.producer], task.sequence);
+                nextSequence[task.producer]++;
+            }
+            consumed += batch.size();
+            batch.clear();
+        }
+        long cost = System.nanoTime() - start;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return cost;
+    }
+
+    private static class SequenceTask implements Runnable {
+        final int producer;
+        final int sequence;
+
+        SequenceTask(int producer, int sequence) {
+            this.producer = producer;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+        }
+    }
+
+    private interface QueueAdapter {
+        void put(Runnable task) throws InterruptedException;
+
+        Runnable take() throws InterruptedException;
+
+        int drainTo(List<Runnable> tasks, int maxTasks);
+    }
+
+    private static class BlockingQueueAdapter implements QueueAdapter {
+        private final LinkedBlockingQueue<Runnable> mQueue = new LinkedBlockingQueue<>(CAPACITY);
+
+        @Override
+        public void put(Runnable task) throws InterruptedException {
+            mQueue.put(task);
+        }
+
+        @Override
+        public Runnable take() throws InterruptedException {
+            return mQueue.take();
+        }
+
+        @Override
+        public int drainTo(List<Runnable> tasks, int maxTasks) {
+            return mQueue.drainTo(tasks, maxTasks);
+        }
+    }
+
+    private static class RingBufferAdapter implements QueueAdapter {
+        private final TrackRingBuffer mRingBuffer = new TrackRingBuffer(CAPACITY);
+
+        @Override
+        public void put(Runnable task) {
+            // 与 TrackTaskManager 的 OVERFLOW_BLOCK 策略一致
+            while (!mRingBuffer.offer(task)) {
+                LockSupport.parkNanos(this, 1000 * 1000L);
+            }
+        }
+
+        @Override
+        public Runnable take() throws InterruptedException {
+            return mRingBuffer.take();
+        }
+
+        @Override
+        public int drainTo(List<Runnable> tasks, int maxTasks) {
+            return mRingBuffer.drainTo(tasks, maxTasks);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Created by dengshiwei on 2022/08/01.
+ * Copyright 2015－2022 Sensors Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sensorsdata.analytics.android.sdk.data;
+
+import android.app.Application;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.sensorsdata.analytics.android.sdk.data.adapter.DbParams;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * 事件库写入和上报删除的吞吐量，对比默认配置和存储调优配置（WAL、synchronous=NORMAL、页大小、增量回收）。
+ * 写入按 50 条一个事务批量提交，删除按上报时的方式每次读取 50 条后删除 _id &lt;= lastId 的数据，并输出回收前后的文件大小
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Config.OLDEST_SDK})
+public class EventStorageBenchmark {
+    private static final int BATCH_SIZE = 50;
+    private static final int PAYLOAD_SIZE = 800;
+    private final Application mApplication = ApplicationProvider.getApplicationContext();
+
+    @Test
+    public void insertAndDrain() {
+        System.out.println("==== Event storage benchmark ====");
+        for (int events : new int[]{10000, 100000}) {
+            run(events, false);
+            run(events, true);
+        }
+    }
+
+    private void run(int events, boolean storageProfile) {
+        File file = new File(mApplication.getCacheDir(), "benchmark_" + events + "_" + storageProfile + ".db");
+        SQLiteDatabase.deleteDatabase(file);
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        try {
+            if (storageProfile) {
+                SensorsDataDBHelper.configureDatabase(db);
+                SensorsDataDBHelper.applyStorageProfile(db);
+            }
+            SensorsDataDBHelper.createTables(db);
+
+            byte[] payload = new byte[PAYLOAD_SIZE];
+            Arrays.fill(payload, (byte) 'a');
+            payload[0] = '{';
+            payload[PAYLOAD_SIZE - 1] = '}';
+            CRC32 crc32 = new CRC32();
+            crc32.update(payload);
+            SQLiteStatement insert = db.compileStatement(String.format("INSERT INTO %s (%s, %s, %s, %s) VALUES ('', ?, ?, ?)",
+                    DbParams.TABLE_EVENTS, DbParams.KEY_DATA, DbParams.KEY_CREATED_AT, DbParams.KEY_PAYLOAD, DbParams.KEY_CRC));
+            long start = System.nanoTime();
+            for (int i = 0; i < events; i += BATCH_SIZE) {
+                db.beginTransaction();
+                try {
+                    for (int j = i; j < Math.min(events, i + BATCH_SIZE); j++) {
+                        insert.bindLong(1, System.currentTimeMillis());
+                        insert.bindBlob(2, payload);
+                        insert.bindLong(3, crc32.getValue());
+                        insert.executeInsert();
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+            long insertCost = System.nanoTime() - start;
+            long sizeAfterInsert = fileSize(file);
+
+            SQLiteStatement delete = db.compileStatement(String.format("DELETE FROM %s WHERE _id <= ?", DbParams.TABLE_EVENTS));
+            int drained = 0;
+            start = System.nanoTime();
+            while (true) {
+                Cursor cursor = db.query(DbParams.TABLE_EVENTS, new String[]{"_id", DbParams.KEY_PAYLOAD}, null, null,
+                        null, null, "_id ASC LIMIT " + BATCH_SIZE);
+                String lastId = null;
+                try {
+                    while (cursor.moveToNext()) {
+                        lastId = cursor.getString(0);
+                        cursor.getBlob(1);
+                        drained++;
+                    }
+                } finally {
+                    cursor.close();
+                }
+                if (lastId == null) {
+                    break;
+                }
+                delete.bindString(1, lastId);
+                delete.executeUpdateDelete();
+            }
+            long drainCost = System.nanoTime() - start;
+            Assert.assertEquals(events, drained);
+            long sizeAfterDrain = fileSize(file);
+            if (storageProfile) {
+                SensorsDataDBHelper.vacuum(db);
+            }
+            System.out.println(String.format(Locale.US,
+                    "events=%-6d profile=%-5b insert=%8.0f events/s drain=%8.0f events/s size: inserted=%6dKB drained=%6dKB released=%6dKB",
+                    events, storageProfile, events * 1e9 / insertCost, drained * 1e9 / drainCost,
+                    sizeAfterInsert / 1024, sizeAfterDrain / 1024, fileSize(file) / 1024));
+        } finally {
+            db.close();
+            SQLiteDatabase.deleteDatabase(file);
+        }
+    }
+
+    private static long fileSize(File file) {
+        return file.length() + new File(file.getPath() + "-wal").length();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Created by dengshiwei on 2022/08/04.
+ * Copyright 2015－2022 Sensors Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sensorsdata.analytics.android.sdk.encrypt;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Locale;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * 对称加密的耗时，对比每次调用都创建 SecureRandom、SecretKeySpec、Cipher 的方式和 SACipherEngine。
+ * 随机 IV 对应事件加密，固定 IV 对应 SP 数据加密
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Config.OLDEST_SDK})
+public class CipherEngineBenchmark {
+    private static final int ROUNDS = 20000;
+    private static final int WARM_UP = 2000;
+    private static final byte[] ZERO_IV = new byte[16];
+
+    @Test
+    public void perCallVersusCached() throws Exception {
+        System.out.println("==== Cipher engine benchmark ====");
+        byte[] key = new byte[16];
+        new SecureRandom().nextBytes(key);
+        for (int size : new int[]{64, 1024}) {
+            byte[] content = new byte[size];
+            Arrays.fill(content, (byte) 'a');
+            for (boolean randomIv : new boolean[]{true, false}) {
+                perCall(key, content, randomIv, WARM_UP);
+                cached(key, content, randomIv, WARM_UP);
+                long perCall = perCall(key, content, randomIv, ROUNDS);
+                long cached = cached(key, content, randomIv, ROUNDS);
+                System.out.println(String.format(Locale.US,
+                        "size=%-5d iv=%-6s per-call=%8.0f ops/s cached=%8.0f ops/s speedup=%.1fx",
+                        size, randomIv ? "random" : "fixed", ROUNDS * 1e9 / perCall, ROUNDS * 1e9 / cached, (double) perCall / cached));
+            }
+        }
+    }
+
+    @Test
+    public void sameResult() throws Exception {
+        byte[] key = new byte[16];
+        new SecureRandom().nextBytes(key);
+        byte[] content = "{\"event\":\"$AppStart\"}".getBytes("UTF-8");
+        SACipherEngine engine = SACipherEngine.getInstance();
+        engine.resetStatistics();
+        for (int i = 0; i < 3; i++) {
+            byte[] expected = newCipher(Cipher.ENCRYPT_MODE, key, ZERO_IV).doFinal(content);
+            byte[] encrypted = engine.encrypt(SymmetricEncryptMode.AES, key, ZERO_IV, content);
+            Assert.assertArrayEquals(expected, encrypted);
+            Assert.assertArrayEquals(content, engine.decrypt(SymmetricEncryptMode.AES, key, ZERO_IV, encrypted));
+        }
+        Assert.assertEquals(3, engine.getEncryptCount());
+        Assert.assertEquals(3, engine.getDecryptCount());
+    }
+
+    private static long perCall(byte[] key, byte[] content, boolean randomIv, int rounds) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            byte[] iv = ZERO_IV;
+            if (randomIv) {
+                iv = new byte[16];
+                new SecureRandom().nextBytes(iv);
+            }
+            newCipher(Cipher.ENCRYPT_MODE, key, iv).doFinal(content);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long cached(byte[] key, byte[] content, boolean randomIv, int rounds) throws Exception {
+        SACipherEngine engine = SACipherEngine.getInstance();
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            byte[] iv = ZERO_IV;
+            if (randomIv) {
+                iv = new byte[16];
+                engine.nextBytes(iv);
+            }
+            engine.encrypt(SymmetricEncryptMode.AES, key, iv, content);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static Cipher newCipher(int opMode, byte[] key, byte[] iv) throws Exception {
+        Cipher cipher = Cipher.getInstance(SymmetricEncryptMode.AES.transformation);
+        cipher.init(opMode, new SecretKeySpec(key, SymmetricEncryptMode.AES.algorithm), new IvParameterSpec(iv));
+        return cipher;
+    }
+}
@@ -19,6 +19,7 @@ package com.sensorsdata.analytics.android.sdk;
 
 import com.sensorsdata.analytics.android.sdk.encrypt.IPersistentSecretKey;
 import com.sensorsdata.analytics.android.sdk.encrypt.SAEncryptListener;
+import com.sensorsdata.analytics.android.sdk.network.UploadTransport;
 import com.sensorsdata.analytics.android.sdk.plugin.encrypt.StorePlugin;
 
 import java.util.ArrayList;
@@ -155,6 +156,11 @@ abstract class AbstractSAConfigOptions {
      */
     boolean mEnableEncrypt = false;
 
+    /**
+     * 是否在上报时整批加密
+     */
+    boolean mBatchEncrypt = false;
+
     /**
      * 密钥存储相关接口
      */
@@ -210,6 +216,76 @@ abstract class AbstractSAConfigOptions {
      */
     boolean mDisableDeviceId = false;
 
+    /**
+     * 事件批量入库的最大条数，小于等于 1 时每条事件单独入库
+     */
+    int mEventBatchSize = 0;
+
+    /**
+     * 事件批量入库前在内存中的最长等待时间，单位毫秒
+     */
+    int mEventBatchInterval = 100;
+
+    /**
+     * 单个 Segment 包含的最大事件条数，小于等于 0 时不开启 Segment 存储
+     */
+    int mSegmentMaxEventCount = 0;
+
+    /**
+     * 单个 Segment 压缩前的最大数据大小，按 UTF-8 字节数计算
+     */
+    int mSegmentMaxBytes = 0;
+
+    /**
+     * 是否对事件数据库使用 WAL、增量回收等存储配置
+     */
+    boolean mStorageProfileEnabled = false;
+
+    /**
+     * 上报数据时同时发送的最大请求数，为 1 时逐批串行发送
+     */
+    int mFlushConcurrency = 1;
+
+    /**
+     * 单次上报的最小条数
+     */
+    int mFlushMinBatchSize = 10;
+
+    /**
+     * 单次上报的最大条数
+     */
+    int mFlushMaxBatchSize = 50;
+
+    /**
+     * 自定义的上报传输层
+     */
+    UploadTransport mFlushTransport;
+
+    /**
+     * 是否使用流式上报
+     */
+    boolean mStreamingUpload = false;
+
+    /**
+     * 是否关闭自动采集 $lib_detail
+     */
+    boolean mDisableLibDetail = false;
+
+    /**
+     * 事件任务队列的容量，小于等于 0 时不限制
+     */
+    int mTrackQueueCapacity = 0;
+
+    /**
+     * 事件任务队列已满时的处理策略
+     */
+    int mTrackQueueOverflowPolicy = TrackTaskManager.OVERFLOW_BLOCK;
+
+    /**
+     * 是否使用无锁环形队列作为事件任务队列
+     */
+    boolean mTrackRingBuffer = false;
+
     /**
      * 是否开启 DeepLink
      *
@@ -332,6 +408,141 @@ abstract class AbstractSAConfigOptions {
         return mEventSessionTimeout;
     }
 
+    /**
+     * 获取事件批量入库的最大条数
+     *
+     * @return 最大条数，小于等于 1 表示未开启批量入库
+     */
+    public int getEventBatchSize() {
+        return mEventBatchSize;
+    }
+
+    /**
+     * 获取事件批量入库的最长等待时间
+     *
+     * @return 等待时间，单位毫秒
+     */
+    public int getEventBatchInterval() {
+        return mEventBatchInterval;
+    }
+
+    /**
+     * 获取单个 Segment 包含的最大事件条数
+     *
+     * @return 最大条数，小于等于 0 表示未开启 Segment 存储
+     */
+    public int getSegmentMaxEventCount() {
+        return mSegmentMaxEventCount;
+    }
+
+    /**
+     * 获取单个 Segment 压缩前的最大数据大小
+     *
+     * @return 数据大小，按 UTF-8 字节数计算
+     */
+    public int getSegmentMaxBytes() {
+        return mSegmentMaxBytes;
+    }
+
+    /**
+     * 是否对事件数据库使用 WAL、增量回收等存储配置
+     *
+     * @return true 使用，false 使用系统默认配置
+     */
+    public boolean isStorageProfileEnabled() {
+        return mStorageProfileEnabled;
+    }
+
+    /**
+     * 获取上报数据时同时发送的最大请求数
+     *
+     * @return 最大请求数
+     */
+    public int getFlushConcurrency() {
+        return mFlushConcurrency;
+    }
+
+    /**
+     * 获取单次上报的最小条数
+     *
+     * @return 最小条数
+     */
+    public int getFlushMinBatchSize() {
+        return mFlushMinBatchSize;
+    }
+
+    /**
+     * 获取单次上报的最大条数
+     *
+     * @return 最大条数
+     */
+    public int getFlushMaxBatchSize() {
+        return mFlushMaxBatchSize;
+    }
+
+    /**
+     * 获取自定义的上报传输层
+     *
+     * @return UploadTransport，未设置时为 null
+     */
+    public UploadTransport getFlushTransport() {
+        return mFlushTransport;
+    }
+
+    /**
+     * 是否使用流式上报
+     *
+     * @return true 使用流式上报，false 使用表单格式上报
+     */
+    public boolean isStreamingUpload() {
+        return mStreamingUpload;
+    }
+
+    /**
+     * 是否关闭自动采集 $lib_detail
+     *
+     * @return true 关闭，false 未关闭
+     */
+    public boolean isDisableLibDetail() {
+        return mDisableLibDetail;
+    }
+
+    /**
+     * 获取事件任务队列的容量
+     *
+     * @return 队列容量，小于等于 0 时不限制
+     */
+    public int getTrackQueueCapacity() {
+        return mTrackQueueCapacity;
+    }
+
+    /**
+     * 获取事件任务队列已满时的处理策略
+     *
+     * @return 处理策略
+     */
+    public int getTrackQueueOverflowPolicy() {
+        return mTrackQueueOverflowPolicy;
+    }
+
+    /**
+     * 是否使用无锁环形队列作为事件任务队列
+     *
+     * @return true 使用，false 未使用
+     */
+    public boolean isTrackRingBufferEnabled() {
+        return mTrackRingBuffer;
+    }
+
+    /**
+     * 是否在上报时整批加密
+     *
+     * @return true 整批加密，false 逐条加密
+     */
+    public boolean isBatchEncrypt() {
+        return mEnableEncrypt && mBatchEncrypt;
+    }
+
     /**
      * 弹窗中默认还使用该接口，暂时先保留，后续删除
      *
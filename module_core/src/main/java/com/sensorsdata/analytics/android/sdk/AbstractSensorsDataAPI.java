@@ -69,6 +69,7 @@ import com.sensorsdata.analytics.android.sdk.util.SADataHelper;
 import com.sensorsdata.analytics.android.sdk.util.SensorsDataUtils;
 import com.sensorsdata.analytics.android.sdk.util.TimeUtils;
 import com.sensorsdata.analytics.android.sdk.util.ToastUtil;
+import com.sensorsdata.analytics.android.sdk.util.TrackIdGenerator;
 import com.sensorsdata.analytics.android.sdk.visual.SAVisual;
 import com.sensorsdata.analytics.android.sdk.visual.model.ViewNode;
 
@@ -77,7 +78,6 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.lang.ref.WeakReference;
-import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
@@ -86,6 +86,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 abstract class AbstractSensorsDataAPI implements ISensorsDataAPI {
     protected static final String TAG = "SA.SensorsDataAPI";
@@ -103,6 +104,11 @@ abstract class AbstractSensorsDataAPI implements ISensorsDataAPI {
     protected ActivityLifecycleCallbacks mActivityLifecycleCallbacks;
     protected AnalyticsMessages mMessages;
     protected final PersistentSuperProperties mSuperProperties;
+    /* 公共属性快照，修改公共属性时置空 */
+    protected volatile SuperPropertiesSnapshot mSuperPropertiesSnapshot;
+    /* 事件公共部分的模板及其版本号 */
+    private volatile EventEnvelope mEventEnvelope;
+    private final AtomicInteger mEventEnvelopeVersion = new AtomicInteger();
     protected final PersistentFirstStart mFirstStart;
     protected final PersistentFirstDay mFirstDay;
     protected final Map<String, EventTimer> mTrackTimer;
@@ -150,6 +156,9 @@ abstract class AbstractSensorsDataAPI implements ISensorsDataAPI {
      * 标记是否已经采集了带有插件版本号的事件
      */
     private boolean isTrackEventWithPluginVersion = false;
+    /* 默认 $lib_detail 的缓存，值由调用位置决定，进程内不变 */
+    private static volatile String sTrackLibDetail;
+    private static volatile String sItemLibDetail;
 
     public AbstractSensorsDataAPI(Context context, SAConfigOptions configOptions, SensorsDataAPI.DebugMode debugMode) {
         mContext = context;
@@ -170,8 +179,18 @@ abstract class AbstractSensorsDataAPI implements ISensorsDataAPI {
             mStoreManager.registerPlugins(mSAConfigOptions.getStorePlugins(), mContext);
             mStoreManager.upgrade();
             mTrackTaskManager = TrackTaskManager.getInstance();
+            mTrackTaskManager.setCapacity(mSAConfigOptions.getTrackQueueCapacity(), mSAConfigOptions.getTrackQueueOverflowPolicy());
+            if (mSAConfigOptions.isTrackRingBufferEnabled()) {
+                // 未通过 setTrackQueueCapacity 指定策略时，环形队列已满丢弃新任务，埋点线程（包括主线程）不等待
+                int capacity = mSAConfigOptions.getTrackQueueCapacity();
+                if (capacity > 0) {
+                    mTrackTaskManager.enableRingBuffer(capacity, mSAConfigOptions.getTrackQueueOverflowPolicy());
+                } else {
+                    mTrackTaskManager.enableRingBuffer(1024, TrackTaskManager.OVERFLOW_DROP_NEWEST);
+                }
+            }
             mTrackTaskManagerThread = new TrackTaskManagerThread();
-            new Thread(mTrackTaskManagerThread, ThreadNameConstants.THREAD_TASK_QUEUE).start();
+            new Thread(mTrackTaskManagerThread, ThreadNameConstants.THREAD_TASK_EXECUTE).start();
             SensorsDataExceptionHandler.init();
             initSAConfig(mSAConfigOptions.mServerUrl, packageName);
             mSAContextManager = new SAContextManager(mContext);
@@ -577,6 +596,21 @@ abstract class AbstractSensorsDataAPI implements ISensorsDataAPI {
         return true;
     }
 
+    /**
+     * 根据调用栈生成 $lib_detail
+     *
+     * @param trace 调用栈
+     * @return $lib_detail，调用栈无效时返回空字符串
+     */
+    static String formatLibDetail(StackTraceElement[] trace) {
+        if (trace == null || trace.length <= 1) {
+            return "";
+        }
+        StackTraceElement traceElement = trace[0];
+        return traceElement.getClassName() + "##" + traceElement.getMethodName() + "##"
+                + traceElement.getFileName() + "##" + traceElement.getLineNumber();
+    }
+
     protected void trackItemEvent(String itemType, String itemId, String eventType, long time, JSONObject properties) {
         try {
             boolean isItemTypeValid = SADataHelper.assertPropertyKey(itemType);
@@ -589,26 +623,16 @@ abstract class AbstractSensorsDataAPI implements ISensorsDataAPI {
             }
 
             JSONObject libProperties = new JSONObject();
-            libProperties.put("$lib", "Android");
-            libProperties.put("$lib_version", VERSION);
+            getEventEnvelope().fillLib(libProperties, VERSION, null);
             libProperties.put("$lib_method", "code");
-            mSAContextManager.addKeyIfExist(libProperties, "$app_version");
 
-            JSONObject superProperties = mSuperProperties.get();
-            if (superProperties != null) {
-                if (superProperties.has("$app_version")) {
-                    libProperties.put("$app_version", superProperties.get("$app_version"));
+            if (!mSAConfigOptions.isDisableLibDetail()) {
+                // 调用位置固定，只在第一次采集时获取调用栈
+                if (sItemLibDetail == null) {
+                    sItemLibDetail = formatLibDetail((new Exception()).getStackTrace());
                 }
-            }
-
-            StackTraceElement[] trace = (new Exception()).getStackTrace();
-            if (trace.length > 1) {
-                StackTraceElement traceElement = trace[0];
-                String libDetail = String.format("%s##%s##%s##%s", traceElement
-                                .getClassName(), traceElement.getMethodName(), traceElement.getFileName(),
-                        traceElement.getLineNumber());
-                if (!TextUtils.isEmpty(libDetail)) {
-                    libProperties.put("$lib_detail", libDetail);
+                if (!TextUtils.isEmpty(sItemLibDetail)) {
+                    libProperties.put("$lib_detail", sItemLibDetail);
                 }
             }
 
@@ -755,8 +779,7 @@ abstract class AbstractSensorsDataAPI implements ISensorsDataAPI {
             eventObject.put("time", eventTime);
 
             try {
-                SecureRandom secureRandom = new SecureRandom();
-                eventObject.put("_track_id", secureRandom.nextInt());
+                eventObject.put("_track_id", TrackIdGenerator.nextTrackId());
             } catch (Exception e) {
                 //ignore
             }
@@ -1051,12 +1074,33 @@ abstract class AbstractSensorsDataAPI implements ISensorsDataAPI {
      * @param dynamicProperty 动态公共属性
      */
     private void mergerDynamicAndSuperProperties(JSONObject eventProperty, JSONObject dynamicProperty) {
-        JSONObject superProperties = getSuperProperties();
         if (dynamicProperty == null) {
             dynamicProperty = getDynamicProperty();
         }
-        JSONObject removeDuplicateSuperProperties = SensorsDataUtils.mergeSuperJSONObject(dynamicProperty, superProperties);
-        SensorsDataUtils.mergeJSONObject(removeDuplicateSuperProperties, eventProperty);
+        try {
+            getSuperPropertiesSnapshot().mergeTo(dynamicProperty, eventProperty);
+        } catch (Exception e) {
+            SALog.printStackTrace(e);
+        }
+    }
+
+    /**
+     * 获取公共属性快照，公共属性修改后重新生成
+     *
+     * @return 公共属性快照
+     */
+    private SuperPropertiesSnapshot getSuperPropertiesSnapshot() {
+        SuperPropertiesSnapshot snapshot = mSuperPropertiesSnapshot;
+        if (snapshot == null) {
+            synchronized (mSuperProperties) {
+                snapshot = mSuperPropertiesSnapshot;
+                if (snapshot == null) {
+                    snapshot = new SuperPropertiesSnapshot(mSuperProperties.get());
+                    mSuperPropertiesSnapshot = snapshot;
+                }
+            }
+        }
+        return snapshot;
     }
 
     /**
@@ -1169,27 +1213,13 @@ abstract class AbstractSensorsDataAPI implements ISensorsDataAPI {
             }
         }
 
-        libProperties.put("$lib", "Android");
-        libProperties.put("$lib_version", lib_version);
-        if (TextUtils.isEmpty(appEnd_app_version)) {
-            mSAContextManager.addKeyIfExist(libProperties, "$app_version");
-        } else {
-            libProperties.put("$app_version", appEnd_app_version);
-        }
-
-        //update lib $app_version from super properties
-        JSONObject superProperties = mSuperProperties.get();
-        if (superProperties != null) {
-            if (superProperties.has("$app_version")) {
-                libProperties.put("$app_version", superProperties.get("$app_version"));
-            }
-        }
+        // 公共属性中的 $app_version 优先
+        getEventEnvelope().fillLib(libProperties, lib_version, appEnd_app_version);
 
         final JSONObject dataObj = new JSONObject();
 
         try {
-            SecureRandom random = new SecureRandom();
-            dataObj.put("_track_id", random.nextInt());
+            dataObj.put("_track_id", TrackIdGenerator.nextTrackId());
         } catch (Exception e) {
             // ignore
         }
@@ -1286,14 +1316,12 @@ abstract class AbstractSensorsDataAPI implements ISensorsDataAPI {
             }
         }
 
-        if (TextUtils.isEmpty(libDetail)) {
-            StackTraceElement[] trace = (new Exception()).getStackTrace();
-            if (trace.length > 1) {
-                StackTraceElement traceElement = trace[0];
-                libDetail = String.format("%s##%s##%s##%s", traceElement
-                                .getClassName(), traceElement.getMethodName(), traceElement.getFileName(),
-                        traceElement.getLineNumber());
+        if (TextUtils.isEmpty(libDetail) && !mSAConfigOptions.isDisableLibDetail()) {
+            // 调用位置固定，只在第一次采集时获取调用栈
+            if (sTrackLibDetail == null) {
+                sTrackLibDetail = formatLibDetail((new Exception()).getStackTrace());
             }
+            libDetail = TextUtils.isEmpty(sTrackLibDetail) ? null : sTrackLibDetail;
         }
 
         libProperties.put("$lib_detail", libDetail);
@@ -1448,14 +1476,43 @@ abstract class AbstractSensorsDataAPI implements ISensorsDataAPI {
      */
     private void getCarrier(JSONObject property) {
         try {
-            if (TextUtils.isEmpty(property.optString("$carrier"))) {
-                String carrier = SensorsDataUtils.getCarrier(mContext);
-                if (!TextUtils.isEmpty(carrier)) {
-                    property.put("$carrier", carrier);
-                }
-            }
+            getEventEnvelope().fillCarrier(property);
         } catch (Exception e) {
             SALog.printStackTrace(e);
         }
     }
+
+    /**
+     * 获取事件公共部分的模板，版本号变化、网络重新连接或者需要重新获取运营商时重新生成
+     *
+     * @return 事件模板
+     */
+    EventEnvelope getEventEnvelope() {
+        EventEnvelope envelope = mEventEnvelope;
+        int version = mEventEnvelopeVersion.get();
+        int connectionGeneration = NetworkUtils.getConnectionGeneration();
+        if (envelope != null && envelope.isValid(version, connectionGeneration)) {
+            return envelope;
+        }
+        // 网络重新连接后运营商可能已变化（例如更换 SIM 卡），不使用缓存的运营商
+        String carrier = envelope != null && envelope.isConnectionChanged(connectionGeneration)
+                ? SensorsDataUtils.refreshCarrier(mContext) : SensorsDataUtils.getCarrier(mContext);
+        JSONObject deviceInfo = new JSONObject();
+        mSAContextManager.addKeyIfExist(deviceInfo, "$app_version");
+        Object superAppVersion;
+        synchronized (mSuperProperties) {
+            JSONObject superProperties = mSuperProperties.get();
+            superAppVersion = superProperties == null ? null : superProperties.opt("$app_version");
+        }
+        envelope = new EventEnvelope(version, connectionGeneration, deviceInfo.opt("$app_version"), superAppVersion, carrier);
+        mEventEnvelope = envelope;
+        return envelope;
+    }
+
+    /**
+     * 公共属性等事件模板依赖的数据变化时调用，下条事件重新生成模板
+     */
+    void invalidateEventEnvelope() {
+        mEventEnvelopeVersion.incrementAndGet();
+    }
 }
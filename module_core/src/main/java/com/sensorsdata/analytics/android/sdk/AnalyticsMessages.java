@@ -23,6 +23,7 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.text.TextUtils;
 
 import com.sensorsdata.analytics.android.sdk.autotrack.ActivityLifecycleCallbacks;
@@ -33,28 +34,33 @@ import com.sensorsdata.analytics.android.sdk.exceptions.ConnectErrorException;
 import com.sensorsdata.analytics.android.sdk.exceptions.DebugModeException;
 import com.sensorsdata.analytics.android.sdk.exceptions.InvalidDataException;
 import com.sensorsdata.analytics.android.sdk.exceptions.ResponseErrorException;
+import com.sensorsdata.analytics.android.sdk.network.HttpUploadTransport;
+import com.sensorsdata.analytics.android.sdk.network.UploadBody;
+import com.sensorsdata.analytics.android.sdk.network.UploadResponse;
+import com.sensorsdata.analytics.android.sdk.network.UploadTransport;
+import com.sensorsdata.analytics.android.sdk.plugin.encrypt.SAStoreManager;
 import com.sensorsdata.analytics.android.sdk.util.Base64Coder;
 import com.sensorsdata.analytics.android.sdk.util.JSONUtils;
 import com.sensorsdata.analytics.android.sdk.util.NetworkUtils;
+import com.sensorsdata.analytics.android.sdk.util.ThreadUtils;
 import com.sensorsdata.analytics.android.sdk.util.TimeUtils;
 
 import org.json.JSONObject;
 
-import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPOutputStream;
 
-import javax.net.ssl.HttpsURLConnection;
-
 import static com.sensorsdata.analytics.android.sdk.util.Base64Coder.CHARSET_UTF8;
 
 
@@ -68,11 +74,20 @@ class AnalyticsMessages {
     private static final int FLUSH_QUEUE = 3;
     private static final int DELETE_ALL = 4;
     private static final int FLUSH_SCHEDULE = 5;
+    private static final int SEAL_SEGMENT = 6;
+    /* 上报格式：表单、Segment、流式 */
+    private static final int UPLOAD_MODE_FORM = 0;
+    private static final int UPLOAD_MODE_SEGMENT = 1;
+    private static final int UPLOAD_MODE_STREAM = 2;
     private static final Map<Context, AnalyticsMessages> S_INSTANCES = new HashMap<>();
     private final Worker mWorker;
     private final Context mContext;
     private final DbAdapter mDbAdapter;
     private SensorsDataAPI mSensorsDataAPI;
+    private final FlushBatchController mBatchController;
+    private final UploadTransport mUploadTransport;
+    /* 重定向缓存，格式为 {数据接收地址, 重定向后的地址} */
+    private volatile String[] mRedirectCache;
 
     /**
      * 不要直接调用，通过 getInstance 方法获取实例
@@ -81,7 +96,28 @@ class AnalyticsMessages {
         mContext = context;
         mDbAdapter = DbAdapter.getInstance();
         mWorker = new Worker();
+        // 缓存的事件定时写入时空间不足，与 enqueueEventMessage 一致立即上报以释放空间
+        mDbAdapter.setStorageFullListener(new DbAdapter.StorageFullListener() {
+            @Override
+            public void onStorageFull() {
+                SALog.i(TAG, "Failed to commit the buffered events, flush now");
+                final Message m = Message.obtain();
+                m.what = FLUSH_QUEUE;
+                mWorker.runMessage(m);
+            }
+        });
         mSensorsDataAPI = sensorsDataAPI;
+        SAConfigOptions configOptions = SensorsDataAPI.getConfigOptions();
+        if (configOptions != null) {
+            mBatchController = new FlushBatchController(configOptions.getFlushMinBatchSize(), configOptions.getFlushMaxBatchSize());
+        } else {
+            mBatchController = new FlushBatchController(50, 50);
+        }
+        if (configOptions != null && configOptions.getFlushTransport() != null) {
+            mUploadTransport = configOptions.getFlushTransport();
+        } else {
+            mUploadTransport = new HttpUploadTransport();
+        }
     }
 
     /**
@@ -103,21 +139,6 @@ class AnalyticsMessages {
         }
     }
 
-    private static byte[] slurp(final InputStream inputStream)
-            throws IOException {
-        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-
-        int nRead;
-        byte[] data = new byte[8192];
-
-        while ((nRead = inputStream.read(data, 0, data.length)) != -1) {
-            buffer.write(data, 0, nRead);
-        }
-
-        buffer.flush();
-        return buffer.toByteArray();
-    }
-
     void enqueueEventMessage(final String type, final JSONObject eventJson) {
         try {
             synchronized (mDbAdapter) {
@@ -131,6 +152,13 @@ class AnalyticsMessages {
                     }
                 }
 
+                // Segment 的压缩编码在上报线程中完成，不占用写入事件的线程
+                if (mDbAdapter.pollSegmentSealRequest()) {
+                    final Message sealMessage = Message.obtain();
+                    sealMessage.what = SEAL_SEGMENT;
+                    mWorker.runMessageOnce(sealMessage, 0);
+                }
+
                 final Message m = Message.obtain();
                 m.what = FLUSH_QUEUE;
 
@@ -155,6 +183,9 @@ class AnalyticsMessages {
 
     void flush() {
         try {
+            // 先将内存中缓存的事件入库、延迟写入的数据写入存储，保证无网络时数据也能持久化
+            mDbAdapter.commitBufferedEvents();
+            SAStoreManager.getInstance().flush(false);
             final Message m = Message.obtain();
             m.what = FLUSH_QUEUE;
 
@@ -187,6 +218,7 @@ class AnalyticsMessages {
     }
 
     private void sendData() {
+        String networkType;
         try {
             if (!mSensorsDataAPI.isNetworkRequestEnable()) {
                 SALog.i(TAG, "NetworkRequest is disabled");
@@ -204,7 +236,7 @@ class AnalyticsMessages {
             }
 
             //不符合同步数据的网络策略
-            String networkType = NetworkUtils.networkType(mContext);
+            networkType = NetworkUtils.networkType(mContext);
             if (!NetworkUtils.isShouldFlush(networkType, mSensorsDataAPI.getFlushNetworkPolicy())) {
                 SALog.i(TAG, String.format("Invalid NetworkType = %s", networkType));
                 return;
@@ -224,146 +256,322 @@ class AnalyticsMessages {
             SALog.printStackTrace(e);
             return;
         }
+        // 并发上报，Debug 模式下服务端只接收单条数据，始终串行发送
+        int concurrency = mSensorsDataAPI.getConfigOptions().getFlushConcurrency();
+        if (concurrency > 1 && !mSensorsDataAPI.isDebugMode()) {
+            int uploadMode = getUploadMode();
+            // 关闭 Segment 存储后遗留的 Segment 全部发送后，继续发送事件表中的数据
+            if (sendDataConcurrently(uploadMode, concurrency, networkType) && uploadMode == UPLOAD_MODE_SEGMENT
+                    && getUploadMode() != UPLOAD_MODE_SEGMENT) {
+                sendDataConcurrently(getUploadMode(), concurrency, networkType);
+            }
+        } else {
+            sendDataSerially(networkType);
+        }
+        if (mSensorsDataAPI.getConfigOptions().isMultiProcessFlush()) {
+            DbAdapter.getInstance().commitSubProcessFlushState(false);
+        }
+    }
+
+    /**
+     * 获取本次上报的数据格式：Segment 模式或存在之前封装的 Segment 时只发送 Segment，数据已压缩编码；
+     * 流式上报不支持加密数据，Debug 模式下使用表单格式
+     *
+     * @return 上报格式
+     */
+    private int getUploadMode() {
+        if (mDbAdapter.isSegmentUploadEnabled()) {
+            return UPLOAD_MODE_SEGMENT;
+        }
+        if (mSensorsDataAPI.getConfigOptions().isStreamingUpload() && !mSensorsDataAPI.isDebugMode()
+                && mDbAdapter.isStreamingSupported()) {
+            return UPLOAD_MODE_STREAM;
+        }
+        return UPLOAD_MODE_FORM;
+    }
+
+    /**
+     * 读取 _id 大于 afterId 的一批数据
+     *
+     * @param uploadMode 上报格式
+     * @param limit 条数限制
+     * @param afterId 上一批数据的最后一条 _id，为空时从头读取
+     * @param pipelined 是否为并发上报，并发上报时表单格式的数据也按 _id 顺序读取
+     * @return {lastId, 数据, gzip 类型}，流式上报时数据为空，发送时再从数据库读取
+     */
+    private String[] generateEventsData(int uploadMode, int limit, String afterId, boolean pipelined) {
+        synchronized (mDbAdapter) {
+            if (uploadMode == UPLOAD_MODE_SEGMENT) {
+                return mDbAdapter.generateSegmentData(afterId);
+            } else if (uploadMode == UPLOAD_MODE_STREAM) {
+                String lastId = mDbAdapter.generateEventRange(limit, afterId);
+                return lastId == null ? null : new String[]{lastId, null, DbParams.GZIP_DATA_EVENT};
+            } else if (pipelined) {
+                return mDbAdapter.generateDataString(DbParams.TABLE_EVENTS, limit, afterId);
+            }
+            return mDbAdapter.generateDataString(DbParams.TABLE_EVENTS, limit);
+        }
+    }
+
+    private void sendDataSerially(String networkType) {
         int count = 100;
         while (count > 0) {
-            boolean deleteEvents = true;
-            String[] eventsData;
-            synchronized (mDbAdapter) {
-                if (mSensorsDataAPI.isDebugMode()) {
-                    /* debug 模式下服务器只允许接收 1 条数据 */
-                    eventsData = mDbAdapter.generateDataString(DbParams.TABLE_EVENTS, 1);
-                } else {
-                    eventsData = mDbAdapter.generateDataString(DbParams.TABLE_EVENTS, 50);
-                }
-            }
+            final int uploadMode = getUploadMode();
+            /* debug 模式下服务器只允许接收 1 条数据 */
+            int limit = mSensorsDataAPI.isDebugMode() ? 1 : nextBatchSize(networkType);
+            String[] eventsData = generateEventsData(uploadMode, limit, null, false);
 
             if (eventsData == null) {
-                DbAdapter.getInstance().commitSubProcessFlushState(false);
                 return;
             }
 
             final String lastId = eventsData[0];
-            final String rawMessage = eventsData[1];
-            final String gzip = eventsData[2];
-            String errorMessage = null;
+            boolean deleteEvents = sendEventsData(eventsData, null, uploadMode, networkType);
+            if (uploadMode == UPLOAD_MODE_SEGMENT && deleteEvents) {
+                count = mDbAdapter.cleanupSegment(lastId);
+                SALog.i(TAG, String.format(TimeUtils.SDK_LOCALE, "Segment flushed. [left = %d]", count));
+            } else if (uploadMode != UPLOAD_MODE_SEGMENT && (deleteEvents || mSensorsDataAPI.isDebugMode())) {
+                count = mDbAdapter.cleanupEvents(lastId);
+                SALog.i(TAG, String.format(TimeUtils.SDK_LOCALE, "Events flushed. [left = %d]", count));
+            } else {
+                count = 0;
+            }
+        }
+    }
 
-            try {
-                String data = rawMessage;
-                if (DbParams.GZIP_DATA_EVENT.equals(gzip)) {
-                    data = encodeData(rawMessage);
+    /**
+     * 并发上报：上一批数据发送过程中继续读取并发送下一批数据，最多同时发送 concurrency 个请求。
+     * 每批数据按读取顺序确认，请求成功后只删除该批数据；某批失败后不再读取新数据，等待已发送的请求完成，
+     * 之后的批次即使成功也不删除，由下次上报按顺序重新发送，保证失败的数据不会排在更新的数据之后
+     *
+     * @param uploadMode 上报格式
+     * @param concurrency 最大请求数
+     * @param networkType 网络类型
+     * @return true 表示已发送全部数据
+     */
+    private boolean sendDataConcurrently(final int uploadMode, int concurrency, final String networkType) {
+        final ExecutorService uploadPool = ThreadUtils.getFixedPool(concurrency, Thread.MIN_PRIORITY);
+        final LinkedList<FlushBatch> inFlightBatches = new LinkedList<>();
+        String readId = null;
+        int remainingBatches = 100;
+        boolean hasMore = true;
+        boolean drained = false;
+        boolean failed = false;
+        while (true) {
+            while (hasMore && remainingBatches > 0 && inFlightBatches.size() < concurrency) {
+                final String afterId = readId;
+                final String[] eventsData = generateEventsData(uploadMode, nextBatchSize(networkType), afterId, true);
+                if (eventsData == null) {
+                    hasMore = false;
+                    drained = true;
+                    break;
                 }
+                Future<Boolean> future = uploadPool.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return sendEventsData(eventsData, afterId, uploadMode, networkType);
+                    }
+                });
+                inFlightBatches.add(new FlushBatch(afterId, eventsData[0], future));
+                readId = eventsData[0];
+                remainingBatches--;
+            }
 
-                if (!TextUtils.isEmpty(data)) {
-                    sendHttpRequest(mSensorsDataAPI.getServerUrl(), data, gzip, rawMessage, false);
-                }
-            } catch (ConnectErrorException e) {
-                deleteEvents = false;
-                errorMessage = "Connection error: " + e.getMessage();
-            } catch (InvalidDataException e) {
-                errorMessage = "Invalid data: " + e.getMessage();
-            } catch (ResponseErrorException e) {
-                deleteEvents = isDeleteEventsByCode(e.getHttpCode());
-                errorMessage = "ResponseErrorException: " + e.getMessage();
+            FlushBatch batch = inFlightBatches.poll();
+            if (batch == null) {
+                return drained;
+            }
+            boolean deleteEvents;
+            try {
+                deleteEvents = batch.result.get();
             } catch (Exception e) {
+                SALog.printStackTrace(e);
                 deleteEvents = false;
-                errorMessage = "Exception: " + e.getMessage();
-            } finally {
-                boolean isDebugMode = mSensorsDataAPI.isDebugMode();
-                if (!TextUtils.isEmpty(errorMessage)) {
-                    if (isDebugMode || SALog.isLogEnabled()) {
-                        SALog.i(TAG, errorMessage);
-                        if (isDebugMode && SensorsDataAPI.SHOW_DEBUG_INFO_VIEW) {
-                            SensorsDataDialogUtils.showHttpErrorDialog(AppStateManager.getInstance().getForegroundActivity(), errorMessage);
-                        }
-                    }
-                }
-                if (deleteEvents || isDebugMode) {
-                    count = mDbAdapter.cleanupEvents(lastId);
-                    SALog.i(TAG, String.format(TimeUtils.SDK_LOCALE, "Events flushed. [left = %d]", count));
+            }
+            if (deleteEvents && !failed) {
+                int count;
+                if (uploadMode == UPLOAD_MODE_SEGMENT) {
+                    count = mDbAdapter.cleanupSegment(batch.afterId, batch.lastId);
                 } else {
-                    count = 0;
+                    count = mDbAdapter.cleanupEvents(batch.afterId, batch.lastId);
                 }
-
+                SALog.i(TAG, String.format(TimeUtils.SDK_LOCALE, "Events flushed. [left = %d]", count));
+            } else {
+                hasMore = false;
+                drained = false;
+                failed = true;
             }
         }
-        if (mSensorsDataAPI.getConfigOptions().isMultiProcessFlush()) {
-            DbAdapter.getInstance().commitSubProcessFlushState(false);
-        }
     }
 
-    private void sendHttpRequest(String path, String data, String gzip, String rawMessage, boolean isRedirects) throws ConnectErrorException, ResponseErrorException {
-        HttpURLConnection connection = null;
-        InputStream in = null;
-        OutputStream out = null;
-        BufferedOutputStream bout = null;
+    /**
+     * 根据待上报事件的平均大小和网络状况计算下一批数据的条数
+     *
+     * @param networkType 网络类型
+     * @return 条数
+     */
+    private int nextBatchSize(String networkType) {
+        int count = mDbAdapter.getPendingEventCount();
+        long avgEventBytes = count > 0 ? mDbAdapter.getPendingBytes() / count : 0;
+        return mBatchController.nextBatchSize(networkType, avgEventBytes);
+    }
+
+    /**
+     * 压缩并发送一批数据
+     *
+     * @param eventsData {lastId, 数据, gzip 类型}
+     * @param afterId 上一批数据的最后一条 _id，流式上报时用于确定本批数据的范围
+     * @param uploadMode 上报格式
+     * @param networkType 网络类型
+     * @return true 表示可以删除该批数据
+     */
+    private boolean sendEventsData(String[] eventsData, String afterId, int uploadMode, String networkType) {
+        boolean deleteEvents = true;
+        final String rawMessage = uploadMode == UPLOAD_MODE_FORM ? eventsData[1] : null;
+        final String gzip = eventsData[2];
+        String errorMessage = null;
+        // Segment 的条数在封装时已确定，不参与条数调整
+        final boolean adjustBatchSize = uploadMode != UPLOAD_MODE_SEGMENT && !mSensorsDataAPI.isDebugMode();
+        long startTime = 0;
+
         try {
-            final URL url = new URL(path);
-            connection = (HttpURLConnection) url.openConnection();
-            if (connection == null) {
-                SALog.i(TAG, String.format("can not connect %s, it shouldn't happen", url.toString()), null);
-                return;
+            if (uploadMode == UPLOAD_MODE_STREAM) {
+                startTime = SystemClock.elapsedRealtime();
+                sendStreamRequest(mSensorsDataAPI.getServerUrl(), afterId, eventsData[0]);
+            } else {
+                String data = eventsData[1];
+                if (uploadMode == UPLOAD_MODE_FORM && DbParams.GZIP_DATA_EVENT.equals(gzip)) {
+                    data = encodeData(rawMessage);
+                }
+
+                if (!TextUtils.isEmpty(data)) {
+                    startTime = SystemClock.elapsedRealtime();
+                    sendHttpRequest(mSensorsDataAPI.getServerUrl(), data, gzip, rawMessage, uploadMode == UPLOAD_MODE_SEGMENT);
+                }
             }
-            SAConfigOptions configOptions = SensorsDataAPI.getConfigOptions();
-            if (configOptions != null && configOptions.mSSLSocketFactory != null
-                    && connection instanceof HttpsURLConnection) {
-                ((HttpsURLConnection) connection).setSSLSocketFactory(configOptions.mSSLSocketFactory);
+            if (adjustBatchSize && startTime > 0) {
+                mBatchController.onBatchResult(networkType, SystemClock.elapsedRealtime() - startTime, true);
             }
-            connection.setInstanceFollowRedirects(false);
-            if (mSensorsDataAPI.getDebugMode() == SensorsDataAPI.DebugMode.DEBUG_ONLY) {
-                connection.addRequestProperty("Dry-Run", "true");
+        } catch (ConnectErrorException e) {
+            deleteEvents = false;
+            errorMessage = "Connection error: " + e.getMessage();
+            if (adjustBatchSize) {
+                mBatchController.onBatchResult(networkType, SystemClock.elapsedRealtime() - startTime, false);
+            }
+        } catch (InvalidDataException e) {
+            errorMessage = "Invalid data: " + e.getMessage();
+        } catch (ResponseErrorException e) {
+            deleteEvents = isDeleteEventsByCode(e.getHttpCode());
+            errorMessage = "ResponseErrorException: " + e.getMessage();
+            if (adjustBatchSize && e.getHttpCode() >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                mBatchController.onBatchResult(networkType, SystemClock.elapsedRealtime() - startTime, false);
+            }
+        } catch (Exception e) {
+            deleteEvents = false;
+            errorMessage = "Exception: " + e.getMessage();
+        } finally {
+            boolean isDebugMode = mSensorsDataAPI.isDebugMode();
+            if (!TextUtils.isEmpty(errorMessage)) {
+                if (isDebugMode || SALog.isLogEnabled()) {
+                    SALog.i(TAG, errorMessage);
+                    if (isDebugMode && SensorsDataAPI.SHOW_DEBUG_INFO_VIEW) {
+                        SensorsDataDialogUtils.showHttpErrorDialog(AppStateManager.getInstance().getForegroundActivity(), errorMessage);
+                    }
+                }
             }
+        }
+        return deleteEvents;
+    }
 
-            String cookie = mSensorsDataAPI.getCookie(false);
-            if (!TextUtils.isEmpty(cookie)) {
-                connection.setRequestProperty("Cookie", cookie);
+    /**
+     * 以表单格式发送数据，data_list 为 gzip 压缩并 Base64 编码后的数据。
+     * Segment 中的事件不包含 _flush_time，由 flush_time 参数发送本次请求的上报时间，重试时无需重新编码
+     */
+    private void sendHttpRequest(String path, String data, String gzip, String rawMessage, boolean isSegment) throws ConnectErrorException, ResponseErrorException {
+        Uri.Builder builder = new Uri.Builder();
+        //先校验crc
+        if (!TextUtils.isEmpty(data)) {
+            builder.appendQueryParameter("crc", String.valueOf(data.hashCode()));
+        }
+
+        builder.appendQueryParameter("gzip", gzip);
+        builder.appendQueryParameter("data_list", data);
+        if (isSegment) {
+            builder.appendQueryParameter("flush_time", String.valueOf(System.currentTimeMillis()));
+        }
+
+        String query = builder.build().getEncodedQuery();
+        if (TextUtils.isEmpty(query)) {
+            return;
+        }
+        try {
+            postData(path, null, UploadBody.create("application/x-www-form-urlencoded", query.getBytes(CHARSET_UTF8)), rawMessage, false);
+        } catch (UnsupportedEncodingException e) {
+            throw new ConnectErrorException(e);
+        }
+    }
+
+    /**
+     * 流式发送数据：事件从数据库逐条读取，经 gzip 压缩后直接写入请求体，请求体为 JSON 数组，使用分块传输，
+     * 内存占用与单批数据的大小无关
+     *
+     * @param path 数据接收地址
+     * @param afterId 上一批数据的最后一条 _id
+     * @param lastId 本批数据的最后一条 _id
+     */
+    private void sendStreamRequest(String path, final String afterId, final String lastId) throws ConnectErrorException, ResponseErrorException {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Encoding", "gzip");
+        postData(path, headers, new UploadBody() {
+            @Override
+            public String contentType() {
+                return "application/json";
             }
 
-            Uri.Builder builder = new Uri.Builder();
-            //先校验crc
-            if (!TextUtils.isEmpty(data)) {
-                builder.appendQueryParameter("crc", String.valueOf(data.hashCode()));
+            @Override
+            public long contentLength() {
+                return -1;
             }
 
-            builder.appendQueryParameter("gzip", gzip);
-            builder.appendQueryParameter("data_list", data);
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                GZIPOutputStream gos = new GZIPOutputStream(out, 8192);
+                mDbAdapter.writeEvents(afterId, lastId, gos);
+                gos.finish();
+            }
+        }, null, false);
+    }
 
-            String query = builder.build().getEncodedQuery();
-            if (TextUtils.isEmpty(query)) {
-                return;
+    private void postData(String path, Map<String, String> extraHeaders, UploadBody body, String rawMessage, boolean isRedirects) throws ConnectErrorException, ResponseErrorException {
+        // 使用缓存的重定向地址，避免每批数据都经过一次重定向
+        final String url = isRedirects ? path : getUploadUrl(path);
+        try {
+            Map<String, String> headers = new HashMap<>();
+            if (extraHeaders != null) {
+                headers.putAll(extraHeaders);
+            }
+            if (mSensorsDataAPI.getDebugMode() == SensorsDataAPI.DebugMode.DEBUG_ONLY) {
+                headers.put("Dry-Run", "true");
             }
 
-            connection.setFixedLengthStreamingMode(query.getBytes(CHARSET_UTF8).length);
-            connection.setDoOutput(true);
-            connection.setRequestMethod("POST");
-            //设置连接超时时间
-            connection.setConnectTimeout(30 * 1000);
-            //设置读取超时时间
-            connection.setReadTimeout(30 * 1000);
-            out = connection.getOutputStream();
-            bout = new BufferedOutputStream(out);
-            bout.write(query.getBytes(CHARSET_UTF8));
-            bout.flush();
+            String cookie = mSensorsDataAPI.getCookie(false);
+            if (!TextUtils.isEmpty(cookie)) {
+                headers.put("Cookie", cookie);
+            }
 
-            int responseCode = connection.getResponseCode();
+            UploadResponse uploadResponse = mUploadTransport.post(url, headers, body);
+            int responseCode = uploadResponse.code;
             SALog.i(TAG, "responseCode: " + responseCode);
             if (!isRedirects && NetworkUtils.needRedirects(responseCode)) {
-                String location = NetworkUtils.getLocation(connection, path);
+                String location = uploadResponse.location;
                 if (!TextUtils.isEmpty(location)) {
-                    closeStream(bout, out, null, connection);
-                    sendHttpRequest(location, data, gzip, rawMessage, true);
+                    postData(location, extraHeaders, body, rawMessage, true);
+                    mRedirectCache = new String[]{path, location};
                     return;
                 }
             }
-            try {
-                in = connection.getInputStream();
-            } catch (FileNotFoundException e) {
-                in = connection.getErrorStream();
-            }
-            byte[] responseBody = slurp(in);
-            in.close();
-            in = null;
 
-            String response = new String(responseBody, CHARSET_UTF8);
+            String response = uploadResponse.body;
             if (SALog.isLogEnabled()) {
                 String jsonMessage = JSONUtils.formatJson(rawMessage);
                 // 状态码 200 - 300 间都认为正确
@@ -382,9 +590,34 @@ class AnalyticsMessages {
                         response, responseCode), responseCode);
             }
         } catch (IOException e) {
+            clearRedirectCache(path, url);
             throw new ConnectErrorException(e);
-        } finally {
-            closeStream(bout, out, in, connection);
+        } catch (ResponseErrorException e) {
+            clearRedirectCache(path, url);
+            throw e;
+        }
+    }
+
+    /**
+     * 获取实际的上报地址，数据接收地址发生过重定向时使用重定向后的地址
+     *
+     * @param serverUrl 数据接收地址
+     * @return 上报地址
+     */
+    private String getUploadUrl(String serverUrl) {
+        String[] redirectCache = mRedirectCache;
+        if (redirectCache != null && redirectCache[0].equals(serverUrl)) {
+            return redirectCache[1];
+        }
+        return serverUrl;
+    }
+
+    /**
+     * 使用缓存的重定向地址上报失败时清除缓存，下次上报重新解析重定向
+     */
+    private void clearRedirectCache(String serverUrl, String url) {
+        if (!serverUrl.equals(url)) {
+            mRedirectCache = null;
         }
     }
 
@@ -404,40 +637,6 @@ class AnalyticsMessages {
         return shouldDelete;
     }
 
-    private void closeStream(BufferedOutputStream bout, OutputStream out, InputStream in, HttpURLConnection connection) {
-        if (null != bout) {
-            try {
-                bout.close();
-            } catch (Exception e) {
-                SALog.i(TAG, e.getMessage());
-            }
-        }
-
-        if (null != out) {
-            try {
-                out.close();
-            } catch (Exception e) {
-                SALog.i(TAG, e.getMessage());
-            }
-        }
-
-        if (null != in) {
-            try {
-                in.close();
-            } catch (Exception e) {
-                SALog.i(TAG, e.getMessage());
-            }
-        }
-
-        if (null != connection) {
-            try {
-                connection.disconnect();
-            } catch (Exception e) {
-                SALog.i(TAG, e.getMessage());
-            }
-        }
-    }
-
     private String encodeData(final String rawMessage) throws InvalidDataException {
         GZIPOutputStream gos = null;
         try {
@@ -462,6 +661,21 @@ class AnalyticsMessages {
         }
     }
 
+    /**
+     * 并发上报中已发送的一批数据
+     */
+    private static class FlushBatch {
+        final String afterId;
+        final String lastId;
+        final Future<Boolean> result;
+
+        FlushBatch(String afterId, String lastId, Future<Boolean> result) {
+            this.afterId = afterId;
+            this.lastId = lastId;
+            this.result = result;
+        }
+    }
+
     // Worker will manage the (at most single) IO thread associated with
     // this AnalyticsMessages instance.
     // XXX: Worker class is unnecessary, should be just a subclass of HandlerThread
@@ -522,6 +736,8 @@ class AnalyticsMessages {
                     } else if (msg.what == FLUSH_SCHEDULE) {
                         flushScheduled();
                         sendData();
+                    } else if (msg.what == SEAL_SEGMENT) {
+                        mDbAdapter.sealSegments();
                     } else {
                         SALog.i(TAG, "Unexpected message received by SensorsData worker: " + msg);
                     }
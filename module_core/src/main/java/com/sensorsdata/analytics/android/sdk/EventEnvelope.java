@@ -0,0 +1,108 @@
+/*
+ * Created by dengshiwei on 2022/07/29.
+ * Copyright 2015－2022 Sensors Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sensorsdata.analytics.android.sdk;
+
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * 事件公共部分的模板：lib 中的 $lib、$lib_version、$app_version 以及运营商信息在进程内基本不变，
+ * 生成一次后每条事件直接复制。公共属性修改时模板版本号递增并重新生成，运营商为空时定时重新获取，
+ * 网络重新连接（例如更换 SIM 卡）后重新获取运营商
+ */
+final class EventEnvelope {
+    /* 运营商为空时重新获取的间隔 */
+    private static final long CARRIER_RETRY_INTERVAL = 60 * 1000;
+    private final int mVersion;
+    /* 预置属性中的 $app_version */
+    private final Object mAppVersion;
+    /* 公共属性中的 $app_version，优先级高于预置属性和 $AppEnd 中的版本号 */
+    private final Object mSuperAppVersion;
+    private final String mCarrier;
+    /* 生成模板时的网络连接次数 */
+    private final int mConnectionGeneration;
+    private final long mCreateTime;
+
+    EventEnvelope(int version, int connectionGeneration, Object appVersion, Object superAppVersion, String carrier) {
+        this.mVersion = version;
+        this.mConnectionGeneration = connectionGeneration;
+        this.mAppVersion = appVersion;
+        this.mSuperAppVersion = superAppVersion;
+        this.mCarrier = carrier;
+        this.mCreateTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * 模板是否可以继续使用
+     *
+     * @param version 当前版本号
+     * @param connectionGeneration 当前的网络连接次数
+     * @return true 可以使用，false 需要重新生成
+     */
+    boolean isValid(int version, int connectionGeneration) {
+        if (mVersion != version || mConnectionGeneration != connectionGeneration) {
+            return false;
+        }
+        return !TextUtils.isEmpty(mCarrier) || SystemClock.elapsedRealtime() - mCreateTime < CARRIER_RETRY_INTERVAL;
+    }
+
+    /**
+     * 网络连接是否已变化，变化后需要重新获取运营商
+     *
+     * @param connectionGeneration 当前的网络连接次数
+     * @return true 已变化
+     */
+    boolean isConnectionChanged(int connectionGeneration) {
+        return mConnectionGeneration != connectionGeneration;
+    }
+
+    /**
+     * 填充 lib 中的 $lib、$lib_version、$app_version
+     *
+     * @param libProperties lib 属性
+     * @param libVersion $lib_version
+     * @param appEndAppVersion $AppEnd 事件记录的 $app_version，为空时使用预置属性
+     * @throws JSONException JSONException
+     */
+    void fillLib(JSONObject libProperties, String libVersion, String appEndAppVersion) throws JSONException {
+        libProperties.put("$lib", "Android");
+        libProperties.put("$lib_version", libVersion);
+        if (mSuperAppVersion != null) {
+            libProperties.put("$app_version", mSuperAppVersion);
+        } else if (!TextUtils.isEmpty(appEndAppVersion)) {
+            libProperties.put("$app_version", appEndAppVersion);
+        } else if (mAppVersion != null) {
+            libProperties.put("$app_version", mAppVersion);
+        }
+    }
+
+    /**
+     * 事件属性中没有 $carrier 时填充运营商
+     *
+     * @param properties 事件属性
+     * @throws JSONException JSONException
+     */
+    void fillCarrier(JSONObject properties) throws JSONException {
+        if (!TextUtils.isEmpty(mCarrier) && TextUtils.isEmpty(properties.optString("$carrier"))) {
+            properties.put("$carrier", mCarrier);
+        }
+    }
+}
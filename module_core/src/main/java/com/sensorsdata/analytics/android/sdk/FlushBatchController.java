@@ -0,0 +1,105 @@
+/*
+ * Created by dengshiwei on 2022/07/18.
+ * Copyright 2015－2022 Sensors Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sensorsdata.analytics.android.sdk;
+
+/**
+ * 上报条数控制：根据网络类型限制单次请求的数据大小，并根据请求耗时和失败率调整单次上报的条数。
+ * 请求快速成功时逐步增加条数，耗时过长或失败时减少条数
+ */
+class FlushBatchController {
+    private static final String TAG = "SA.FlushBatchController";
+    /* 失败率的平滑系数 */
+    private static final float ERROR_RATE_WEIGHT = 0.2f;
+    /* 失败率超过该值时不再增加条数 */
+    private static final float MAX_ERROR_RATE_TO_GROW = 0.1f;
+    private final int mMinSize;
+    private final int mMaxSize;
+    private int mBatchSize;
+    private float mErrorRate = 0;
+
+    /**
+     * @param minSize 单次上报的最小条数
+     * @param maxSize 单次上报的最大条数，同时作为初始条数
+     */
+    FlushBatchController(int minSize, int maxSize) {
+        this.mMinSize = Math.max(1, minSize);
+        this.mMaxSize = Math.max(mMinSize, maxSize);
+        this.mBatchSize = mMaxSize;
+    }
+
+    /**
+     * 获取下一次上报的条数
+     *
+     * @param networkType 网络类型
+     * @param avgEventBytes 待上报事件的平均大小，小于等于 0 时不按大小限制
+     * @return 条数
+     */
+    synchronized int nextBatchSize(String networkType, long avgEventBytes) {
+        int size = mBatchSize;
+        if (avgEventBytes > 0) {
+            size = (int) Math.min(size, getByteBudget(networkType) / avgEventBytes);
+        }
+        return Math.max(mMinSize, size);
+    }
+
+    /**
+     * 记录一次请求的结果
+     *
+     * @param networkType 网络类型
+     * @param latency 请求耗时，单位毫秒
+     * @param success 请求是否成功，网络异常和服务端 5xx 错误视为失败
+     */
+    synchronized void onBatchResult(String networkType, long latency, boolean success) {
+        mErrorRate = mErrorRate * (1 - ERROR_RATE_WEIGHT) + (success ? 0 : ERROR_RATE_WEIGHT);
+        long targetLatency = getTargetLatency(networkType);
+        if (!success) {
+            mBatchSize = Math.max(mMinSize, mBatchSize / 2);
+        } else if (latency > targetLatency) {
+            mBatchSize = Math.max(mMinSize, mBatchSize * 3 / 4);
+        } else if (latency < targetLatency / 2 && mErrorRate < MAX_ERROR_RATE_TO_GROW) {
+            mBatchSize = Math.min(mMaxSize, mBatchSize + Math.max(1, mBatchSize / 4));
+        }
+        SALog.i(TAG, "network = " + networkType + ", latency = " + latency + ", success = " + success + ", batch size = " + mBatchSize);
+    }
+
+    /**
+     * 单次请求压缩前的数据大小上限，按字节数计算
+     */
+    private static long getByteBudget(String networkType) {
+        if ("WIFI".equals(networkType) || "5G".equals(networkType)) {
+            return 512 * 1024;
+        } else if ("4G".equals(networkType)) {
+            return 256 * 1024;
+        } else if ("2G".equals(networkType)) {
+            return 16 * 1024;
+        }
+        return 64 * 1024;
+    }
+
+    /**
+     * 单次请求的期望耗时，单位毫秒
+     */
+    private static long getTargetLatency(String networkType) {
+        if ("2G".equals(networkType)) {
+            return 8 * 1000;
+        } else if ("3G".equals(networkType)) {
+            return 4 * 1000;
+        }
+        return 2 * 1000;
+    }
+}
@@ -22,6 +22,7 @@ import android.text.TextUtils;
 import com.sensorsdata.analytics.android.sdk.plugin.encrypt.StorePlugin;
 import com.sensorsdata.analytics.android.sdk.encrypt.IPersistentSecretKey;
 import com.sensorsdata.analytics.android.sdk.encrypt.SAEncryptListener;
+import com.sensorsdata.analytics.android.sdk.network.UploadTransport;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -308,6 +309,18 @@ public final class SAConfigOptions extends AbstractSAConfigOptions implements Cl
         return this;
     }
 
+    /**
+     * 开启加密后，事件以明文入库，上报时将整批事件压缩、加密一次，payloads 中的一条数据为一批事件组成的 JSON 数组。
+     * 整批加密的数据以 gzip=10 上报，与逐条加密的 gzip=9 分开发送，需要数据接收地址支持该格式，默认逐条加密；未开启加密时不生效
+     *
+     * @param enableBatchEncrypt true 开启，false 关闭
+     * @return SAConfigOptions
+     */
+    public SAConfigOptions enableBatchEncrypt(boolean enableBatchEncrypt) {
+        this.mBatchEncrypt = enableBatchEncrypt;
+        return this;
+    }
+
     /**
      * 密钥回调监听
      *
@@ -417,7 +430,7 @@ public final class SAConfigOptions extends AbstractSAConfigOptions implements Cl
     }
 
     /**
-     * 注册自定义插件，适用于 SP 加密
+     * 注册自定义插件，适用于 SP 加密，或使用 SAMmapStorePlugin 替换 SP 存储
      *
      * @param plugin 自定义插件
      * @return SAConfigOptions
@@ -451,6 +464,141 @@ public final class SAConfigOptions extends AbstractSAConfigOptions implements Cl
         return this;
     }
 
+    /**
+     * 开启事件批量入库，事件先缓存在内存中，达到条数上限或等待超时后在一个事务中写入数据库。
+     * App 进入后台、发生崩溃以及上报数据前会立即写入缓存的事件。
+     *
+     * @param batchSize 单次写入的最大条数，合法区间为 [2, 200]
+     * @param batchInterval 最长等待时间，单位毫秒，合法区间为 [10, 1000]
+     * @return SAConfigOptions
+     */
+    public SAConfigOptions enableBatchInsertEvents(int batchSize, int batchInterval) {
+        this.mEventBatchSize = Math.min(Math.max(2, batchSize), 200);
+        this.mEventBatchInterval = Math.min(Math.max(10, batchInterval), 1000);
+        return this;
+    }
+
+    /**
+     * 开启 Segment 存储，事件入库后达到条数或大小上限时会被封装为压缩编码后的 Segment，
+     * 上报时直接发送 Segment，无需重新读取、拼接和压缩事件。Segment 中的事件不包含 _flush_time，上报时间由请求参数 flush_time 发送，
+     * 需要数据接收地址支持该参数。仅在未开启加密且非 Debug 模式下生效。
+     *
+     * @param maxEventCount 单个 Segment 的最大事件条数，合法区间为 [10, 500]
+     * @param maxBytes 单个 Segment 压缩前的最大数据大小，合法区间为 [16K, 1M]
+     * @return SAConfigOptions
+     */
+    public SAConfigOptions enableEventSegment(int maxEventCount, int maxBytes) {
+        this.mSegmentMaxEventCount = Math.min(Math.max(10, maxEventCount), 500);
+        this.mSegmentMaxBytes = Math.min(Math.max(16 * 1024, maxBytes), 1024 * 1024);
+        return this;
+    }
+
+    /**
+     * 开启事件数据库的存储配置：WAL 模式、synchronous = NORMAL、1M 页缓存，新建的数据库使用 4K 页和增量回收，
+     * 大量删除数据后在后台线程回收空闲页。旧版本创建的数据库在空闲页超过一半时执行一次 VACUUM 并转换为增量回收。
+     * 断电时可能丢失最近提交的事件，但不会损坏数据库；在 SDK 初始化前已打开的数据库连接不生效。默认关闭
+     *
+     * @param enableStorageProfile true 开启，false 关闭
+     * @return SAConfigOptions
+     */
+    public SAConfigOptions enableStorageProfile(boolean enableStorageProfile) {
+        this.mStorageProfileEnabled = enableStorageProfile;
+        return this;
+    }
+
+    /**
+     * 设置上报数据时同时发送的最大请求数。大于 1 时，上一批数据发送过程中会继续读取并发送下一批数据，
+     * 每批数据在请求成功后单独删除。Debug 模式下始终逐条串行发送。
+     *
+     * @param concurrency 最大请求数，合法区间为 [1, 4]，默认为 1
+     * @return SAConfigOptions
+     */
+    public SAConfigOptions setFlushConcurrency(int concurrency) {
+        this.mFlushConcurrency = Math.min(Math.max(1, concurrency), 4);
+        return this;
+    }
+
+    /**
+     * 设置单次上报的条数范围。SDK 会根据网络类型限制单次请求的数据大小，
+     * 并根据请求耗时和失败率在该范围内调整单次上报的条数，默认为 [10, 50]。
+     *
+     * @param minSize 最小条数，合法区间为 [1, 500]
+     * @param maxSize 最大条数，合法区间为 [minSize, 500]
+     * @return SAConfigOptions
+     */
+    public SAConfigOptions setFlushBatchSizeRange(int minSize, int maxSize) {
+        this.mFlushMinBatchSize = Math.min(Math.max(1, minSize), 500);
+        this.mFlushMaxBatchSize = Math.min(Math.max(mFlushMinBatchSize, maxSize), 500);
+        return this;
+    }
+
+    /**
+     * 设置自定义的上报传输层，例如使用支持 HTTP/2 的客户端发送数据。
+     * 未设置时使用基于 HttpURLConnection 的默认实现，批次之间复用连接
+     *
+     * @param transport 上报传输层
+     * @return SAConfigOptions
+     */
+    public SAConfigOptions setFlushTransport(UploadTransport transport) {
+        this.mFlushTransport = transport;
+        return this;
+    }
+
+    /**
+     * 开启流式上报。事件从数据库逐条读取，经 gzip 压缩后直接写入请求体，请求体为 JSON 数组，
+     * 请求头包含 Content-Encoding: gzip，并使用分块传输，内存占用与单批数据的大小无关。
+     * 需要数据接收地址支持该格式，默认使用表单格式上报；开启加密或 Debug 模式下不生效
+     *
+     * @param enableStreamingUpload true 开启，false 关闭
+     * @return SAConfigOptions
+     */
+    public SAConfigOptions enableStreamingUpload(boolean enableStreamingUpload) {
+        this.mStreamingUpload = enableStreamingUpload;
+        return this;
+    }
+
+    /**
+     * 不自动采集 $lib_detail 调用位置信息，属性中传入的 $lib_detail 和全埋点事件的页面信息不受影响
+     *
+     * @return SAConfigOptions
+     */
+    public SAConfigOptions disableLibDetail() {
+        this.mDisableLibDetail = true;
+        return this;
+    }
+
+    /**
+     * 设置事件任务队列的容量和队列已满时的处理策略，默认不限制容量。
+     * 队列中除事件外还包含登录、清除数据等操作，丢弃策略下这些操作同样可能被丢弃；阻塞策略下调用线程会等待，包括主线程
+     *
+     * @param capacity 队列容量，小于等于 0 时不限制
+     * @param overflowPolicy 队列已满时的处理策略，取值为 TrackTaskManager.OVERFLOW_BLOCK、OVERFLOW_DROP_OLDEST、OVERFLOW_DROP_NEWEST
+     * @return SAConfigOptions
+     */
+    public SAConfigOptions setTrackQueueCapacity(int capacity, int overflowPolicy) {
+        this.mTrackQueueCapacity = capacity;
+        if (overflowPolicy == TrackTaskManager.OVERFLOW_DROP_OLDEST || overflowPolicy == TrackTaskManager.OVERFLOW_DROP_NEWEST) {
+            this.mTrackQueueOverflowPolicy = overflowPolicy;
+        } else {
+            this.mTrackQueueOverflowPolicy = TrackTaskManager.OVERFLOW_BLOCK;
+        }
+        return this;
+    }
+
+    /**
+     * 使用无锁环形队列作为事件任务队列，多个线程同时埋点时不再竞争队列锁，入队不分配队列节点。
+     * 容量为 setTrackQueueCapacity 设置的容量向上取整为 2 的幂，未设置时为 1024，队列已满时丢弃新任务；
+     * 设置后队列已满时按 setTrackQueueCapacity 设置的策略处理，其中 OVERFLOW_DROP_OLDEST 按 OVERFLOW_DROP_NEWEST 处理，
+     * OVERFLOW_BLOCK 时调用线程间隔等待，包括主线程
+     *
+     * @param enableRingBuffer true 开启，false 关闭
+     * @return SAConfigOptions
+     */
+    public SAConfigOptions enableTrackRingBuffer(boolean enableRingBuffer) {
+        this.mTrackRingBuffer = enableRingBuffer;
+        return this;
+    }
+
     @Override
     protected SAConfigOptions clone() {
         SAConfigOptions copyObject = this;
@@ -1696,8 +1696,9 @@ public class SensorsDataAPI extends AbstractSensorsDataAPI {
     @Override
     public void startTrackThread() {
         if (mTrackTaskManagerThread == null || mTrackTaskManagerThread.isStopped()) {
-            mTrackTaskManagerThread = new TrackTaskManagerThread();
-            new Thread(mTrackTaskManagerThread).start();
+            // 新线程等待已停止的线程处理完剩余任务后再开始消费，避免两个线程同时从队列中取任务
+            mTrackTaskManagerThread = new TrackTaskManagerThread(mTrackTaskManagerThread);
+            new Thread(mTrackTaskManagerThread, ThreadNameConstants.THREAD_TASK_EXECUTE).start();
             SALog.i(TAG, "Data collection thread has been started");
         }
     }
@@ -1738,6 +1739,8 @@ public class SensorsDataAPI extends AbstractSensorsDataAPI {
                         synchronized (mSuperProperties) {
                             JSONObject properties = mSuperProperties.get();
                             mSuperProperties.commit(SensorsDataUtils.mergeSuperJSONObject(cloneSuperProperties, properties));
+                            mSuperPropertiesSnapshot = null;
+                            invalidateEventEnvelope();
                         }
                     } catch (Exception e) {
                         SALog.printStackTrace(e);
@@ -1759,6 +1762,8 @@ public class SensorsDataAPI extends AbstractSensorsDataAPI {
                         JSONObject superProperties = mSuperProperties.get();
                         superProperties.remove(superPropertyName);
                         mSuperProperties.commit(superProperties);
+                        mSuperPropertiesSnapshot = null;
+                        invalidateEventEnvelope();
                     }
                 } catch (Exception e) {
                     SALog.printStackTrace(e);
@@ -1774,6 +1779,8 @@ public class SensorsDataAPI extends AbstractSensorsDataAPI {
             public void run() {
                 synchronized (mSuperProperties) {
                     mSuperProperties.commit(new JSONObject());
+                    mSuperPropertiesSnapshot = null;
+                    invalidateEventEnvelope();
                 }
             }
         });
@@ -18,7 +18,9 @@
 package com.sensorsdata.analytics.android.sdk;
 
 
+import com.sensorsdata.analytics.android.sdk.data.adapter.DbAdapter;
 import com.sensorsdata.analytics.android.sdk.internal.beans.EventType;
+import com.sensorsdata.analytics.android.sdk.plugin.encrypt.SAStoreManager;
 
 import org.json.JSONObject;
 
@@ -95,6 +97,16 @@ public class SensorsDataExceptionHandler implements Thread.UncaughtExceptionHand
                     SALog.printStackTrace(e1);
                 }
             }
+            try {
+                DbAdapter.getInstance().commitBufferedEvents();
+            } catch (Exception ex) {
+                SALog.printStackTrace(ex);
+            }
+            try {
+                SAStoreManager.getInstance().flush(true);
+            } catch (Exception ex) {
+                SALog.printStackTrace(ex);
+            }
             SensorsDataAPI.sharedInstance().flush();
             try {
                 Thread.sleep(SLEEP_TIMEOUT_MS);
@@ -0,0 +1,128 @@
+/*
+ * Created by dengshiwei on 2022/07/28.
+ * Copyright 2015－2022 Sensors Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sensorsdata.analytics.android.sdk;
+
+import android.text.TextUtils;
+
+import com.sensorsdata.analytics.android.sdk.util.SensorsDataUtils;
+import com.sensorsdata.analytics.android.sdk.util.TimeUtils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 公共属性快照：公共属性修改后重新生成，生成时完成日期格式化并建立小写 key 索引，
+ * 每条事件合并公共属性时只需遍历动态公共属性查找重复的 key，不再复制和遍历全部公共属性
+ */
+final class SuperPropertiesSnapshot {
+    private static final int[] EMPTY_INDEXES = new int[0];
+    private final String[] mKeys;
+    private final Object[] mValues;
+    /* 小写 key -> 公共属性下标，大小写不同的 key 对应多个下标 */
+    private final Map<String, int[]> mLowerCaseIndex;
+
+    SuperPropertiesSnapshot(JSONObject superProperties) {
+        int length = superProperties == null ? 0 : superProperties.length();
+        mKeys = new String[length];
+        mValues = new Object[length];
+        mLowerCaseIndex = new HashMap<>(length * 2);
+        if (length == 0) {
+            return;
+        }
+        Iterator<String> iterator = superProperties.keys();
+        int index = 0;
+        while (iterator.hasNext() && index < length) {
+            String key = iterator.next();
+            Object value = superProperties.opt(key);
+            if (value instanceof Date && !"$time".equals(key)) {
+                value = TimeUtils.formatDate((Date) value, TimeUtils.SDK_LOCALE);
+            }
+            mKeys[index] = key;
+            mValues[index] = value;
+            String lowerCaseKey = key.toLowerCase(Locale.ENGLISH);
+            int[] indexes = mLowerCaseIndex.get(lowerCaseKey);
+            if (indexes == null) {
+                indexes = EMPTY_INDEXES;
+            }
+            int[] newIndexes = new int[indexes.length + 1];
+            System.arraycopy(indexes, 0, newIndexes, 0, indexes.length);
+            newIndexes[indexes.length] = index;
+            mLowerCaseIndex.put(lowerCaseKey, newIndexes);
+            index++;
+        }
+    }
+
+    /**
+     * 将公共属性和动态公共属性合并到事件属性中，动态公共属性优先，与动态公共属性 key 相同（忽略大小写）的公共属性不合并
+     *
+     * @param dynamicProperty 动态公共属性
+     * @param eventProperty 事件属性
+     * @throws JSONException JSONException
+     */
+    void mergeTo(JSONObject dynamicProperty, JSONObject eventProperty) throws JSONException {
+        boolean[] ignored = null;
+        if (dynamicProperty != null && mKeys.length > 0) {
+            Iterator<String> iterator = dynamicProperty.keys();
+            while (iterator.hasNext()) {
+                String key = iterator.next();
+                if (TextUtils.isEmpty(key)) {
+                    continue;
+                }
+                int[] indexes = mLowerCaseIndex.get(key.toLowerCase(Locale.ENGLISH));
+                if (indexes != null) {
+                    if (ignored == null) {
+                        ignored = new boolean[mKeys.length];
+                    }
+                    for (int index : indexes) {
+                        ignored[index] = true;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < mKeys.length; i++) {
+            if (ignored == null || !ignored[i]) {
+                eventProperty.put(mKeys[i], copyValue(mValues[i]));
+            }
+        }
+        if (dynamicProperty != null) {
+            SensorsDataUtils.mergeJSONObject(dynamicProperty, eventProperty);
+        }
+    }
+
+    /**
+     * 快照在多条事件间共享，可变的数组类型属性需要复制
+     */
+    private static Object copyValue(Object value) {
+        if (value instanceof JSONArray) {
+            JSONArray source = (JSONArray) value;
+            JSONArray copy = new JSONArray();
+            for (int i = 0; i < source.length(); i++) {
+                copy.put(source.opt(i));
+            }
+            return copy;
+        }
+        return value;
+    }
+}
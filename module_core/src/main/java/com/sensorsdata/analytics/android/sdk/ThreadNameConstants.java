@@ -23,4 +23,7 @@ public interface ThreadNameConstants {
     String THREAD_SEND_DISTINCT_ID = "SA.SendDistinctIDThread";
     String THREAD_DEEP_LINK_REQUEST = "SA.DeepLinkRequest";
     String THREAD_PUSH_HANDLER = "SA.PushThread";
+    String THREAD_EVENT_COMMIT = "SA.EventCommitThread";
+    String THREAD_STORE_COMMIT = "SA.StoreCommitThread";
+    String THREAD_DB_VACUUM = "SA.DbVacuumThread";
 }
@@ -0,0 +1,157 @@
+/*
+ * Created by dengshiwei on 2022/07/27.
+ * Copyright 2015－2022 Sensors Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sensorsdata.analytics.android.sdk;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 多生产者单消费者的有界环形队列。槽位预先分配，生产者通过 CAS 领取序号后写入槽位，不加锁也不分配队列节点；
+ * 队列已满时 offer 直接返回 false，由调用方决定处理方式。只允许一个线程消费
+ */
+class TrackRingBuffer {
+    private static final int MAX_CAPACITY = 1 << 16;
+    private final Runnable[] mSlots;
+    /* 槽位序号：等于写入序号时可写，等于写入序号 + 1 时可读 */
+    private final AtomicLongArray mSequences;
+    private final int mMask;
+    private final AtomicLong mTail = new AtomicLong();
+    private volatile long mHead;
+    private volatile Thread mConsumer;
+    private volatile boolean mConsumerWaiting;
+
+    /**
+     * @param capacity 队列容量，向上取整为 2 的幂，最大为 65536
+     */
+    TrackRingBuffer(int capacity) {
+        int size = 2;
+        while (size < capacity && size < MAX_CAPACITY) {
+            size <<= 1;
+        }
+        mSlots = new Runnable[size];
+        mSequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            mSequences.set(i, i);
+        }
+        mMask = size - 1;
+    }
+
+    int capacity() {
+        return mSlots.length;
+    }
+
+    /**
+     * 加入任务，不阻塞
+     *
+     * @param task 任务
+     * @return 队列已满时返回 false
+     */
+    boolean offer(Runnable task) {
+        long tail;
+        int index;
+        while (true) {
+            tail = mTail.get();
+            index = (int) (tail & mMask);
+            long diff = mSequences.get(index) - tail;
+            if (diff == 0) {
+                if (mTail.compareAndSet(tail, tail + 1)) {
+                    break;
+                }
+            } else if (diff < 0) {
+                return false;
+            }
+        }
+        mSlots[index] = task;
+        mSequences.set(index, tail + 1);
+        if (mConsumerWaiting) {
+            LockSupport.unpark(mConsumer);
+        }
+        return true;
+    }
+
+    /**
+     * 取出最早的任务，仅消费线程调用
+     *
+     * @return 队列为空时返回 null
+     */
+    Runnable poll() {
+        long head = mHead;
+        int index = (int) (head & mMask);
+        if (mSequences.get(index) != head + 1) {
+            return null;
+        }
+        Runnable task = mSlots[index];
+        mSlots[index] = null;
+        mSequences.lazySet(index, head + mSlots.length);
+        mHead = head + 1;
+        return task;
+    }
+
+    /**
+     * 一次取出多个任务，仅消费线程调用
+     *
+     * @param tasks 存放任务的集合
+     * @param maxTasks 最多取出的任务数
+     * @return 取出的任务数
+     */
+    int drainTo(Collection<Runnable> tasks, int maxTasks) {
+        int count = 0;
+        Runnable task;
+        while (count < maxTasks && (task = poll()) != null) {
+            tasks.add(task);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 取出最早的任务，队列为空时等待，仅消费线程调用
+     *
+     * @return 任务
+     * @throws InterruptedException 等待时被中断
+     */
+    Runnable take() throws InterruptedException {
+        Runnable task = poll();
+        if (task != null) {
+            return task;
+        }
+        mConsumer = Thread.currentThread();
+        try {
+            while (true) {
+                mConsumerWaiting = true;
+                task = poll();
+                if (task != null) {
+                    return task;
+                }
+                // offer 在写入后检查 mConsumerWaiting 并唤醒，不会丢失唤醒；park 可能无故返回，醒来后重新检查
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            mConsumerWaiting = false;
+        }
+    }
+
+    boolean isEmpty() {
+        return mTail.get() == mHead;
+    }
+}
@@ -17,14 +17,46 @@
 
 package com.sensorsdata.analytics.android.sdk;
 
+import com.sensorsdata.analytics.android.sdk.util.AppInfoUtils;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.LockSupport;
 
 public class TrackTaskManager {
+    /**
+     * 队列已满时阻塞调用线程，直到队列有空闲位置
+     */
+    public static final int OVERFLOW_BLOCK = 0;
+    /**
+     * 队列已满时丢弃最早的任务
+     */
+    public static final int OVERFLOW_DROP_OLDEST = 1;
+    /**
+     * 队列已满时丢弃新加入的任务
+     */
+    public static final int OVERFLOW_DROP_NEWEST = 2;
+    private static final String TAG = "SA.TrackTaskManager";
+    /**
+     * 环形队列已满且使用阻塞策略时，调用线程每次等待的时间
+     */
+    private static final long RING_BUFFER_PARK_NANOS = 1000 * 1000L;
     private static TrackTaskManager trackTaskManager;
     /**
      * 请求线程队列
      */
-    private final LinkedBlockingQueue<Runnable> mTrackEventTasks;
+    private volatile LinkedBlockingQueue<Runnable> mTrackEventTasks;
+    /**
+     * 开启后替代 mTrackEventTasks 作为任务队列
+     */
+    private volatile TrackRingBuffer mRingBuffer;
+    /**
+     * 队列已满时任务处理线程中加入的任务，连同队列中已有的任务按顺序移入此队列，不限制容量，取任务时优先取出
+     */
+    private final ConcurrentLinkedQueue<Runnable> mOverflowTasks = new ConcurrentLinkedQueue<>();
+    private int mOverflowPolicy = OVERFLOW_BLOCK;
+    private int mRingOverflowPolicy = OVERFLOW_DROP_NEWEST;
 
     private TrackTaskManager() {
         mTrackEventTasks = new LinkedBlockingQueue<>();
@@ -41,16 +73,102 @@ public class TrackTaskManager {
         return trackTaskManager;
     }
 
+    /**
+     * 设置队列容量和队列已满时的处理策略，需要在任务处理线程启动前调用，已加入的任务会保留
+     *
+     * @param capacity 队列容量，小于等于 0 时不限制
+     * @param overflowPolicy 队列已满时的处理策略
+     */
+    synchronized void setCapacity(int capacity, int overflowPolicy) {
+        LinkedBlockingQueue<Runnable> tasks = new LinkedBlockingQueue<>(capacity > 0 ? capacity : Integer.MAX_VALUE);
+        mTrackEventTasks.drainTo(tasks);
+        mOverflowPolicy = overflowPolicy;
+        mTrackEventTasks = tasks;
+    }
+
+    /**
+     * 使用无锁环形队列作为任务队列，需要在任务处理线程启动前调用，已加入的任务会保留。
+     * 队列已满时 OVERFLOW_BLOCK 策略下调用线程间隔等待直到有空位，其它策略丢弃新加入的任务
+     *
+     * @param capacity 队列容量，向上取整为 2 的幂
+     * @param overflowPolicy 队列已满时的处理策略
+     */
+    synchronized void enableRingBuffer(int capacity, int overflowPolicy) {
+        mRingOverflowPolicy = overflowPolicy;
+        TrackRingBuffer ringBuffer = new TrackRingBuffer(capacity);
+        Runnable task;
+        while ((task = mTrackEventTasks.poll()) != null) {
+            if (!ringBuffer.offer(task)) {
+                SALog.i(TAG, "Track ring buffer is full, drop the pending task");
+            }
+        }
+        mRingBuffer = ringBuffer;
+    }
+
     void addTrackEventTask(Runnable trackEvenTask) {
         try {
-            mTrackEventTasks.put(trackEvenTask);
+            TrackRingBuffer ringBuffer = mRingBuffer;
+            if (ringBuffer != null) {
+                addRingBufferTask(ringBuffer, trackEvenTask);
+                return;
+            }
+            LinkedBlockingQueue<Runnable> tasks = mTrackEventTasks;
+            if (mOverflowPolicy == OVERFLOW_BLOCK) {
+                if (!tasks.offer(trackEvenTask)) {
+                    if (AppInfoUtils.isTaskExecuteThread()) {
+                        // 任务处理线程中加入任务时不能阻塞，否则无法继续消费队列
+                        tasks.drainTo(mOverflowTasks);
+                        mOverflowTasks.offer(trackEvenTask);
+                    } else {
+                        tasks.put(trackEvenTask);
+                    }
+                }
+                return;
+            }
+            while (!tasks.offer(trackEvenTask)) {
+                if (mOverflowPolicy == OVERFLOW_DROP_NEWEST) {
+                    SALog.i(TAG, "Track task queue is full, drop the newest task");
+                    return;
+                }
+                if (tasks.poll() != null) {
+                    SALog.i(TAG, "Track task queue is full, drop the oldest task");
+                }
+            }
         } catch (Exception e) {
             SALog.printStackTrace(e);
         }
     }
 
+    private void addRingBufferTask(TrackRingBuffer ringBuffer, Runnable trackEvenTask) {
+        if (ringBuffer.offer(trackEvenTask)) {
+            return;
+        }
+        // 任务处理线程中加入的任务是已有任务的后续操作，不丢弃也不等待
+        if (AppInfoUtils.isTaskExecuteThread()) {
+            ringBuffer.drainTo(mOverflowTasks, ringBuffer.capacity());
+            mOverflowTasks.offer(trackEvenTask);
+            return;
+        }
+        if (mRingOverflowPolicy != OVERFLOW_BLOCK) {
+            SALog.i(TAG, "Track ring buffer is full, drop the newest task");
+            return;
+        }
+        // 等待消费线程腾出空位，每次等待 RING_BUFFER_PARK_NANOS 后重试，不占用 CPU
+        while (!ringBuffer.offer(trackEvenTask)) {
+            LockSupport.parkNanos(this, RING_BUFFER_PARK_NANOS);
+        }
+    }
+
     Runnable takeTrackEventTask() {
         try {
+            Runnable task = mOverflowTasks.poll();
+            if (task != null) {
+                return task;
+            }
+            TrackRingBuffer ringBuffer = mRingBuffer;
+            if (ringBuffer != null) {
+                return ringBuffer.take();
+            }
             return mTrackEventTasks.take();
         } catch (Exception e) {
             SALog.printStackTrace(e);
@@ -60,6 +178,14 @@ public class TrackTaskManager {
 
     Runnable pollTrackEventTask() {
         try {
+            Runnable task = mOverflowTasks.poll();
+            if (task != null) {
+                return task;
+            }
+            TrackRingBuffer ringBuffer = mRingBuffer;
+            if (ringBuffer != null) {
+                return ringBuffer.poll();
+            }
             return mTrackEventTasks.poll();
         } catch (Exception e) {
             SALog.printStackTrace(e);
@@ -67,7 +193,40 @@ public class TrackTaskManager {
         return null;
     }
 
+    /**
+     * 一次取出队列中的多个任务，不等待
+     *
+     * @param tasks 存放任务的集合
+     * @param maxTasks 最多取出的任务数
+     * @return 取出的任务数
+     */
+    int drainTrackEventTasks(Collection<Runnable> tasks, int maxTasks) {
+        try {
+            int count = 0;
+            Runnable task;
+            while (count < maxTasks && (task = mOverflowTasks.poll()) != null) {
+                tasks.add(task);
+                count++;
+            }
+            TrackRingBuffer ringBuffer = mRingBuffer;
+            if (ringBuffer != null) {
+                return count + ringBuffer.drainTo(tasks, maxTasks - count);
+            }
+            return count + mTrackEventTasks.drainTo(tasks, maxTasks - count);
+        } catch (Exception e) {
+            SALog.printStackTrace(e);
+        }
+        return 0;
+    }
+
     boolean isEmpty(){
+        if (!mOverflowTasks.isEmpty()) {
+            return false;
+        }
+        TrackRingBuffer ringBuffer = mRingBuffer;
+        if (ringBuffer != null) {
+            return ringBuffer.isEmpty();
+        }
         return mTrackEventTasks.isEmpty();
     }
 }
@@ -17,40 +17,41 @@
 
 package com.sensorsdata.analytics.android.sdk;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
+/**
+ * 事件任务处理线程：单线程按加入顺序执行任务队列中的任务，队列中有多个任务时批量取出，减少线程唤醒和队列加锁的次数
+ */
 public class TrackTaskManagerThread implements Runnable {
     /**
-     * 创建一个可重用固定线程数的线程池
+     * 单次从队列中取出的最大任务数
      */
-    private static final int POOL_SIZE = 1;
+    private static final int MAX_DRAIN_SIZE = 64;
 
     private TrackTaskManager mTrackTaskManager;
     /**
-     * 创建一个可重用固定线程数的线程池
+     * 是否停止
      */
-    private ExecutorService mPool;
+    private volatile boolean isStop = false;
     /**
-     * 是否停止
+     * 停止后重新启动时的上一个处理线程，需要等待其处理完剩余任务后再开始消费，TrackRingBuffer 只支持单个消费线程
      */
-    private boolean isStop = false;
+    private TrackTaskManagerThread mPrevious;
+    private final CountDownLatch mFinishedLatch = new CountDownLatch(1);
 
     TrackTaskManagerThread() {
+        this(null);
+    }
+
+    /**
+     * @param previous 已停止的上一个处理线程，可以为空
+     */
+    TrackTaskManagerThread(TrackTaskManagerThread previous) {
+        this.mPrevious = previous;
         try {
             this.mTrackTaskManager = TrackTaskManager.getInstance();
-            mPool = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE,
-                    0L, TimeUnit.MILLISECONDS,
-                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
-                @Override
-                public Thread newThread(Runnable r) {
-                    return new Thread(r, ThreadNameConstants.THREAD_TASK_EXECUTE);
-                }
-            });
         } catch (Exception e) {
             SALog.printStackTrace(e);
         }
@@ -59,21 +60,53 @@ public class TrackTaskManagerThread implements Runnable {
     @Override
     public void run() {
         try {
-            while (!isStop) {
-                Runnable downloadTask = mTrackTaskManager.takeTrackEventTask();
-                mPool.execute(downloadTask);
+            if (mPrevious != null) {
+                mPrevious.awaitFinished();
+                mPrevious = null;
             }
-            while (true) {
-                Runnable downloadTask = mTrackTaskManager.pollTrackEventTask();
-                if (downloadTask == null) {
-                    break;
+            List<Runnable> tasks = new ArrayList<>(MAX_DRAIN_SIZE);
+            while (!isStop) {
+                if (mTrackTaskManager.drainTrackEventTasks(tasks, MAX_DRAIN_SIZE) == 0) {
+                    Runnable task = mTrackTaskManager.takeTrackEventTask();
+                    if (task != null) {
+                        tasks.add(task);
+                    }
                 }
-                mPool.execute(downloadTask);
+                execute(tasks);
+            }
+            while (mTrackTaskManager.drainTrackEventTasks(tasks, MAX_DRAIN_SIZE) > 0) {
+                execute(tasks);
             }
-            mPool.shutdown();
         } catch (Exception e) {
             SALog.printStackTrace(e);
+        } finally {
+            mFinishedLatch.countDown();
+        }
+    }
+
+    /**
+     * 等待线程处理完停止前的剩余任务并退出
+     */
+    private void awaitFinished() {
+        while (true) {
+            try {
+                mFinishedLatch.await();
+                return;
+            } catch (InterruptedException e) {
+                // 必须等待上一个线程退出，忽略中断
+            }
+        }
+    }
+
+    private void execute(List<Runnable> tasks) {
+        for (Runnable task : tasks) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                SALog.printStackTrace(e);
+            }
         }
+        tasks.clear();
     }
 
     void stop() {
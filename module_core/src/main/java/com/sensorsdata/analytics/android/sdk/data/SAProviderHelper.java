@@ -26,12 +26,13 @@ import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
-import android.database.sqlite.SQLiteOpenHelper;
 import android.net.Uri;
+import android.os.Bundle;
 import android.text.TextUtils;
 
 import com.sensorsdata.analytics.android.sdk.SALog;
 import com.sensorsdata.analytics.android.sdk.data.adapter.DbParams;
+import com.sensorsdata.analytics.android.sdk.data.adapter.EventStatistics;
 import com.sensorsdata.analytics.android.sdk.data.persistent.LoginIdKeyPersistent;
 import com.sensorsdata.analytics.android.sdk.data.persistent.PersistentAppEndData;
 import com.sensorsdata.analytics.android.sdk.data.persistent.PersistentAppExitData;
@@ -46,7 +47,7 @@ import java.io.File;
 
 class SAProviderHelper {
     private ContentResolver contentResolver;
-    private SQLiteOpenHelper mDbHelper;
+    private SensorsDataDBHelper mDbHelper;
     private PersistentAppEndData persistentAppEndData;
     private PersistentAppExitData persistentAppExitData;
     private PersistentLoginId persistentLoginId;
@@ -59,8 +60,9 @@ class SAProviderHelper {
     private int startActivityCount = 0;
     private long mAppStartTime = 0;
     private int mSessionTime = 30 * 1000;
+    private final EventStatistics mEventStatistics = EventStatistics.getInstance();
 
-    public SAProviderHelper(Context context, SQLiteOpenHelper dbHelper) {
+    public SAProviderHelper(Context context, SensorsDataDBHelper dbHelper) {
         try {
             this.mDbHelper = dbHelper;
             this.mContext = context;
@@ -98,21 +100,27 @@ class SAProviderHelper {
                             final OldBDatabaseHelper oldBDatabaseHelper = new OldBDatabaseHelper(context, packageName);
                             final SQLiteDatabase database = getWritableDatabase();
                             if (database != null) {
-                                final ContentValues cv = new ContentValues();
-                                oldBDatabaseHelper.getAllEvents(database, new QueryEventsListener() {
-                                    @Override
-                                    public void insert(String data, String keyCreated) {
-                                        cv.put(DbParams.KEY_DATA, data);
-                                        cv.put(DbParams.KEY_CREATED_AT, keyCreated);
-                                        database.insert(DbParams.TABLE_EVENTS, "_id", cv);
-                                        cv.clear();
-                                    }
-                                });
+                                try {
+                                    final ContentValues cv = new ContentValues();
+                                    oldBDatabaseHelper.getAllEvents(database, new QueryEventsListener() {
+                                        @Override
+                                        public void insert(String data, String keyCreated) {
+                                            cv.put(DbParams.KEY_DATA, data);
+                                            cv.put(DbParams.KEY_CREATED_AT, keyCreated);
+                                            database.insert(DbParams.TABLE_EVENTS, "_id", cv);
+                                            cv.clear();
+                                        }
+                                    });
+                                } finally {
+                                    mDbHelper.releaseDatabase();
+                                }
                             }
                         }
                         if (isDbWritable) {
                             context.deleteDatabase(packageName);
                         }
+                        // 迁移的数据未经过计数，重新从数据库读取
+                        mEventStatistics.reset();
                     } catch (Exception e) {
                         SALog.printStackTrace(e);
                     }
@@ -149,6 +157,7 @@ class SAProviderHelper {
             uriMatcher.addURI(authority, DbParams.PersistentName.PERSISTENT_USER_ID, URI_CODE.USER_IDENTITY_ID);
             uriMatcher.addURI(authority, DbParams.PersistentName.PERSISTENT_LOGIN_ID_KEY, URI_CODE.LOGIN_ID_KEY);
             uriMatcher.addURI(authority, DbParams.PUSH_ID_KEY, URI_CODE.PUSH_ID_KEY);
+            uriMatcher.addURI(authority, DbParams.TABLE_SEGMENTS, URI_CODE.SEGMENTS);
         } catch (Exception ex) {
             SALog.printStackTrace(ex);
         }
@@ -163,12 +172,22 @@ class SAProviderHelper {
      */
     public Uri insertEvent(Uri uri, ContentValues values) {
         try {
+            if (!values.containsKey(DbParams.KEY_DATA) || !values.containsKey(DbParams.KEY_CREATED_AT)) {
+                return uri;
+            }
             SQLiteDatabase database = getWritableDatabase();
-            if (database == null || !values.containsKey(DbParams.KEY_DATA)
-                    || !values.containsKey(DbParams.KEY_CREATED_AT)) {
+            if (database == null) {
                 return uri;
             }
-            long d = database.insert(DbParams.TABLE_EVENTS, "_id", values);
+            long d;
+            try {
+                d = database.insert(DbParams.TABLE_EVENTS, "_id", values);
+            } finally {
+                mDbHelper.releaseDatabase();
+            }
+            if (d != -1) {
+                mEventStatistics.onEventsInserted(1, EventStatistics.getDataLength(values));
+            }
             return ContentUris.withAppendedId(uri, d);
         } catch (Exception e) {
             SALog.printStackTrace(e);
@@ -190,7 +209,129 @@ class SAProviderHelper {
         try {
             SQLiteDatabase database = getWritableDatabase();
             if (database != null) {
-                return database.delete(DbParams.TABLE_EVENTS, selection, selectionArgs);
+                try {
+                    int deleteCount = database.delete(DbParams.TABLE_EVENTS, selection, selectionArgs);
+                    if (selection == null) {
+                        mEventStatistics.onAllEventsDeleted();
+                    } else {
+                        mEventStatistics.onEventsDeleted(deleteCount);
+                    }
+                    mDbHelper.releaseFreePages();
+                    return deleteCount;
+                } finally {
+                    mDbHelper.releaseDatabase();
+                }
+            }
+        } catch (SQLiteException e) {
+            isDbWritable = false;
+            SALog.printStackTrace(e);
+        }
+        return 0;
+    }
+
+    /**
+     * 查询事件表的条数和数据大小，首次查询时通过 COUNT 语句从数据库读取，之后使用内存中维护的数值
+     *
+     * @return 包含 DbParams.KEY_EVENT_COUNT 和 DbParams.KEY_EVENT_BYTES 的 Bundle
+     */
+    public Bundle queryEventStatistics() {
+        Bundle bundle = new Bundle();
+        long[] statistics;
+        SQLiteDatabase database = getWritableDatabase();
+        try {
+            statistics = mEventStatistics.query(database);
+        } finally {
+            if (database != null) {
+                mDbHelper.releaseDatabase();
+            }
+        }
+        bundle.putInt(DbParams.KEY_EVENT_COUNT, (int) statistics[0]);
+        bundle.putLong(DbParams.KEY_EVENT_BYTES, statistics[1]);
+        bundle.putInt(DbParams.KEY_SEGMENT_EVENT_COUNT, (int) statistics[2]);
+        return bundle;
+    }
+
+    /**
+     * 将 _id &lt;= lastId 的事件封装为 Segment，写入 Segment 和删除事件在同一个事务中完成。
+     * 删除的行数与读取的行数不一致时说明事件已被其他进程封装或删除，此时回滚
+     *
+     * @param lastId 封装的最后一条事件 _id
+     * @param extras 包含 Segment 数据、事件条数和读取的行数
+     * @return 包含 DbParams.KEY_SEGMENT_ROWS 的 Bundle，值为封装的行数，失败时为 0
+     */
+    public Bundle sealSegment(String lastId, Bundle extras) {
+        Bundle result = new Bundle();
+        if (!isDbWritable || TextUtils.isEmpty(lastId) || extras == null) {
+            return result;
+        }
+        SQLiteDatabase database = getWritableDatabase();
+        if (database == null) {
+            return result;
+        }
+        int rows = extras.getInt(DbParams.KEY_SEGMENT_ROWS);
+        int count = extras.getInt(DbParams.KEY_SEGMENT_COUNT);
+        String data = extras.getString(DbParams.KEY_DATA);
+        int deleteCount = 0;
+        try {
+            database.beginTransaction();
+            try {
+                deleteCount = database.delete(DbParams.TABLE_EVENTS, "_id <= ?", new String[]{lastId});
+                if (deleteCount != rows) {
+                    return result;
+                }
+                if (!TextUtils.isEmpty(data)) {
+                    ContentValues cv = new ContentValues();
+                    cv.put(DbParams.KEY_DATA, data);
+                    cv.put(DbParams.KEY_SEGMENT_COUNT, count);
+                    cv.put(DbParams.KEY_CREATED_AT, System.currentTimeMillis());
+                    if (database.insert(DbParams.TABLE_SEGMENTS, "_id", cv) == -1) {
+                        return result;
+                    }
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+            mEventStatistics.onEventsDeleted(deleteCount);
+            if (!TextUtils.isEmpty(data)) {
+                mEventStatistics.onSegmentSealed(count);
+            }
+            mDbHelper.releaseFreePages();
+        } catch (SQLiteException e) {
+            isDbWritable = false;
+            SALog.printStackTrace(e);
+            return result;
+        } finally {
+            mDbHelper.releaseDatabase();
+        }
+        result.putInt(DbParams.KEY_SEGMENT_ROWS, deleteCount);
+        return result;
+    }
+
+    /**
+     * 删除 Segment
+     *
+     * @param selection 条件
+     * @param selectionArgs 参数
+     * @return 受影响数
+     */
+    public int deleteSegments(String selection, String[] selectionArgs) {
+        if (!isDbWritable) {
+            return 0;
+        }
+        try {
+            SQLiteDatabase database = getWritableDatabase();
+            if (database != null) {
+                try {
+                    int deleteCount = database.delete(DbParams.TABLE_SEGMENTS, selection, selectionArgs);
+                    if (deleteCount > 0) {
+                        mEventStatistics.onSegmentsDeleted();
+                        mDbHelper.releaseFreePages();
+                    }
+                    return deleteCount;
+                } finally {
+                    mDbHelper.releaseDatabase();
+                }
             }
         } catch (SQLiteException e) {
             isDbWritable = false;
@@ -208,12 +349,19 @@ class SAProviderHelper {
      */
     public Uri insertChannelPersistent(Uri uri, ContentValues values) {
         try {
+            if (!values.containsKey(DbParams.KEY_CHANNEL_EVENT_NAME)) {
+                return uri;
+            }
             SQLiteDatabase database = getWritableDatabase();
-            if (database == null || !values.containsKey(DbParams.KEY_CHANNEL_EVENT_NAME)) {
+            if (database == null) {
                 return uri;
             }
-            long d = database.insertWithOnConflict(DbParams.TABLE_CHANNEL_PERSISTENT, null, values, SQLiteDatabase.CONFLICT_REPLACE);
-            return ContentUris.withAppendedId(uri, d);
+            try {
+                long d = database.insertWithOnConflict(DbParams.TABLE_CHANNEL_PERSISTENT, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                return ContentUris.withAppendedId(uri, d);
+            } finally {
+                mDbHelper.releaseDatabase();
+            }
         } catch (Exception exception) {
             SALog.printStackTrace(exception);
         }
@@ -291,7 +439,13 @@ class SAProviderHelper {
         try {
             SQLiteDatabase liteDatabase = getWritableDatabase();
             if (liteDatabase != null) {
-                cursor = liteDatabase.query(tableName, projection, selection, selectionArgs, null, null, sortOrder);
+                try {
+                    cursor = liteDatabase.query(tableName, projection, selection, selectionArgs, null, null, sortOrder);
+                    // 在持有连接时填充结果，避免读取过程中连接被关闭
+                    cursor.getCount();
+                } finally {
+                    mDbHelper.releaseDatabase();
+                }
             }
         } catch (SQLiteException e) {
             isDbWritable = false;
@@ -369,7 +523,8 @@ class SAProviderHelper {
     }
 
     /**
-     * 获取数据库
+     * 获取数据库并持有连接，不为 null 时使用完毕后需调用 SensorsDataDBHelper#releaseDatabase。
+     * 数据库文件被删除后由 SensorsDataDBHelper 关闭并重新打开连接
      *
      * @return SQLiteDatabase
      */
@@ -377,10 +532,9 @@ class SAProviderHelper {
         SQLiteDatabase database = null;
         try {
             if (!isDBExist()) {
-                mDbHelper.close();
                 isDbWritable = true;
             }
-            database = mDbHelper.getWritableDatabase();
+            database = mDbHelper.acquireDatabase();
         } catch (SQLiteException e) {
             SALog.printStackTrace(e);
             isDbWritable = false;
@@ -416,5 +570,6 @@ class SAProviderHelper {
         int USER_IDENTITY_ID = 13;
         int LOGIN_ID_KEY = 14;
         int PUSH_ID_KEY = 15;
+        int SEGMENTS = 16;
     }
 }
@@ -48,7 +48,7 @@ public class SensorsDataContentProvider extends ContentProvider {
                 } catch (UnsupportedOperationException e) {
                     packageName = "com.sensorsdata.analytics.android.sdk.test";
                 }
-                dbHelper = new SensorsDataDBHelper(context);
+                dbHelper = SensorsDataDBHelper.getInstance(context);
                 mProviderHelper = new SAProviderHelper(context, dbHelper);
                 mProviderHelper.appendUri(uriMatcher, packageName + ".SensorsDataContentProvider");
                 /* 迁移数据，并删除老的数据库 */
@@ -67,6 +67,8 @@ public class SensorsDataContentProvider extends ContentProvider {
             int code = uriMatcher.match(uri);
             if (SAProviderHelper.URI_CODE.EVENTS == code) {
                 return mProviderHelper.deleteEvents(selection, selectionArgs);
+            } else if (SAProviderHelper.URI_CODE.SEGMENTS == code) {
+                return mProviderHelper.deleteSegments(selection, selectionArgs);
             } else if (code == SAProviderHelper.URI_CODE.PUSH_ID_KEY) {
                 return mProviderHelper.removeSP(uri.getQueryParameter(DbParams.REMOVE_SP_KEY));
             }
@@ -110,7 +112,7 @@ public class SensorsDataContentProvider extends ContentProvider {
         SQLiteDatabase database = null;
         try {
             try {
-                database = dbHelper.getWritableDatabase();
+                database = dbHelper.acquireDatabase();
             } catch (SQLiteException e) {
                 SALog.printStackTrace(e);
                 return 0;
@@ -123,7 +125,11 @@ public class SensorsDataContentProvider extends ContentProvider {
             database.setTransactionSuccessful();
         } finally {
             if (database != null) {
-                database.endTransaction();
+                try {
+                    database.endTransaction();
+                } finally {
+                    dbHelper.releaseDatabase();
+                }
             }
         }
         return numValues;
@@ -138,6 +144,8 @@ public class SensorsDataContentProvider extends ContentProvider {
                 cursor = mProviderHelper.queryByTable(DbParams.TABLE_EVENTS, projection, selection, selectionArgs, sortOrder);
             } else if (code == SAProviderHelper.URI_CODE.CHANNEL_PERSISTENT) {
                 cursor = mProviderHelper.queryByTable(DbParams.TABLE_CHANNEL_PERSISTENT, projection, selection, selectionArgs, sortOrder);
+            } else if (code == SAProviderHelper.URI_CODE.SEGMENTS) {
+                cursor = mProviderHelper.queryByTable(DbParams.TABLE_SEGMENTS, projection, selection, selectionArgs, sortOrder);
             } else {
                 cursor = mProviderHelper.queryPersistent(code, uri);
             }
@@ -147,6 +155,20 @@ public class SensorsDataContentProvider extends ContentProvider {
         return cursor;
     }
 
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        try {
+            if (DbParams.METHOD_QUERY_EVENT_STATISTICS.equals(method)) {
+                return mProviderHelper.queryEventStatistics();
+            } else if (DbParams.METHOD_SEAL_SEGMENT.equals(method)) {
+                return mProviderHelper.sealSegment(arg, extras);
+            }
+        } catch (Exception e) {
+            SALog.printStackTrace(e);
+        }
+        return super.call(method, arg, extras);
+    }
+
     @Override
     public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         return 0;
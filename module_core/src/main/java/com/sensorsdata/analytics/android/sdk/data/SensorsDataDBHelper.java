@@ -17,42 +17,252 @@
 package com.sensorsdata.analytics.android.sdk.data;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 
 import com.sensorsdata.analytics.android.sdk.SALog;
+import com.sensorsdata.analytics.android.sdk.ThreadNameConstants;
 import com.sensorsdata.analytics.android.sdk.data.adapter.DbParams;
+import com.sensorsdata.analytics.android.sdk.data.adapter.EventStatistics;
 
-class SensorsDataDBHelper extends SQLiteOpenHelper {
+import java.io.File;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 数据库 Helper，进程内共享一个实例，ContentProvider 和直接访问数据库的 DataOperation 使用同一个数据库连接。
+ * 连接通过 {@link #acquireDatabase()} 和 {@link #releaseDatabase()} 使用，数据库文件被删除后由持有写锁的一方关闭并重新打开，不会关闭另一方正在使用的连接
+ */
+public class SensorsDataDBHelper extends SQLiteOpenHelper {
     private static final String TAG = "SA.SQLiteOpenHelper";
     private static final String CREATE_EVENTS_TABLE =
-            String.format("CREATE TABLE %s (_id INTEGER PRIMARY KEY AUTOINCREMENT, %s TEXT NOT NULL, %s INTEGER NOT NULL);", DbParams.TABLE_EVENTS, DbParams.KEY_DATA, DbParams.KEY_CREATED_AT);
+            String.format("CREATE TABLE %s (_id INTEGER PRIMARY KEY AUTOINCREMENT, %s TEXT NOT NULL, %s INTEGER NOT NULL, %s BLOB, %s INTEGER);",
+                    DbParams.TABLE_EVENTS, DbParams.KEY_DATA, DbParams.KEY_CREATED_AT, DbParams.KEY_PAYLOAD, DbParams.KEY_CRC);
     private static final String EVENTS_TIME_INDEX =
             String.format("CREATE INDEX IF NOT EXISTS time_idx ON %s (%s);", DbParams.TABLE_EVENTS, DbParams.KEY_CREATED_AT);
     private static final String CHANNEL_EVENT_PERSISTENT_TABLE = String.format("CREATE TABLE %s (%s TEXT PRIMARY KEY, %s INTEGER)",
             DbParams.TABLE_CHANNEL_PERSISTENT, DbParams.KEY_CHANNEL_EVENT_NAME, DbParams.KEY_CHANNEL_RESULT);
+    private static final String CREATE_SEGMENTS_TABLE = String.format("CREATE TABLE IF NOT EXISTS %s (_id INTEGER PRIMARY KEY AUTOINCREMENT, %s TEXT NOT NULL, %s INTEGER NOT NULL, %s INTEGER NOT NULL);",
+            DbParams.TABLE_SEGMENTS, DbParams.KEY_DATA, DbParams.KEY_SEGMENT_COUNT, DbParams.KEY_CREATED_AT);
 
-    SensorsDataDBHelper(Context context) {
+    /* 事件以追加写入、按 _id 顺序批量删除为主，使用 4K 页和 1M 页缓存 */
+    private static final int PAGE_SIZE = 4096;
+    private static final int CACHE_SIZE_PAGES = 256;
+    /* 空闲页超过该数量时回收 */
+    private static final long MIN_FREE_PAGES_TO_VACUUM = 256;
+    /* 删除数据后延迟检查空闲页的时间，期间的多次删除合并为一次检查，单位毫秒 */
+    private static final long VACUUM_CHECK_DELAY = 30 * 1000;
+    private static SensorsDataDBHelper sInstance;
+    private volatile boolean mStorageProfileEnabled = false;
+    private final File mDatabaseFile;
+    /* 使用连接时持有读锁，关闭连接时持有写锁 */
+    private final ReentrantReadWriteLock mConnectionLock = new ReentrantReadWriteLock();
+    private Handler mVacuumHandler;
+    private boolean mVacuumScheduled = false;
+    private final Runnable mVacuumTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (SensorsDataDBHelper.this) {
+                mVacuumScheduled = false;
+            }
+            try {
+                SQLiteDatabase db = acquireDatabase();
+                try {
+                    vacuum(db);
+                } finally {
+                    releaseDatabase();
+                }
+            } catch (Exception e) {
+                SALog.printStackTrace(e);
+            }
+        }
+    };
+
+    private SensorsDataDBHelper(Context context) {
         super(context, DbParams.DATABASE_NAME, null, DbParams.DATABASE_VERSION);
+        mDatabaseFile = context.getDatabasePath(DbParams.DATABASE_NAME);
+    }
+
+    public static synchronized SensorsDataDBHelper getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SensorsDataDBHelper(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * 设置是否使用存储配置，SDK 初始化时根据 SAConfigOptions#enableStorageProfile 设置，在数据库下次打开时生效
+     *
+     * @param enabled true 使用 WAL、增量回收等存储配置
+     */
+    public void setStorageProfileEnabled(boolean enabled) {
+        mStorageProfileEnabled = enabled;
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        if (mStorageProfileEnabled) {
+            configureDatabase(db);
+        }
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
         SALog.i(TAG, "Creating a new Sensors Analytics DB");
+        createTables(db);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        if (mStorageProfileEnabled) {
+            // Android 4.1 以下不会回调 onConfigure
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly()) {
+                db.enableWriteAheadLogging();
+            }
+            applyStorageProfile(db);
+        }
+    }
+
+    /**
+     * 获取可写数据库并持有连接的读锁，使用完毕后必须调用 {@link #releaseDatabase()}，获取失败时不持有锁。
+     * 数据库文件被删除时等待其他使用方释放连接后关闭，重新打开并重置事件统计；当前线程已经持有读锁时无法关闭，继续使用原连接
+     *
+     * @return SQLiteDatabase
+     */
+    public SQLiteDatabase acquireDatabase() {
+        mConnectionLock.readLock().lock();
+        try {
+            if (!mDatabaseFile.exists() && mConnectionLock.getReadHoldCount() == 1) {
+                reopenDatabase();
+            }
+            return getWritableDatabase();
+        } catch (RuntimeException e) {
+            mConnectionLock.readLock().unlock();
+            throw e;
+        }
+    }
 
+    /**
+     * 释放 {@link #acquireDatabase()} 持有的读锁
+     */
+    public void releaseDatabase() {
+        mConnectionLock.readLock().unlock();
+    }
+
+    private void reopenDatabase() {
+        mConnectionLock.readLock().unlock();
+        mConnectionLock.writeLock().lock();
+        try {
+            if (!mDatabaseFile.exists()) {
+                close();
+                EventStatistics.getInstance().reset();
+            }
+        } finally {
+            mConnectionLock.readLock().lock();
+            mConnectionLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 删除数据后调用，在后台线程延迟回收空闲页，使数据库文件变小，不阻塞删除操作。
+     * 开启增量回收的数据库执行 incremental_vacuum；旧版本创建的数据库在空闲页超过一半时执行一次 VACUUM，同时转换为增量回收
+     */
+    public synchronized void releaseFreePages() {
+        if (!mStorageProfileEnabled || mVacuumScheduled) {
+            return;
+        }
+        try {
+            if (mVacuumHandler == null) {
+                HandlerThread handlerThread = new HandlerThread(ThreadNameConstants.THREAD_DB_VACUUM);
+                handlerThread.start();
+                mVacuumHandler = new Handler(handlerThread.getLooper());
+            }
+            mVacuumScheduled = mVacuumHandler.postDelayed(mVacuumTask, VACUUM_CHECK_DELAY);
+        } catch (Exception e) {
+            SALog.printStackTrace(e);
+        }
+    }
+
+    static void createTables(SQLiteDatabase db) {
         db.execSQL(CREATE_EVENTS_TABLE);
         db.execSQL(EVENTS_TIME_INDEX);
         db.execSQL(CHANNEL_EVENT_PERSISTENT_TABLE);
+        db.execSQL(CREATE_SEGMENTS_TABLE);
+    }
+
+    /**
+     * 页大小和增量回收只对新建的数据库生效，需要在建表和开启 WAL 之前设置
+     */
+    static void configureDatabase(SQLiteDatabase db) {
+        try {
+            db.execSQL("PRAGMA page_size = " + PAGE_SIZE);
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            if (!db.isReadOnly()) {
+                db.enableWriteAheadLogging();
+            }
+        } catch (Exception e) {
+            SALog.printStackTrace(e);
+        }
+    }
+
+    static void applyStorageProfile(SQLiteDatabase db) {
+        try {
+            // WAL 模式下 NORMAL 只在检查点时同步，断电时可能丢失最近提交的事务，但不会损坏数据库
+            db.execSQL("PRAGMA synchronous = NORMAL");
+            db.execSQL("PRAGMA cache_size = " + CACHE_SIZE_PAGES);
+        } catch (Exception e) {
+            SALog.printStackTrace(e);
+        }
+    }
+
+    static void vacuum(SQLiteDatabase db) {
+        Cursor cursor = null;
+        try {
+            long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+            if (freePages < MIN_FREE_PAGES_TO_VACUUM) {
+                return;
+            }
+            if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) == 2) {
+                // 每回收一页返回一行，需要读取全部结果
+                cursor = db.rawQuery("PRAGMA incremental_vacuum", null);
+                cursor.getCount();
+            } else if (freePages * 2 >= DatabaseUtils.longForQuery(db, "PRAGMA page_count", null)) {
+                db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+                db.execSQL("VACUUM");
+            }
+            SALog.i(TAG, "Released " + freePages + " free pages");
+        } catch (Exception e) {
+            SALog.printStackTrace(e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         SALog.i(TAG, "Upgrading app, replacing Sensors Analytics DB");
 
-        db.execSQL(String.format("DROP TABLE IF EXISTS %s", DbParams.TABLE_EVENTS));
-        db.execSQL(CREATE_EVENTS_TABLE);
-        db.execSQL(EVENTS_TIME_INDEX);
-        db.execSQL(CHANNEL_EVENT_PERSISTENT_TABLE);
+        if (oldVersion < 5) {
+            db.execSQL(String.format("DROP TABLE IF EXISTS %s", DbParams.TABLE_EVENTS));
+            db.execSQL(CREATE_EVENTS_TABLE);
+            db.execSQL(EVENTS_TIME_INDEX);
+            db.execSQL(CHANNEL_EVENT_PERSISTENT_TABLE);
+        }
+        // 版本 6 新增 Segment 表，保留已有的事件数据
+        if (oldVersion < 6) {
+            db.execSQL(CREATE_SEGMENTS_TABLE);
+        }
+        // 版本 7 事件表新增 payload 和 crc 列，已有的数据仍以 data 列读取，上报后自然淘汰
+        if (oldVersion >= 5 && oldVersion < 7) {
+            db.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s BLOB", DbParams.TABLE_EVENTS, DbParams.KEY_PAYLOAD));
+            db.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s INTEGER", DbParams.TABLE_EVENTS, DbParams.KEY_CRC));
+        }
     }
 
     @Override
@@ -22,6 +22,7 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Bundle;
 import android.text.TextUtils;
 
 import com.sensorsdata.analytics.android.sdk.SALog;
@@ -30,17 +31,24 @@ import com.sensorsdata.analytics.android.sdk.SensorsDataAPI;
 import org.json.JSONObject;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import static com.sensorsdata.analytics.android.sdk.util.Base64Coder.CHARSET_UTF8;
 
 abstract class DataOperation {
     String TAG = "EventDataOperation";
     ContentResolver contentResolver;
     private final File mDatabaseFile;
+    private final File mWalFile;
     private Context mContext;
+    private final EventSerializer mEventSerializer = new EventSerializer();
 
     DataOperation(Context context) {
         this.mContext = context;
         contentResolver = context.getContentResolver();
         mDatabaseFile = context.getDatabasePath(DbParams.DATABASE_NAME);
+        mWalFile = new File(mDatabaseFile.getPath() + "-wal");
     }
 
     /**
@@ -53,11 +61,103 @@ abstract class DataOperation {
      */
     abstract int insertData(Uri uri, ContentValues contentValues);
 
+    /**
+     * 批量保存数据，在一个事务中完成写入
+     *
+     * @param uri Uri
+     * @param contentValues 数据
+     * @return 写入的条数，空间不足时返回 DB_OUT_OF_MEMORY_ERROR
+     */
+    int insertData(Uri uri, ContentValues[] contentValues) {
+        try {
+            if (deleteDataLowMemory(uri) != 0) {
+                return DbParams.DB_OUT_OF_MEMORY_ERROR;
+            }
+            return contentResolver.bulkInsert(uri, contentValues);
+        } catch (Exception e) {
+            SALog.printStackTrace(e);
+        }
+        return 0;
+    }
+
+    /**
+     * 将事件转换为入库数据
+     *
+     * @param jsonObject 事件
+     * @return ContentValues
+     */
+    ContentValues buildContentValues(JSONObject jsonObject) {
+        ContentValues cv = new ContentValues();
+        synchronized (mEventSerializer) {
+            try {
+                mEventSerializer.serialize(jsonObject);
+                cv.put(DbParams.KEY_DATA, "");
+                cv.put(DbParams.KEY_PAYLOAD, Arrays.copyOf(mEventSerializer.buffer(), mEventSerializer.length()));
+                cv.put(DbParams.KEY_CRC, mEventSerializer.crc32());
+            } catch (Exception e) {
+                SALog.printStackTrace(e);
+                String data = jsonObject.toString();
+                cv.clear();
+                cv.put(DbParams.KEY_DATA, data + "\t" + data.hashCode());
+            }
+        }
+        cv.put(DbParams.KEY_CREATED_AT, System.currentTimeMillis());
+        return cv;
+    }
+
     /**
      * 查询数据
      */
     abstract String[] queryData(Uri uri, int limit);
 
+    /**
+     * 查询数据库，默认通过 ContentProvider 查询
+     */
+    Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        return contentResolver.query(uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    /**
+     * 按 _id 升序查询 _id 大于 afterId 的数据，用于并发上报时读取下一批数据，仅事件和 Segment 支持
+     *
+     * @param uri Uri
+     * @param afterId 上一批数据的最后一条 _id，为空时从头读取
+     * @param limit 条数限制
+     * @return 格式同 queryData
+     */
+    String[] queryData(Uri uri, String afterId, int limit) {
+        return null;
+    }
+
+    /**
+     * 按 _id 升序查询 _id 大于 afterId 的一批数据的范围，只读取 _id 列
+     *
+     * @param uri Uri
+     * @param afterId 上一批数据的最后一条 _id，为空时从头读取
+     * @param limit 条数限制
+     * @return 本批数据的最后一条 _id，没有数据时返回 null
+     */
+    String queryLastId(Uri uri, String afterId, int limit) {
+        Cursor cursor = null;
+        try {
+            if (TextUtils.isEmpty(afterId)) {
+                cursor = query(uri, new String[]{"_id"}, null, null, "_id ASC LIMIT " + limit);
+            } else {
+                cursor = query(uri, new String[]{"_id"}, "_id > ?", new String[]{afterId}, "_id ASC LIMIT " + limit);
+            }
+            if (cursor != null && cursor.moveToLast()) {
+                return cursor.getString(0);
+            }
+        } catch (Exception ex) {
+            SALog.printStackTrace(ex);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return null;
+    }
+
     /**
      * 查询数据条数
      *
@@ -75,7 +175,7 @@ abstract class DataOperation {
                        String[] selectionArgs, String sortOrder) {
         Cursor cursor = null;
         try {
-            cursor = contentResolver.query(uri, projection, selection, selectionArgs, sortOrder);
+            cursor = query(uri, projection, selection, selectionArgs, sortOrder);
             if (cursor != null) {
                 return cursor.getCount();
             }
@@ -89,19 +189,61 @@ abstract class DataOperation {
         return 0;
     }
 
+    /**
+     * 查询事件表的条数和数据大小，由 EventStatistics 在内存中维护，避免每次通过 Cursor 计数
+     *
+     * @param uri Uri
+     * @return 条数和数据大小，格式为 {条数, 字节数, 已封装为 Segment 的事件条数}
+     */
+    long[] queryEventStatistics(Uri uri) {
+        try {
+            Bundle bundle = contentResolver.call(uri, DbParams.METHOD_QUERY_EVENT_STATISTICS, null, null);
+            if (bundle != null) {
+                return new long[]{bundle.getInt(DbParams.KEY_EVENT_COUNT), bundle.getLong(DbParams.KEY_EVENT_BYTES),
+                        bundle.getInt(DbParams.KEY_SEGMENT_EVENT_COUNT)};
+            }
+        } catch (Exception ex) {
+            SALog.printStackTrace(ex);
+        }
+        return new long[]{queryDataCount(uri), 0, 0};
+    }
+
     /**
      * 删除数据
+     *
+     * @return 删除的条数
      */
-    void deleteData(Uri uri, String id) {
+    int deleteData(Uri uri, String id) {
         try {
             if (DbParams.DB_DELETE_ALL.equals(id)) {
-                contentResolver.delete(uri, null, null);
+                return contentResolver.delete(uri, null, null);
             } else {
-                contentResolver.delete(uri, "_id <= ?", new String[]{id});
+                return contentResolver.delete(uri, "_id <= ?", new String[]{id});
             }
         } catch (Exception ex) {
             SALog.printStackTrace(ex);
         }
+        return 0;
+    }
+
+    /**
+     * 删除 afterId &lt; _id &lt;= lastId 的数据，并发上报时每批数据单独确认删除
+     *
+     * @param uri Uri
+     * @param afterId 上一批数据的最后一条 _id，为空时删除 _id &lt;= lastId 的数据
+     * @param lastId 本批数据的最后一条 _id
+     * @return 删除的条数
+     */
+    int deleteData(Uri uri, String afterId, String lastId) {
+        if (TextUtils.isEmpty(afterId)) {
+            return deleteData(uri, lastId);
+        }
+        try {
+            return contentResolver.delete(uri, "_id > ? AND _id <= ?", new String[]{afterId, lastId});
+        } catch (Exception ex) {
+            SALog.printStackTrace(ex);
+        }
+        return 0;
     }
 
     String parseData(String keyData) {
@@ -109,7 +251,7 @@ abstract class DataOperation {
             if (TextUtils.isEmpty(keyData)) return "";
             int index = keyData.lastIndexOf("\t");
             if (index > -1) {
-                String crc = keyData.substring(index).replaceFirst("\t", "");
+                String crc = keyData.substring(index + 1);
                 keyData = keyData.substring(0, index);
                 if (TextUtils.isEmpty(keyData) || TextUtils.isEmpty(crc)
                         || !crc.equals(String.valueOf(keyData.hashCode()))) {
@@ -122,6 +264,55 @@ abstract class DataOperation {
         return keyData;
     }
 
+    /**
+     * 读取一行事件的 UTF-8 数据，校验 payload 的 CRC32 后直接返回，payload 为空时按旧格式解析 data 列
+     *
+     * @param cursor Cursor
+     * @param dataIndex data 列索引
+     * @param payloadIndex payload 列索引，不存在时为 -1
+     * @param crcIndex crc 列索引，不存在时为 -1
+     * @return 事件数据，校验失败时返回 null
+     */
+    byte[] readPayload(Cursor cursor, int dataIndex, int payloadIndex, int crcIndex) {
+        try {
+            if (payloadIndex >= 0 && !cursor.isNull(payloadIndex)) {
+                byte[] payload = cursor.getBlob(payloadIndex);
+                if (payload == null || payload.length == 0 || crcIndex < 0 || cursor.isNull(crcIndex)) {
+                    return null;
+                }
+                CRC32 crc32 = new CRC32();
+                crc32.update(payload, 0, payload.length);
+                return crc32.getValue() == cursor.getLong(crcIndex) ? payload : null;
+            }
+            String keyData = parseData(cursor.getString(dataIndex));
+            if (!TextUtils.isEmpty(keyData)) {
+                return keyData.getBytes(CHARSET_UTF8);
+            }
+        } catch (Exception ex) {
+            SALog.printStackTrace(ex);
+        }
+        return null;
+    }
+
+    /**
+     * 读取一行事件的 JSON 字符串，参数同 readPayload
+     *
+     * @return 事件数据，校验失败时返回空字符串
+     */
+    String readData(Cursor cursor, int dataIndex, int payloadIndex, int crcIndex) {
+        if (payloadIndex < 0 || cursor.isNull(payloadIndex)) {
+            return parseData(cursor.getString(dataIndex));
+        }
+        try {
+            byte[] payload = readPayload(cursor, dataIndex, payloadIndex, crcIndex);
+            if (payload != null) {
+                return new String(payload, CHARSET_UTF8);
+            }
+        } catch (Exception ex) {
+            SALog.printStackTrace(ex);
+        }
+        return "";
+    }
 
     /**
      * 数据库存满时删除数据
@@ -139,7 +330,7 @@ abstract class DataOperation {
 
             final String lastId = eventsData[0];
             deleteData(uri, lastId);
-            if (queryDataCount(uri) <= 0) {
+            if (queryEventStatistics(uri)[0] <= 0) {
                 return DbParams.DB_OUT_OF_MEMORY_ERROR;
             }
         }
@@ -157,7 +348,8 @@ abstract class DataOperation {
 
     private boolean belowMemThreshold() {
         if (mDatabaseFile.exists()) {
-            return mDatabaseFile.length() >= getMaxCacheSize(mContext);
+            // WAL 模式下尚未写回的数据在 -wal 文件中，删除数据后空闲页会被回收，文件大小随之减小
+            return mDatabaseFile.length() + mWalFile.length() >= getMaxCacheSize(mContext);
         }
         return false;
     }
@@ -19,30 +19,97 @@ package com.sensorsdata.analytics.android.sdk.data.adapter;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.net.Uri;
 
+import com.sensorsdata.analytics.android.sdk.SAConfigOptions;
 import com.sensorsdata.analytics.android.sdk.SALog;
+import com.sensorsdata.analytics.android.sdk.SensorsDataAPI;
+import com.sensorsdata.analytics.android.sdk.data.SensorsDataDBHelper;
 import com.sensorsdata.analytics.android.sdk.data.persistent.PersistentLoader;
 import com.sensorsdata.analytics.android.sdk.data.persistent.PersistentRemoteSDKConfig;
 import com.sensorsdata.analytics.android.sdk.encrypt.SensorsDataEncrypt;
+import com.sensorsdata.analytics.android.sdk.util.AppInfoUtils;
 import com.sensorsdata.analytics.android.sdk.util.Base64Coder;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.OutputStream;
+
 public class DbAdapter {
     private static DbAdapter instance;
     private final DbParams mDbParams;
     private DataOperation mTrackEventOperation;
     private DataOperation mPersistentOperation;
+    private EventBatchCommitter mEventCommitter;
+    private final SegmentDataOperation mSegmentOperation;
+    private int mSegmentMaxEventCount;
+    private int mSegmentMaxBytes;
+    private final Object mSegmentLock = new Object();
+    /* 本进程写入后尚未封装的事件条数和大小，用于判断是否需要封装 Segment */
+    private int mUnsealedEventCount;
+    private long mUnsealedBytes;
+    private volatile StorageFullListener mStorageFullListener;
+
+    /**
+     * 缓存的事件定时写入时空间不足的回调
+     */
+    public interface StorageFullListener {
+        void onStorageFull();
+    }
 
     private DbAdapter(Context context, String packageName, SensorsDataEncrypt sensorsDataEncrypt) {
         mDbParams = DbParams.getInstance(packageName);
+        SAConfigOptions configOptions = SensorsDataAPI.getConfigOptions();
+        // 在访问数据库之前设置，数据库由 ContentProvider 和 DirectEventDataOperation 共享
+        SensorsDataDBHelper.getInstance(context.getApplicationContext()).setStorageProfileEnabled(configOptions != null && configOptions.isStorageProfileEnabled());
         if (sensorsDataEncrypt != null) {
-            mTrackEventOperation = new EncryptDataOperation(context.getApplicationContext(), sensorsDataEncrypt);
+            mTrackEventOperation = new EncryptDataOperation(context.getApplicationContext(), sensorsDataEncrypt,
+                    configOptions != null && configOptions.isBatchEncrypt());
+        } else if (isDirectDbEnabled(context, configOptions)) {
+            mTrackEventOperation = new DirectEventDataOperation(context.getApplicationContext());
         } else {
             mTrackEventOperation = new EventDataOperation(context.getApplicationContext());
         }
         mPersistentOperation = new PersistentDataOperation(context.getApplicationContext());
+        if (configOptions != null && configOptions.getEventBatchSize() > 1) {
+            mEventCommitter = new EventBatchCommitter(mTrackEventOperation, mDbParams.getEventUri(),
+                    configOptions.getEventBatchSize(), configOptions.getEventBatchInterval(), new EventBatchCommitter.CommitListener() {
+                @Override
+                public boolean onLowMemory() {
+                    return deleteOldestSegment();
+                }
+
+                @Override
+                public void onCommitFailed() {
+                    StorageFullListener listener = mStorageFullListener;
+                    if (listener != null) {
+                        listener.onStorageFull();
+                    }
+                }
+            });
+        }
+        // 关闭 Segment 存储或开启加密后，之前封装的 Segment 仍需要上报和删除
+        mSegmentOperation = new SegmentDataOperation(context.getApplicationContext());
+        // 加密后的事件需要在上报时按密钥分组，不支持 Segment 存储
+        if (configOptions != null && configOptions.getSegmentMaxEventCount() > 0 && sensorsDataEncrypt == null) {
+            mSegmentMaxEventCount = configOptions.getSegmentMaxEventCount();
+            mSegmentMaxBytes = configOptions.getSegmentMaxBytes();
+        }
+    }
+
+    /**
+     * 未开启多进程上报时，事件只由主进程上报，主进程中直接访问数据库，子进程仍通过 ContentProvider 写入
+     */
+    private static boolean isDirectDbEnabled(Context context, SAConfigOptions configOptions) {
+        try {
+            return configOptions != null && !configOptions.isMultiProcessFlush()
+                    && AppInfoUtils.isMainProcess(context, AppInfoUtils.getAppInfoBundle(context));
+        } catch (Exception e) {
+            SALog.printStackTrace(e);
+        }
+        return false;
     }
 
     public static DbAdapter getInstance(Context context, String packageName,
@@ -69,18 +136,147 @@ public class DbAdapter {
      * on failure
      */
     public int addJSON(JSONObject j) {
-        int code = mTrackEventOperation.insertData(mDbParams.getEventUri(), j);
+        int code;
+        ContentValues values = mTrackEventOperation.buildContentValues(j);
+        if (mEventCommitter != null) {
+            code = mEventCommitter.add(values);
+        } else {
+            code = mTrackEventOperation.insertData(mDbParams.getEventUri(), values);
+        }
+        // Segment 模式下事件表中的数据较少，空间不足时删除最早的 Segment，单条写入时重试一次，批量写入时由 EventBatchCommitter 重试
+        if (code == DbParams.DB_OUT_OF_MEMORY_ERROR && deleteOldestSegment() && mEventCommitter == null) {
+            code = mTrackEventOperation.insertData(mDbParams.getEventUri(), values);
+        }
         if (code == 0) {
-            return mTrackEventOperation.queryDataCount(mDbParams.getEventUri());
+            if (mSegmentMaxEventCount > 0) {
+                onSegmentEventAdded(values);
+            }
+            return getPendingEventCount();
         }
         return code;
     }
 
+    /**
+     * 是否将新写入的事件封装为 Segment，Debug 模式下服务端只接收单条数据，此时不使用 Segment
+     *
+     * @return true 使用 Segment 存储
+     */
+    public boolean isSegmentEnabled() {
+        return mSegmentMaxEventCount > 0 && !SensorsDataAPI.sharedInstance().isDebugMode();
+    }
+
+    /**
+     * 是否使用 Segment 上报。关闭 Segment 存储或开启加密后，先上报之前封装的 Segment，全部发送后再上报事件表；
+     * Debug 模式下不上报 Segment，待上报条数中也不包含 Segment 中的事件
+     *
+     * @return true 使用 Segment 上报
+     */
+    public boolean isSegmentUploadEnabled() {
+        if (SensorsDataAPI.sharedInstance().isDebugMode()) {
+            return false;
+        }
+        return mSegmentMaxEventCount > 0 || mTrackEventOperation.queryEventStatistics(mDbParams.getEventUri())[2] > 0;
+    }
+
+    private synchronized void onSegmentEventAdded(ContentValues values) {
+        mUnsealedEventCount++;
+        mUnsealedBytes += EventStatistics.getDataLength(values);
+    }
+
+    /**
+     * 根据本进程写入的事件条数和大小判断是否需要封装 Segment，只在内存中计数，不查询数据库。
+     * 返回 true 时计数清零，由调用方在上报线程中调用 sealSegments
+     *
+     * @return true 需要封装 Segment
+     */
+    public synchronized boolean pollSegmentSealRequest() {
+        if (!isSegmentEnabled() || (mUnsealedEventCount < mSegmentMaxEventCount && mUnsealedBytes < mSegmentMaxBytes)) {
+            return false;
+        }
+        mUnsealedEventCount = 0;
+        mUnsealedBytes = 0;
+        return true;
+    }
+
+    /**
+     * 将事件表中达到条数或大小上限的事件封装为 Segment，在上报线程中调用
+     */
+    public void sealSegments() {
+        if (isSegmentEnabled()) {
+            sealSegments(false);
+        }
+    }
+
+    /**
+     * 将事件表中的事件封装为 Segment，使用单独的锁，封装过程中不阻塞事件写入
+     *
+     * @param force true 时封装全部事件，false 时只在事件达到条数或大小上限时封装
+     */
+    private void sealSegments(boolean force) {
+        synchronized (mSegmentLock) {
+            try {
+                Uri eventUri = mDbParams.getEventUri();
+                while (true) {
+                    if (!force) {
+                        long[] statistics = mTrackEventOperation.queryEventStatistics(eventUri);
+                        if (statistics[0] < mSegmentMaxEventCount && statistics[1] < mSegmentMaxBytes) {
+                            return;
+                        }
+                    }
+                    if (mSegmentOperation.sealSegment(eventUri, mDbParams.getSegmentUri(), mSegmentMaxEventCount, mSegmentMaxBytes) <= 0) {
+                        return;
+                    }
+                }
+            } catch (Exception e) {
+                SALog.printStackTrace(e);
+            }
+        }
+    }
+
+    private boolean deleteOldestSegment() {
+        try {
+            String[] segment = mSegmentOperation.queryData(mDbParams.getSegmentUri(), 1);
+            if (segment != null) {
+                SALog.i("SA.DbAdapter", "There is not enough space left on the device to store events, so will delete the oldest segment");
+                return mSegmentOperation.deleteData(mDbParams.getSegmentUri(), segment[0]) > 0;
+            }
+        } catch (Exception e) {
+            SALog.printStackTrace(e);
+        }
+        return false;
+    }
+
+    /**
+     * 设置缓存的事件定时写入时空间不足的回调，由上报模块立即上报数据以释放空间
+     *
+     * @param listener StorageFullListener
+     */
+    public void setStorageFullListener(StorageFullListener listener) {
+        mStorageFullListener = listener;
+    }
+
+    /**
+     * 将内存中缓存的事件写入数据库，App 进入后台、发生崩溃以及上报数据前调用
+     */
+    public void commitBufferedEvents() {
+        try {
+            if (mEventCommitter != null) {
+                mEventCommitter.commit();
+            }
+        } catch (Exception e) {
+            SALog.printStackTrace(e);
+        }
+    }
+
     /**
      * Removes all events from table
      */
     public void deleteAllEvents() {
+        if (mEventCommitter != null) {
+            mEventCommitter.clear();
+        }
         mTrackEventOperation.deleteData(mDbParams.getEventUri(), DbParams.DB_DELETE_ALL);
+        mSegmentOperation.deleteData(mDbParams.getSegmentUri(), DbParams.DB_DELETE_ALL);
     }
 
     /**
@@ -91,7 +287,72 @@ public class DbAdapter {
      */
     public int cleanupEvents(String last_id) {
         mTrackEventOperation.deleteData(mDbParams.getEventUri(), last_id);
-        return mTrackEventOperation.queryDataCount(mDbParams.getEventUri());
+        return getPendingEventCount();
+    }
+
+    /**
+     * 删除 afterId &lt; _id &lt;= lastId 的事件，并发上报时每批数据单独确认删除
+     *
+     * @param afterId 上一批数据的最后一条 _id
+     * @param lastId 本批数据的最后一条 _id
+     * @return 待上报的事件条数
+     */
+    public int cleanupEvents(String afterId, String lastId) {
+        mTrackEventOperation.deleteData(mDbParams.getEventUri(), afterId, lastId);
+        return getPendingEventCount();
+    }
+
+    /**
+     * 删除已上报的 Segment
+     *
+     * @param segmentId Segment Id
+     * @return 待上报的事件条数
+     */
+    public int cleanupSegment(String segmentId) {
+        return cleanupSegment(null, segmentId);
+    }
+
+    /**
+     * 删除 afterId &lt; _id &lt;= segmentId 的 Segment，并发上报时每个 Segment 单独确认删除
+     *
+     * @param afterId 上一个 Segment 的 Id
+     * @param segmentId 本次上报的 Segment Id
+     * @return 待上报的事件条数
+     */
+    public int cleanupSegment(String afterId, String segmentId) {
+        mSegmentOperation.deleteData(mDbParams.getSegmentUri(), afterId, segmentId);
+        return getPendingEventCount();
+    }
+
+    /**
+     * 获取待上报的事件条数，包括已入库、已封装为 Segment 和内存中缓存的事件，Debug 模式下不上报 Segment，不计入 Segment 中的事件。
+     * 条数由 EventStatistics 在内存中维护，调用开销与数据量无关
+     *
+     * @return 事件条数
+     */
+    public int getPendingEventCount() {
+        long[] statistics = mTrackEventOperation.queryEventStatistics(mDbParams.getEventUri());
+        int count = (int) statistics[0];
+        if (!SensorsDataAPI.sharedInstance().isDebugMode()) {
+            count += (int) statistics[2];
+        }
+        if (mEventCommitter != null) {
+            count += mEventCommitter.size();
+        }
+        return count;
+    }
+
+    /**
+     * 获取待上报的事件数据大小，包括已入库和内存中缓存的事件
+     *
+     * @return 数据大小，按数据长度估算
+     */
+    public long getPendingBytes() {
+        long bytes = mTrackEventOperation.queryEventStatistics(mDbParams.getEventUri())[1];
+        if (mEventCommitter != null) {
+            bytes += mEventCommitter.bytes();
+        }
+        return bytes;
     }
 
     /**
@@ -450,10 +711,99 @@ public class DbAdapter {
      */
     public String[] generateDataString(String tableName, int limit) {
         try {
+            commitBufferedEvents();
             return mTrackEventOperation.queryData(mDbParams.getEventUri(), limit);
         } catch (Exception e) {
             SALog.printStackTrace(e);
         }
         return null;
     }
+
+    /**
+     * 从 Event 表中按 _id 升序读取 _id 大于 afterId 的上报数据，用于并发上报
+     *
+     * @param tableName 表名
+     * @param limit 条数限制
+     * @param afterId 上一批数据的最后一条 _id，为空时从头读取
+     * @return 数据
+     */
+    public String[] generateDataString(String tableName, int limit, String afterId) {
+        try {
+            commitBufferedEvents();
+            return mTrackEventOperation.queryData(mDbParams.getEventUri(), afterId, limit);
+        } catch (Exception e) {
+            SALog.printStackTrace(e);
+        }
+        return null;
+    }
+
+    /**
+     * 是否支持流式上报，加密后的事件需要在上报时按密钥分组，不支持流式上报
+     *
+     * @return true 支持流式上报
+     */
+    public boolean isStreamingSupported() {
+        return mTrackEventOperation instanceof EventDataOperation;
+    }
+
+    /**
+     * 按 _id 升序读取 _id 大于 afterId 的一批事件的范围，用于流式上报
+     *
+     * @param limit 条数限制
+     * @param afterId 上一批数据的最后一条 _id，为空时从头读取
+     * @return 本批数据的最后一条 _id，没有数据时返回 null
+     */
+    public String generateEventRange(int limit, String afterId) {
+        try {
+            commitBufferedEvents();
+            return mTrackEventOperation.queryLastId(mDbParams.getEventUri(), afterId, limit);
+        } catch (Exception e) {
+            SALog.printStackTrace(e);
+        }
+        return null;
+    }
+
+    /**
+     * 将 afterId &lt; _id &lt;= lastId 的事件以 JSON 数组的形式写入输出流
+     *
+     * @param afterId 上一批数据的最后一条 _id
+     * @param lastId 本批数据的最后一条 _id
+     * @param out 输出流
+     * @return 写入的事件条数
+     * @throws IOException 写入异常
+     */
+    public int writeEvents(String afterId, String lastId, OutputStream out) throws IOException {
+        if (!isStreamingSupported()) {
+            throw new IOException("Streaming upload is not supported when encryption is enabled");
+        }
+        return ((EventDataOperation) mTrackEventOperation).writeData(mDbParams.getEventUri(), afterId, lastId, out);
+    }
+
+    /**
+     * 读取最早的 Segment，读取前先将剩余的事件封装为 Segment
+     *
+     * @return {Segment Id, 压缩编码后的数据, gzip 类型}
+     */
+    public String[] generateSegmentData() {
+        return generateSegmentData(null);
+    }
+
+    /**
+     * 读取 Id 大于 afterId 的最早的 Segment，开启 Segment 存储时读取前先将剩余的事件封装为 Segment
+     *
+     * @param afterId 上一个 Segment 的 Id，为空时从头读取
+     * @return {Segment Id, 压缩编码后的数据, gzip 类型}
+     */
+    public String[] generateSegmentData(String afterId) {
+        try {
+            if (isSegmentEnabled()) {
+                commitBufferedEvents();
+                sealSegments(true);
+            }
+            return mSegmentOperation.queryData(mDbParams.getSegmentUri(), afterId, 1);
+        } catch (Exception e) {
+            SALog.printStackTrace(e);
+        }
+        return null;
+    }
 }
\ No newline at end of file
@@ -23,13 +23,14 @@ public class DbParams {
     /* 数据库中的表名 */
     public static final String TABLE_EVENTS = "events";
     public static final String TABLE_CHANNEL_PERSISTENT = "t_channel";
+    public static final String TABLE_SEGMENTS = "t_segments";
     public static final int DB_OUT_OF_MEMORY_ERROR = -2;
     public static final String KEY_CHANNEL_EVENT_NAME = "event_name";
     public static final String KEY_CHANNEL_RESULT = "result";
     /* 数据库名称 */
     public static final String DATABASE_NAME = "sensorsdata";
     /* 数据库版本号 */
-    public static final int DATABASE_VERSION = 5;
+    public static final int DATABASE_VERSION = 7;
     public static final String TABLE_ACTIVITY_START_COUNT = "activity_started_count";
     public static final String TABLE_APP_START_TIME = "app_start_time";
     public static final String TABLE_FIRST_PROCESS_START = "first_process_start";
@@ -42,17 +43,31 @@ public class DbParams {
     /* Event 表字段 */
     public static final String KEY_DATA = "data";
     public static final String KEY_CREATED_AT = "created_at";
+    /* Event 表 payload 存储事件 JSON 的 UTF-8 字节，crc 为 payload 的 CRC32，有 payload 时 data 为空字符串 */
+    public static final String KEY_PAYLOAD = "payload";
+    public static final String KEY_CRC = "crc";
+    /* Segment 表字段，data 为压缩编码后可直接上报的数据 */
+    public static final String KEY_SEGMENT_COUNT = "count";
+    /* ContentProvider call 的方法名及参数、返回字段 */
+    public static final String METHOD_QUERY_EVENT_STATISTICS = "query_event_statistics";
+    public static final String METHOD_SEAL_SEGMENT = "seal_segment";
+    public static final String KEY_EVENT_COUNT = "event_count";
+    public static final String KEY_EVENT_BYTES = "event_bytes";
+    public static final String KEY_SEGMENT_EVENT_COUNT = "segment_event_count";
+    public static final String KEY_SEGMENT_ROWS = "segment_rows";
     /* 数据库状态 */
     static final int DB_UPDATE_ERROR = -1;
     static final String VALUE = "value";
     public static final String GZIP_DATA_EVENT = "1";
     public static final String GZIP_DATA_ENCRYPT = "9";
+    /* 整批加密，payloads 中的数据解密后为一批事件组成的 JSON 数组 */
+    public static final String GZIP_DATA_ENCRYPT_BATCH = "10";
     /* 删除所有数据 */
     static final String DB_DELETE_ALL = "DB_DELETE_ALL";
     private static DbParams instance;
     private final Uri mUri, mActivityStartCountUri, mAppStartTimeUri,
             mAppExitDataUri, mSessionTimeUri, mLoginIdUri, mChannelPersistentUri, mSubProcessUri,
-            mEnableSDKUri, mDisableSDKUri, mRemoteConfigUri, mUserIdentities, mLoginIdKeyUri, mPushIdUri;
+            mEnableSDKUri, mDisableSDKUri, mRemoteConfigUri, mUserIdentities, mLoginIdKeyUri, mPushIdUri, mSegmentUri;
     /* 替换 APP_END_DATA 数据，使用新的 SP 文件保存 */
     public static final String APP_EXIT_DATA = "app_exit_data";
 
@@ -88,6 +103,7 @@ public class DbParams {
         mRemoteConfigUri = Uri.parse("content://" + packageName + ".SensorsDataContentProvider/" + PersistentName.REMOTE_CONFIG);
         mUserIdentities = Uri.parse("content://" + packageName + ".SensorsDataContentProvider/" + PersistentName.PERSISTENT_USER_ID);
         mPushIdUri = Uri.parse("content://" + packageName + ".SensorsDataContentProvider/" + PUSH_ID_KEY);
+        mSegmentUri = Uri.parse("content://" + packageName + ".SensorsDataContentProvider/" + TABLE_SEGMENTS);
     }
 
     public static DbParams getInstance(String packageName) {
@@ -113,6 +129,15 @@ public class DbParams {
         return mUri;
     }
 
+    /**
+     * 获取 Segment Uri
+     *
+     * @return Uri
+     */
+    Uri getSegmentUri() {
+        return mSegmentUri;
+    }
+
     /**
      * 获取 AppStart Uri
      *
@@ -0,0 +1,253 @@
+/*
+ * Created by dengshiwei on 2022/07/31.
+ * Copyright 2015－2022 Sensors Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sensorsdata.analytics.android.sdk.data.adapter;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.text.TextUtils;
+
+import com.sensorsdata.analytics.android.sdk.SALog;
+import com.sensorsdata.analytics.android.sdk.data.SensorsDataDBHelper;
+
+/**
+ * 单进程模式下直接访问数据库的事件存储，不经过 ContentProvider，写入、按 _id 删除和计数使用预编译的 SQLiteStatement。
+ * 与 ContentProvider 共享同一个 SensorsDataDBHelper 和 EventStatistics，子进程通过 ContentProvider 写入的事件同样可见
+ */
+class DirectEventDataOperation extends EventDataOperation {
+    private static final String INSERT_SQL = String.format("INSERT INTO %s (%s, %s, %s, %s) VALUES (?, ?, ?, ?)",
+            DbParams.TABLE_EVENTS, DbParams.KEY_DATA, DbParams.KEY_CREATED_AT, DbParams.KEY_PAYLOAD, DbParams.KEY_CRC);
+    private static final String DELETE_SQL = String.format("DELETE FROM %s WHERE _id <= ?", DbParams.TABLE_EVENTS);
+    private static final String DELETE_RANGE_SQL = String.format("DELETE FROM %s WHERE _id > ? AND _id <= ?", DbParams.TABLE_EVENTS);
+    private static final String COUNT_SQL = String.format("SELECT COUNT(*) FROM %s", DbParams.TABLE_EVENTS);
+    private final SensorsDataDBHelper mDbHelper;
+    private final EventStatistics mEventStatistics = EventStatistics.getInstance();
+    private SQLiteDatabase mDatabase;
+    private SQLiteStatement mInsertStatement;
+    private SQLiteStatement mDeleteStatement;
+    private SQLiteStatement mDeleteRangeStatement;
+    private SQLiteStatement mCountStatement;
+
+    DirectEventDataOperation(Context context) {
+        super(context);
+        TAG = "DirectEventDataOperation";
+        mDbHelper = SensorsDataDBHelper.getInstance(context);
+    }
+
+    @Override
+    int insertData(Uri uri, ContentValues contentValues) {
+        int ret = insertData(uri, new ContentValues[]{contentValues});
+        return ret == DbParams.DB_OUT_OF_MEMORY_ERROR ? ret : 0;
+    }
+
+    @Override
+    int insertData(Uri uri, ContentValues[] contentValues) {
+        try {
+            if (deleteDataLowMemory(uri) != 0) {
+                return DbParams.DB_OUT_OF_MEMORY_ERROR;
+            }
+            int count = 0;
+            long bytes = 0;
+            synchronized (this) {
+                SQLiteDatabase database = getDatabase();
+                try {
+                    if (contentValues.length > 1) {
+                        database.beginTransaction();
+                    }
+                    try {
+                        for (ContentValues values : contentValues) {
+                            if (insert(values)) {
+                                count++;
+                                bytes += EventStatistics.getDataLength(values);
+                            }
+                        }
+                        if (contentValues.length > 1) {
+                            database.setTransactionSuccessful();
+                        }
+                    } finally {
+                        if (contentValues.length > 1) {
+                            database.endTransaction();
+                        }
+                    }
+                } finally {
+                    mDbHelper.releaseDatabase();
+                }
+            }
+            mEventStatistics.onEventsInserted(count, bytes);
+            return count;
+        } catch (Exception e) {
+            SALog.printStackTrace(e);
+        }
+        return 0;
+    }
+
+    @Override
+    Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        if (!isEventUri(uri)) {
+            return super.query(uri, projection, selection, selectionArgs, sortOrder);
+        }
+        synchronized (this) {
+            SQLiteDatabase database = getDatabase();
+            try {
+                Cursor cursor = database.query(DbParams.TABLE_EVENTS, projection, selection, selectionArgs, null, null, sortOrder);
+                // 在持有连接时填充结果，避免读取过程中连接被关闭
+                cursor.getCount();
+                return cursor;
+            } finally {
+                mDbHelper.releaseDatabase();
+            }
+        }
+    }
+
+    @Override
+    int queryDataCount(Uri uri) {
+        if (!isEventUri(uri)) {
+            return super.queryDataCount(uri);
+        }
+        try {
+            synchronized (this) {
+                getDatabase();
+                try {
+                    return (int) mCountStatement.simpleQueryForLong();
+                } finally {
+                    mDbHelper.releaseDatabase();
+                }
+            }
+        } catch (Exception e) {
+            SALog.printStackTrace(e);
+        }
+        return 0;
+    }
+
+    @Override
+    long[] queryEventStatistics(Uri uri) {
+        try {
+            synchronized (this) {
+                SQLiteDatabase database = getDatabase();
+                try {
+                    return mEventStatistics.query(database);
+                } finally {
+                    mDbHelper.releaseDatabase();
+                }
+            }
+        } catch (Exception e) {
+            SALog.printStackTrace(e);
+        }
+        return new long[]{queryDataCount(uri), 0, 0};
+    }
+
+    @Override
+    int deleteData(Uri uri, String id) {
+        try {
+            int deleteCount;
+            synchronized (this) {
+                SQLiteDatabase database = getDatabase();
+                try {
+                    if (DbParams.DB_DELETE_ALL.equals(id)) {
+                        deleteCount = database.delete(DbParams.TABLE_EVENTS, null, null);
+                        mEventStatistics.onAllEventsDeleted();
+                        mDbHelper.releaseFreePages();
+                        return deleteCount;
+                    }
+                    mDeleteStatement.bindString(1, id);
+                    deleteCount = mDeleteStatement.executeUpdateDelete();
+                } finally {
+                    mDbHelper.releaseDatabase();
+                }
+            }
+            mEventStatistics.onEventsDeleted(deleteCount);
+            mDbHelper.releaseFreePages();
+            return deleteCount;
+        } catch (Exception e) {
+            SALog.printStackTrace(e);
+        }
+        return 0;
+    }
+
+    @Override
+    int deleteData(Uri uri, String afterId, String lastId) {
+        if (TextUtils.isEmpty(afterId)) {
+            return deleteData(uri, lastId);
+        }
+        try {
+            int deleteCount;
+            synchronized (this) {
+                getDatabase();
+                try {
+                    mDeleteRangeStatement.bindString(1, afterId);
+                    mDeleteRangeStatement.bindString(2, lastId);
+                    deleteCount = mDeleteRangeStatement.executeUpdateDelete();
+                } finally {
+                    mDbHelper.releaseDatabase();
+                }
+            }
+            mEventStatistics.onEventsDeleted(deleteCount);
+            mDbHelper.releaseFreePages();
+            return deleteCount;
+        } catch (Exception e) {
+            SALog.printStackTrace(e);
+        }
+        return 0;
+    }
+
+    private boolean insert(ContentValues values) {
+        String data = values.getAsString(DbParams.KEY_DATA);
+        Long createdAt = values.getAsLong(DbParams.KEY_CREATED_AT);
+        if (data == null || createdAt == null) {
+            return false;
+        }
+        mInsertStatement.clearBindings();
+        mInsertStatement.bindString(1, data);
+        mInsertStatement.bindLong(2, createdAt);
+        byte[] payload = values.getAsByteArray(DbParams.KEY_PAYLOAD);
+        Long crc = values.getAsLong(DbParams.KEY_CRC);
+        if (payload != null && crc != null) {
+            mInsertStatement.bindBlob(3, payload);
+            mInsertStatement.bindLong(4, crc);
+        }
+        return mInsertStatement.executeInsert() != -1;
+    }
+
+    /**
+     * 通过 SensorsDataDBHelper 获取数据库并持有连接，连接重新打开后重新预编译语句。
+     * 调用方需持有当前对象的锁，并在使用完毕后调用 SensorsDataDBHelper#releaseDatabase
+     */
+    private SQLiteDatabase getDatabase() {
+        SQLiteDatabase database = mDbHelper.acquireDatabase();
+        if (database != mDatabase) {
+            try {
+                mInsertStatement = database.compileStatement(INSERT_SQL);
+                mDeleteStatement = database.compileStatement(DELETE_SQL);
+                mDeleteRangeStatement = database.compileStatement(DELETE_RANGE_SQL);
+                mCountStatement = database.compileStatement(COUNT_SQL);
+                mDatabase = database;
+            } catch (RuntimeException e) {
+                mDbHelper.releaseDatabase();
+                throw e;
+            }
+        }
+        return database;
+    }
+
+    private boolean isEventUri(Uri uri) {
+        return uri != null && DbParams.TABLE_EVENTS.equals(uri.getLastPathSegment());
+    }
+}
@@ -35,10 +35,13 @@ import java.util.Map;
 class EncryptDataOperation extends DataOperation {
 
     private final SensorsDataEncrypt mSensorsDataEncrypt;
+    // 整批加密时事件以明文入库，上报时整批压缩、加密一次
+    private final boolean mBatchEncrypt;
 
-    EncryptDataOperation(Context context, SensorsDataEncrypt sensorsDataEncrypt) {
+    EncryptDataOperation(Context context, SensorsDataEncrypt sensorsDataEncrypt, boolean batchEncrypt) {
         super(context);
         this.mSensorsDataEncrypt = sensorsDataEncrypt;
+        this.mBatchEncrypt = batchEncrypt;
     }
 
     @Override
@@ -47,11 +50,7 @@ class EncryptDataOperation extends DataOperation {
             if (deleteDataLowMemory(uri) != 0) {
                 return DbParams.DB_OUT_OF_MEMORY_ERROR;
             }
-            jsonObject = mSensorsDataEncrypt.encryptTrackData(jsonObject);
-            ContentValues cv = new ContentValues();
-            cv.put(DbParams.KEY_DATA, jsonObject.toString() + "\t" + jsonObject.toString().hashCode());
-            cv.put(DbParams.KEY_CREATED_AT, System.currentTimeMillis());
-            contentResolver.insert(uri, cv);
+            contentResolver.insert(uri, buildContentValues(jsonObject));
         } catch (Throwable e) {
             SALog.i(TAG, e.getMessage());
         }
@@ -71,8 +70,28 @@ class EncryptDataOperation extends DataOperation {
         return 0;
     }
 
+    @Override
+    ContentValues buildContentValues(JSONObject jsonObject) {
+        if (mBatchEncrypt) {
+            return super.buildContentValues(jsonObject);
+        }
+        return super.buildContentValues(mSensorsDataEncrypt.encryptTrackData(jsonObject));
+    }
+
     @Override
     String[] queryData(Uri uri, int limit) {
+        return queryEvents(uri, null, null, DbParams.KEY_CREATED_AT + " ASC LIMIT " + limit);
+    }
+
+    @Override
+    String[] queryData(Uri uri, String afterId, int limit) {
+        if (TextUtils.isEmpty(afterId)) {
+            return queryEvents(uri, null, null, "_id ASC LIMIT " + limit);
+        }
+        return queryEvents(uri, "_id > ?", new String[]{afterId}, "_id ASC LIMIT " + limit);
+    }
+
+    private String[] queryEvents(Uri uri, String selection, String[] selectionArgs, String sortOrder) {
         Cursor cursor = null;
         String data = null;
         String last_id = null;
@@ -80,48 +99,73 @@ class EncryptDataOperation extends DataOperation {
         try {
             Map<String, JSONArray> dataEncryptMap = new HashMap<>();
             JSONArray dataJsonArray = new JSONArray();
-            cursor = contentResolver.query(uri, null, null, null, DbParams.KEY_CREATED_AT + " ASC LIMIT " + limit);
+            JSONArray batchEvents = new JSONArray();
+            cursor = contentResolver.query(uri, null, selection, selectionArgs, sortOrder);
             if (cursor != null) {
                 String keyData;
                 JSONObject jsonObject;
                 final String EKEY = "ekey";
                 final String KEY_VER = "pkv";
                 final String PAYLOADS = "payloads";
+                final int dataIndex = cursor.getColumnIndexOrThrow(DbParams.KEY_DATA);
+                final int payloadIndex = cursor.getColumnIndex(DbParams.KEY_PAYLOAD);
+                final int crcIndex = cursor.getColumnIndex(DbParams.KEY_CRC);
+                final int idIndex = cursor.getColumnIndexOrThrow("_id");
+                boolean hasEventEncryptRows = false;
                 while (cursor.moveToNext()) {
-                    if (cursor.isLast()) {
-                        last_id = cursor.getString(cursor.getColumnIndexOrThrow("_id"));
-                    }
                     try {
-                        keyData = cursor.getString(cursor.getColumnIndexOrThrow(DbParams.KEY_DATA));
-                        keyData = parseData(keyData);
-                        if (TextUtils.isEmpty(keyData)) {
-                            continue;
-                        }
-
-                        jsonObject = new JSONObject(keyData);
-                        boolean isHasEkey = jsonObject.has(EKEY);
-                        if (!isHasEkey) { // 如果没有包含 Ekey 字段，则重新进行加密
-                            jsonObject = mSensorsDataEncrypt.encryptTrackData(jsonObject);
-                        }
-
-                        if (jsonObject.has(EKEY)) {
-                            String key = jsonObject.getString(EKEY) + "$" + jsonObject.getInt(KEY_VER);
-                            if (dataEncryptMap.containsKey(key)) {
-                                dataEncryptMap.get(key).put(jsonObject.getString(PAYLOADS));
+                        keyData = readData(cursor, dataIndex, payloadIndex, crcIndex);
+                        if (!TextUtils.isEmpty(keyData)) {
+                            jsonObject = new JSONObject(keyData);
+                            boolean isHasEkey = jsonObject.has(EKEY);
+                            boolean isBatchRow = !isHasEkey && mBatchEncrypt;
+                            // 整批加密和逐条加密的数据使用不同的 gzip 类型，不能放在同一次上报中，遇到另一种数据时留到下次上报
+                            if (isBatchRow ? hasEventEncryptRows : batchEvents.length() > 0) {
+                                break;
+                            }
+                            if (isBatchRow) { // 明文数据在查询结束后整批加密
+                                batchEvents.put(jsonObject);
                             } else {
-                                JSONArray jsonArray = new JSONArray();
-                                jsonArray.put(jsonObject.getString(PAYLOADS));
-                                dataEncryptMap.put(key, jsonArray);
+                                hasEventEncryptRows = true;
+                                if (!isHasEkey) { // 如果没有包含 Ekey 字段，则重新进行加密
+                                    jsonObject = mSensorsDataEncrypt.encryptTrackData(jsonObject);
+                                }
+
+                                if (jsonObject.has(EKEY)) {
+                                    String key = jsonObject.getString(EKEY) + "$" + jsonObject.getInt(KEY_VER);
+                                    if (dataEncryptMap.containsKey(key)) {
+                                        dataEncryptMap.get(key).put(jsonObject.getString(PAYLOADS));
+                                    } else {
+                                        JSONArray jsonArray = new JSONArray();
+                                        jsonArray.put(jsonObject.getString(PAYLOADS));
+                                        dataEncryptMap.put(key, jsonArray);
+                                    }
+                                } else {
+                                    jsonObject.put("_flush_time", System.currentTimeMillis());
+                                    dataJsonArray.put(jsonObject);
+                                }
                             }
-                        } else {
-                            jsonObject.put("_flush_time", System.currentTimeMillis());
-                            dataJsonArray.put(jsonObject);
                         }
                     } catch (Exception e) {
                         SALog.printStackTrace(e);
                     }
+                    last_id = cursor.getString(idIndex);
                 }
                 JSONArray dataEncryptJsonArray = new JSONArray();
+                if (batchEvents.length() > 0) {
+                    jsonObject = mSensorsDataEncrypt.encryptTrackData(batchEvents);
+                    if (jsonObject != null) {
+                        jsonObject.put("flush_time", System.currentTimeMillis());
+                        dataEncryptJsonArray.put(jsonObject);
+                        gzipType = DbParams.GZIP_DATA_ENCRYPT_BATCH;
+                    } else { // 密钥不可用时以明文上报
+                        for (int i = 0; i < batchEvents.length(); i++) {
+                            jsonObject = batchEvents.getJSONObject(i);
+                            jsonObject.put("_flush_time", System.currentTimeMillis());
+                            dataJsonArray.put(jsonObject);
+                        }
+                    }
+                }
                 for (String key : dataEncryptMap.keySet()) {
                     jsonObject = new JSONObject();
                     jsonObject.put(EKEY, key.substring(0, key.indexOf("$")));
@@ -151,7 +195,7 @@ class EncryptDataOperation extends DataOperation {
     }
 
     @Override
-    void deleteData(Uri uri, String id) {
-        super.deleteData(uri, id);
+    int deleteData(Uri uri, String id) {
+        return super.deleteData(uri, id);
     }
 }
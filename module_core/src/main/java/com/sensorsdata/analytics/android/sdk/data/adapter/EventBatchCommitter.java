@@ -0,0 +1,199 @@
+/*
+ * Created by dengshiwei on 2022/07/12.
+ * Copyright 2015－2022 Sensors Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sensorsdata.analytics.android.sdk.data.adapter;
+
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+
+import com.sensorsdata.analytics.android.sdk.SALog;
+import com.sensorsdata.analytics.android.sdk.ThreadNameConstants;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 事件批量入库：事件先缓存在内存中，达到条数上限或者等待超时后通过一次 bulkInsert 事务写入数据库
+ */
+class EventBatchCommitter {
+    private static final String TAG = "SA.EventBatchCommitter";
+    private static final int MESSAGE_COMMIT = 1;
+    private final DataOperation mDataOperation;
+    private final Uri mUri;
+    private final int mBatchSize;
+    private final long mCommitInterval;
+    private final List<ContentValues> mPendingValues;
+    private final CommitListener mCommitListener;
+    private long mPendingBytes;
+    private Handler mHandler;
+
+    /**
+     * 空间不足导致写入失败时的回调
+     */
+    interface CommitListener {
+        /**
+         * 释放存储空间，在写入失败后调用
+         *
+         * @return true 表示已释放空间，重新写入一次
+         */
+        boolean onLowMemory();
+
+        /**
+         * 定时写入失败时调用，事件仍保留在缓存中
+         */
+        void onCommitFailed();
+    }
+
+    /**
+     * @param dataOperation 事件表操作
+     * @param uri 事件表 Uri
+     * @param batchSize 单次批量写入的最大条数
+     * @param commitInterval 缓存事件的最长等待时间，单位毫秒
+     * @param commitListener 写入失败时的回调
+     */
+    EventBatchCommitter(DataOperation dataOperation, Uri uri, int batchSize, long commitInterval, CommitListener commitListener) {
+        this.mDataOperation = dataOperation;
+        this.mCommitListener = commitListener;
+        this.mUri = uri;
+        this.mBatchSize = batchSize;
+        this.mCommitInterval = commitInterval;
+        this.mPendingValues = new ArrayList<>(batchSize);
+        try {
+            HandlerThread handlerThread = new HandlerThread(ThreadNameConstants.THREAD_EVENT_COMMIT);
+            handlerThread.start();
+            mHandler = new CommitHandler(handlerThread.getLooper());
+        } catch (Exception e) {
+            SALog.printStackTrace(e);
+        }
+    }
+
+    /**
+     * 缓存一条事件，达到条数上限时立即写入。上次写入失败的事件仍在缓存中且缓存已满时，先重新写入，
+     * 仍然失败则与逐条写入一致，只丢弃新加入的事件
+     *
+     * @param contentValues 事件数据
+     * @return 写入失败时返回 DB_OUT_OF_MEMORY_ERROR，否则返回 0
+     */
+    synchronized int add(ContentValues contentValues) {
+        if (mPendingValues.size() >= mBatchSize) {
+            int ret = commit();
+            if (ret < 0) {
+                return ret;
+            }
+        }
+        mPendingValues.add(contentValues);
+        byte[] payload = contentValues.getAsByteArray(DbParams.KEY_PAYLOAD);
+        if (payload != null) {
+            mPendingBytes += payload.length;
+        } else {
+            String data = contentValues.getAsString(DbParams.KEY_DATA);
+            mPendingBytes += data == null ? 0 : data.length();
+        }
+        if (mPendingValues.size() >= mBatchSize || mHandler == null) {
+            return commit();
+        }
+        if (mPendingValues.size() == 1) {
+            mHandler.sendEmptyMessageDelayed(MESSAGE_COMMIT, mCommitInterval);
+        }
+        return 0;
+    }
+
+    /**
+     * 将缓存的事件写入数据库。空间不足时通过 CommitListener 释放空间后重试一次，仍然失败时事件保留在缓存中，
+     * 等待下次写入
+     *
+     * @return 写入失败时返回 DB_OUT_OF_MEMORY_ERROR，否则返回 0
+     */
+    synchronized int commit() {
+        if (mHandler != null) {
+            mHandler.removeMessages(MESSAGE_COMMIT);
+        }
+        if (mPendingValues.isEmpty()) {
+            return 0;
+        }
+        ContentValues[] values = mPendingValues.toArray(new ContentValues[0]);
+        int ret = mDataOperation.insertData(mUri, values);
+        if (ret == DbParams.DB_OUT_OF_MEMORY_ERROR && mCommitListener != null && mCommitListener.onLowMemory()) {
+            ret = mDataOperation.insertData(mUri, values);
+        }
+        if (ret == DbParams.DB_OUT_OF_MEMORY_ERROR) {
+            SALog.i(TAG, "Failed to commit " + values.length + " events, will retry later");
+            if (mHandler != null) {
+                mHandler.sendEmptyMessageDelayed(MESSAGE_COMMIT, mCommitInterval);
+            }
+            return ret;
+        }
+        mPendingValues.clear();
+        mPendingBytes = 0;
+        if (ret < 0) {
+            SALog.i(TAG, "Failed to commit " + values.length + " events");
+            return ret;
+        }
+        return 0;
+    }
+
+    /**
+     * 丢弃缓存中未写入的事件
+     */
+    synchronized void clear() {
+        if (mHandler != null) {
+            mHandler.removeMessages(MESSAGE_COMMIT);
+        }
+        mPendingValues.clear();
+        mPendingBytes = 0;
+    }
+
+    /**
+     * 获取缓存中未写入的事件条数
+     *
+     * @return 事件条数
+     */
+    synchronized int size() {
+        return mPendingValues.size();
+    }
+
+    /**
+     * 获取缓存中未写入的事件数据大小
+     *
+     * @return 数据大小，按数据长度估算
+     */
+    synchronized long bytes() {
+        return mPendingBytes;
+    }
+
+    private class CommitHandler extends Handler {
+
+        CommitHandler(Looper looper) {
+            super(looper);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            try {
+                if (msg.what == MESSAGE_COMMIT && commit() < 0 && mCommitListener != null) {
+                    mCommitListener.onCommitFailed();
+                }
+            } catch (Exception e) {
+                SALog.printStackTrace(e);
+            }
+        }
+    }
+}
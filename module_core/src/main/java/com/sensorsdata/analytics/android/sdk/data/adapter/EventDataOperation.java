@@ -28,6 +28,11 @@ import com.sensorsdata.analytics.android.sdk.SALog;
 
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static com.sensorsdata.analytics.android.sdk.util.Base64Coder.CHARSET_UTF8;
+
 class EventDataOperation extends DataOperation {
 
     EventDataOperation(Context context) {
@@ -38,13 +43,7 @@ class EventDataOperation extends DataOperation {
     @Override
     int insertData(Uri uri, JSONObject jsonObject) {
         try {
-            if (deleteDataLowMemory(uri) != 0) {
-                return DbParams.DB_OUT_OF_MEMORY_ERROR;
-            }
-            ContentValues cv = new ContentValues();
-            cv.put(DbParams.KEY_DATA, jsonObject.toString() + "\t" + jsonObject.toString().hashCode());
-            cv.put(DbParams.KEY_CREATED_AT, System.currentTimeMillis());
-            contentResolver.insert(uri, cv);
+            return insertData(uri, buildContentValues(jsonObject));
         } catch (Throwable e) {
             SALog.i(TAG, e.getMessage());
         }
@@ -66,25 +65,39 @@ class EventDataOperation extends DataOperation {
 
     @Override
     String[] queryData(Uri uri, int limit) {
+        return queryEvents(uri, null, null, DbParams.KEY_CREATED_AT + " ASC LIMIT " + limit);
+    }
+
+    @Override
+    String[] queryData(Uri uri, String afterId, int limit) {
+        if (TextUtils.isEmpty(afterId)) {
+            return queryEvents(uri, null, null, "_id ASC LIMIT " + limit);
+        }
+        return queryEvents(uri, "_id > ?", new String[]{afterId}, "_id ASC LIMIT " + limit);
+    }
+
+    private String[] queryEvents(Uri uri, String selection, String[] selectionArgs, String sortOrder) {
         Cursor cursor = null;
         String data = null;
         String last_id = null;
         try {
-            cursor = contentResolver.query(uri, null, null, null, DbParams.KEY_CREATED_AT + " ASC LIMIT " + limit);
+            cursor = query(uri, null, selection, selectionArgs, sortOrder);
             if (cursor != null) {
                 StringBuilder dataBuilder = new StringBuilder();
                 final String flush_time = ",\"_flush_time\":";
                 String suffix = ",";
                 dataBuilder.append("[");
                 String keyData;
+                final int dataIndex = cursor.getColumnIndexOrThrow(DbParams.KEY_DATA);
+                final int payloadIndex = cursor.getColumnIndex(DbParams.KEY_PAYLOAD);
+                final int crcIndex = cursor.getColumnIndex(DbParams.KEY_CRC);
                 while (cursor.moveToNext()) {
                     if (cursor.isLast()) {
                         suffix = "]";
                         last_id = cursor.getString(cursor.getColumnIndexOrThrow("_id"));
                     }
                     try {
-                        keyData = cursor.getString(cursor.getColumnIndexOrThrow(DbParams.KEY_DATA));
-                        keyData = parseData(keyData);
+                        keyData = readData(cursor, dataIndex, payloadIndex, crcIndex);
                         if (!TextUtils.isEmpty(keyData)) {
                             dataBuilder.append(keyData, 0, keyData.length() - 1)
                                     .append(flush_time)
@@ -113,8 +126,56 @@ class EventDataOperation extends DataOperation {
         return null;
     }
 
+    /**
+     * 将 afterId &lt; _id &lt;= lastId 的事件以 JSON 数组的形式逐条写入输出流，不在内存中拼接整批数据
+     *
+     * @param uri Uri
+     * @param afterId 上一批数据的最后一条 _id，为空时从头写入
+     * @param lastId 本批数据的最后一条 _id
+     * @param out 输出流
+     * @return 写入的事件条数
+     * @throws IOException 写入异常
+     */
+    int writeData(Uri uri, String afterId, String lastId, OutputStream out) throws IOException {
+        Cursor cursor = null;
+        int count = 0;
+        try {
+            final String[] projection = new String[]{DbParams.KEY_DATA, DbParams.KEY_PAYLOAD, DbParams.KEY_CRC};
+            if (TextUtils.isEmpty(afterId)) {
+                cursor = query(uri, projection, "_id <= ?", new String[]{lastId}, "_id ASC");
+            } else {
+                cursor = query(uri, projection, "_id > ? AND _id <= ?", new String[]{afterId, lastId}, "_id ASC");
+            }
+            final byte[] flushTime = (",\"_flush_time\":" + System.currentTimeMillis() + "}").getBytes(CHARSET_UTF8);
+            out.write('[');
+            byte[] payload;
+            while (cursor != null && cursor.moveToNext()) {
+                // payload 校验通过后直接写入输出流，去掉末尾的 } 后拼接 _flush_time
+                payload = readPayload(cursor, 0, 1, 2);
+                if (payload == null) {
+                    continue;
+                }
+                if (count > 0) {
+                    out.write(',');
+                }
+                out.write(payload, 0, payload.length - 1);
+                out.write(flushTime);
+                count++;
+            }
+            out.write(']');
+        } catch (final SQLiteException e) {
+            SALog.i(TAG, "Could not pull records for SensorsData out of database events. Waiting to send.", e);
+            throw new IOException(e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return count;
+    }
+
     @Override
-    void deleteData(Uri uri, String id) {
-        super.deleteData(uri, id);
+    int deleteData(Uri uri, String id) {
+        return super.deleteData(uri, id);
     }
 }
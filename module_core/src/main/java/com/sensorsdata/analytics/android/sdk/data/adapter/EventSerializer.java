@@ -0,0 +1,240 @@
+/*
+ * Created by dengshiwei on 2022/07/30.
+ * Copyright 2015－2022 Sensors Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sensorsdata.analytics.android.sdk.data.adapter;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Iterator;
+import java.util.zip.CRC32;
+
+import static com.sensorsdata.analytics.android.sdk.util.Base64Coder.CHARSET_UTF8;
+
+/**
+ * 事件序列化：将事件 JSON 一次遍历直接编码为 UTF-8 写入可复用的缓冲区，同时计算与 String.hashCode 一致的校验值，
+ * 输出与 JSONObject.toString().getBytes("UTF-8") 相同，未配对的代理字符替换为 '?'。非线程安全
+ */
+final class EventSerializer {
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes();
+    /* 缓冲区超过该大小时序列化结束后释放，避免长期占用内存 */
+    private static final int MAX_RETAINED_SIZE = 64 * 1024;
+    private byte[] mBuffer = new byte[4 * 1024];
+    private int mLength;
+    private int mTextHash;
+    private char mHighSurrogate;
+
+    /**
+     * 序列化事件，结果通过 buffer、length、textHash 获取
+     *
+     * @param jsonObject 事件
+     * @throws JSONException 数值为 NaN 或无穷大
+     */
+    void serialize(JSONObject jsonObject) throws JSONException {
+        if (mBuffer.length > MAX_RETAINED_SIZE) {
+            mBuffer = new byte[4 * 1024];
+        }
+        mLength = 0;
+        mTextHash = 0;
+        mHighSurrogate = 0;
+        writeObject(jsonObject);
+    }
+
+    byte[] buffer() {
+        return mBuffer;
+    }
+
+    int length() {
+        return mLength;
+    }
+
+    /**
+     * @return 与 text().hashCode() 相同的值，未配对的代理字符按替换后的 '?' 计算
+     */
+    int textHash() {
+        return mTextHash;
+    }
+
+    /**
+     * @return 序列化结果 UTF-8 字节的 CRC32
+     */
+    long crc32() {
+        CRC32 crc32 = new CRC32();
+        crc32.update(mBuffer, 0, mLength);
+        return crc32.getValue();
+    }
+
+    /**
+     * @return 序列化结果的字符串
+     * @throws UnsupportedEncodingException 不支持 UTF-8 编码
+     */
+    String text() throws UnsupportedEncodingException {
+        return new String(mBuffer, 0, mLength, CHARSET_UTF8);
+    }
+
+    private void writeObject(JSONObject jsonObject) throws JSONException {
+        writeChar('{');
+        Iterator<String> keys = jsonObject.keys();
+        boolean first = true;
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (!first) {
+                writeChar(',');
+            }
+            first = false;
+            writeString(key);
+            writeChar(':');
+            writeValue(jsonObject.opt(key));
+        }
+        writeChar('}');
+    }
+
+    private void writeArray(JSONArray jsonArray) throws JSONException {
+        writeChar('[');
+        for (int i = 0; i < jsonArray.length(); i++) {
+            if (i > 0) {
+                writeChar(',');
+            }
+            writeValue(jsonArray.opt(i));
+        }
+        writeChar(']');
+    }
+
+    private void writeValue(Object value) throws JSONException {
+        if (value == null || value == JSONObject.NULL) {
+            writeRaw("null");
+        } else if (value instanceof JSONObject) {
+            writeObject((JSONObject) value);
+        } else if (value instanceof JSONArray) {
+            writeArray((JSONArray) value);
+        } else if (value instanceof Boolean) {
+            writeRaw((Boolean) value ? "true" : "false");
+        } else if (value instanceof Number) {
+            writeRaw(JSONObject.numberToString((Number) value));
+        } else {
+            writeString(value.toString());
+        }
+    }
+
+    /**
+     * 与 JSONStringer 相同的转义规则
+     */
+    private void writeString(String value) {
+        writeChar('"');
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    writeChar('\\');
+                    writeChar(c);
+                    break;
+                case '\t':
+                    writeRaw("\\t");
+                    break;
+                case '\b':
+                    writeRaw("\\b");
+                    break;
+                case '\n':
+                    writeRaw("\\n");
+                    break;
+                case '\r':
+                    writeRaw("\\r");
+                    break;
+                case '\f':
+                    writeRaw("\\f");
+                    break;
+                default:
+                    if (c <= 0x1F) {
+                        writeRaw("\\u00");
+                        writeChar((char) HEX_DIGITS[(c >> 4) & 0xF]);
+                        writeChar((char) HEX_DIGITS[c & 0xF]);
+                    } else {
+                        writeChar(c);
+                    }
+                    break;
+            }
+        }
+        writeChar('"');
+    }
+
+    private void writeRaw(String value) {
+        for (int i = 0, length = value.length(); i < length; i++) {
+            writeChar(value.charAt(i));
+        }
+    }
+
+    /**
+     * 写入一个 UTF-16 字符：编码为 UTF-8 并更新校验值，未配对的代理字符按 String.getBytes 的规则替换为 '?'，
+     * 校验值按实际写入的字符计算，与 text().hashCode() 一致
+     */
+    private void writeChar(char c) {
+        if (mHighSurrogate != 0) {
+            char high = mHighSurrogate;
+            mHighSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                mTextHash = 31 * (31 * mTextHash + high) + c;
+                int codePoint = Character.toCodePoint(high, c);
+                ensureCapacity(4);
+                mBuffer[mLength++] = (byte) (0xF0 | (codePoint >> 18));
+                mBuffer[mLength++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                mBuffer[mLength++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                mBuffer[mLength++] = (byte) (0x80 | (codePoint & 0x3F));
+                return;
+            }
+            writeReplacement();
+        }
+        if (c < 0x80) {
+            mTextHash = 31 * mTextHash + c;
+            ensureCapacity(1);
+            mBuffer[mLength++] = (byte) c;
+        } else if (c < 0x800) {
+            mTextHash = 31 * mTextHash + c;
+            ensureCapacity(2);
+            mBuffer[mLength++] = (byte) (0xC0 | (c >> 6));
+            mBuffer[mLength++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            // 等待下一个字符确定是否配对，校验值在配对或替换时更新
+            mHighSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            writeReplacement();
+        } else {
+            mTextHash = 31 * mTextHash + c;
+            ensureCapacity(3);
+            mBuffer[mLength++] = (byte) (0xE0 | (c >> 12));
+            mBuffer[mLength++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            mBuffer[mLength++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    private void writeReplacement() {
+        mTextHash = 31 * mTextHash + '?';
+        ensureCapacity(1);
+        mBuffer[mLength++] = '?';
+    }
+
+    private void ensureCapacity(int extra) {
+        if (mLength + extra > mBuffer.length) {
+            byte[] buffer = new byte[Math.max(mBuffer.length * 2, mLength + extra)];
+            System.arraycopy(mBuffer, 0, buffer, 0, mLength);
+            mBuffer = buffer;
+        }
+    }
+}
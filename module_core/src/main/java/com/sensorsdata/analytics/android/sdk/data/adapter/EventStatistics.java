@@ -0,0 +1,186 @@
+/*
+ * Created by dengshiwei on 2022/07/31.
+ * Copyright 2015－2022 Sensors Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sensorsdata.analytics.android.sdk.data.adapter;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.sensorsdata.analytics.android.sdk.SALog;
+
+/**
+ * 事件表的条数和数据大小（按数据长度估算）以及已封装为 Segment 的事件条数，在进程内共享，
+ * 由 ContentProvider 和直接访问数据库的 DataOperation 共同维护，首次查询时从数据库读取
+ */
+public final class EventStatistics {
+    private static final EventStatistics INSTANCE = new EventStatistics();
+    /* -1 表示尚未从数据库读取 */
+    private int mEventCount = -1;
+    private long mEventBytes = 0;
+    private int mSegmentEventCount = -1;
+
+    private EventStatistics() {
+    }
+
+    public static EventStatistics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 查询统计数据，尚未读取时通过 COUNT 语句从数据库读取
+     *
+     * @param database 数据库
+     * @return {条数, 字节数, 已封装为 Segment 的事件条数}
+     */
+    public synchronized long[] query(SQLiteDatabase database) {
+        if (mEventCount < 0) {
+            loadEventStatistics(database);
+        }
+        if (mSegmentEventCount < 0) {
+            loadSegmentStatistics(database);
+        }
+        return new long[]{Math.max(mEventCount, 0), mEventBytes, Math.max(mSegmentEventCount, 0)};
+    }
+
+    /**
+     * 记录写入的事件
+     *
+     * @param count 条数
+     * @param bytes 数据大小
+     */
+    public synchronized void onEventsInserted(int count, long bytes) {
+        // 尚未读取时无需累加，首次读取会包含本次写入的数据
+        if (mEventCount >= 0) {
+            mEventCount += count;
+            mEventBytes += bytes;
+        }
+    }
+
+    /**
+     * 记录删除的事件，删除的数据按平均大小估算
+     *
+     * @param deleteCount 删除的条数
+     */
+    public synchronized void onEventsDeleted(int deleteCount) {
+        if (mEventCount < 0 || deleteCount <= 0) {
+            return;
+        }
+        if (deleteCount > mEventCount) {
+            // 存在未经过计数的数据，下次查询时重新读取
+            mEventCount = -1;
+            mEventBytes = 0;
+        } else if (deleteCount == mEventCount) {
+            mEventCount = 0;
+            mEventBytes = 0;
+        } else {
+            mEventBytes -= mEventBytes / mEventCount * deleteCount;
+            mEventCount -= deleteCount;
+        }
+    }
+
+    /**
+     * 记录清空事件表
+     */
+    public synchronized void onAllEventsDeleted() {
+        mEventCount = 0;
+        mEventBytes = 0;
+    }
+
+    /**
+     * 记录新封装的 Segment
+     *
+     * @param count Segment 包含的事件条数
+     */
+    public synchronized void onSegmentSealed(int count) {
+        if (mSegmentEventCount >= 0) {
+            mSegmentEventCount += count;
+        }
+    }
+
+    /**
+     * 记录删除 Segment，Segment 数量较少，下次查询时重新汇总
+     */
+    public synchronized void onSegmentsDeleted() {
+        mSegmentEventCount = -1;
+    }
+
+    /**
+     * 数据未经过计数时调用，下次查询时重新读取
+     */
+    public synchronized void reset() {
+        mEventCount = -1;
+        mEventBytes = 0;
+        mSegmentEventCount = -1;
+    }
+
+    /**
+     * 获取一条待写入事件的数据大小
+     *
+     * @param values 事件数据
+     * @return 数据大小
+     */
+    public static long getDataLength(ContentValues values) {
+        byte[] payload = values.getAsByteArray(DbParams.KEY_PAYLOAD);
+        if (payload != null) {
+            return payload.length;
+        }
+        String data = values.getAsString(DbParams.KEY_DATA);
+        return data == null ? 0 : data.length();
+    }
+
+    private void loadEventStatistics(SQLiteDatabase database) {
+        Cursor cursor = null;
+        try {
+            if (database == null) {
+                return;
+            }
+            cursor = database.rawQuery(String.format("SELECT COUNT(*), IFNULL(SUM(LENGTH(%s) + IFNULL(LENGTH(%s), 0)), 0) FROM %s",
+                    DbParams.KEY_DATA, DbParams.KEY_PAYLOAD, DbParams.TABLE_EVENTS), null);
+            if (cursor != null && cursor.moveToFirst()) {
+                mEventCount = cursor.getInt(0);
+                mEventBytes = cursor.getLong(1);
+            }
+        } catch (Exception e) {
+            SALog.printStackTrace(e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    private void loadSegmentStatistics(SQLiteDatabase database) {
+        Cursor cursor = null;
+        try {
+            if (database == null) {
+                return;
+            }
+            cursor = database.rawQuery(String.format("SELECT IFNULL(SUM(%s), 0) FROM %s",
+                    DbParams.KEY_SEGMENT_COUNT, DbParams.TABLE_SEGMENTS), null);
+            if (cursor != null && cursor.moveToFirst()) {
+                mSegmentEventCount = cursor.getInt(0);
+            }
+        } catch (Exception e) {
+            SALog.printStackTrace(e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+}
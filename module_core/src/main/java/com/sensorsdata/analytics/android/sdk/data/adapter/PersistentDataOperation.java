@@ -143,8 +143,8 @@ class PersistentDataOperation extends DataOperation {
     }
 
     @Override
-    void deleteData(Uri uri, String key) {
-        contentResolver.delete(uri.buildUpon().appendQueryParameter(DbParams.REMOVE_SP_KEY, key).build(),
+    int deleteData(Uri uri, String key) {
+        return contentResolver.delete(uri.buildUpon().appendQueryParameter(DbParams.REMOVE_SP_KEY, key).build(),
                 null, null);
     }
 }
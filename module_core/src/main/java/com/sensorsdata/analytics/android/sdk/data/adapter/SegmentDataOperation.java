@@ -0,0 +1,196 @@
+/*
+ * Created by dengshiwei on 2022/07/14.
+ * Copyright 2015－2022 Sensors Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sensorsdata.analytics.android.sdk.data.adapter;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+import android.net.Uri;
+import android.os.Bundle;
+import android.text.TextUtils;
+
+import com.sensorsdata.analytics.android.sdk.SALog;
+import com.sensorsdata.analytics.android.sdk.util.Base64Coder;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Segment 存储：事件表中的事件按条数或大小封装为压缩编码后的 Segment，上报时直接发送，失败重试也无需重新编码。
+ * Segment 中的事件不包含 _flush_time，上报时间由请求参数 flush_time 发送
+ */
+class SegmentDataOperation extends DataOperation {
+
+    SegmentDataOperation(Context context) {
+        super(context);
+        TAG = "SegmentDataOperation";
+    }
+
+    /**
+     * Segment 只能通过 sealSegment 生成，不支持直接写入
+     */
+    @Override
+    int insertData(Uri uri, JSONObject jsonObject) {
+        return DbParams.DB_UPDATE_ERROR;
+    }
+
+    @Override
+    int insertData(Uri uri, ContentValues contentValues) {
+        return DbParams.DB_UPDATE_ERROR;
+    }
+
+    /**
+     * 查询最早的 Segment
+     *
+     * @param uri Segment Uri
+     * @param limit 未使用，每次只返回一个 Segment
+     * @return {Segment Id, 压缩编码后的数据, gzip 类型}
+     */
+    @Override
+    String[] queryData(Uri uri, int limit) {
+        return queryData(uri, null, limit);
+    }
+
+    /**
+     * 查询 _id 大于 afterId 的最早的 Segment
+     *
+     * @param uri Segment Uri
+     * @param afterId 上一个 Segment 的 Id，为空时从头读取
+     * @param limit 未使用，每次只返回一个 Segment
+     * @return {Segment Id, 压缩编码后的数据, gzip 类型}
+     */
+    @Override
+    String[] queryData(Uri uri, String afterId, int limit) {
+        Cursor cursor = null;
+        try {
+            if (TextUtils.isEmpty(afterId)) {
+                cursor = contentResolver.query(uri, new String[]{"_id", DbParams.KEY_DATA}, null, null, "_id ASC LIMIT 1");
+            } else {
+                cursor = contentResolver.query(uri, new String[]{"_id", DbParams.KEY_DATA}, "_id > ?", new String[]{afterId}, "_id ASC LIMIT 1");
+            }
+            if (cursor != null && cursor.moveToFirst()) {
+                return new String[]{cursor.getString(0), cursor.getString(1), DbParams.GZIP_DATA_EVENT};
+            }
+        } catch (final SQLiteException e) {
+            SALog.i(TAG, "Could not pull segment for SensorsData out of database. Waiting to send.", e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 将事件表中最早的事件封装为一个 Segment，写入 Segment 和删除事件在同一个事务中完成
+     *
+     * @param eventUri 事件表 Uri
+     * @param segmentUri Segment 表 Uri
+     * @param maxCount 最大事件条数
+     * @param maxBytes 压缩前的最大数据大小
+     * @return 封装的事件行数，没有可封装的事件或者封装失败时返回 0
+     */
+    int sealSegment(Uri eventUri, Uri segmentUri, int maxCount, long maxBytes) {
+        Cursor cursor = null;
+        String lastId = null;
+        int rows = 0;
+        int count = 0;
+        ByteArrayOutputStream dataStream = new ByteArrayOutputStream();
+        try {
+            cursor = contentResolver.query(eventUri, new String[]{"_id", DbParams.KEY_DATA, DbParams.KEY_PAYLOAD, DbParams.KEY_CRC},
+                    null, null, "_id ASC LIMIT " + maxCount);
+            if (cursor == null) {
+                return 0;
+            }
+            dataStream.write('[');
+            byte[] payload;
+            while (cursor.moveToNext()) {
+                rows++;
+                lastId = cursor.getString(0);
+                payload = readPayload(cursor, 1, 2, 3);
+                if (payload != null) {
+                    if (count > 0) {
+                        dataStream.write(',');
+                    }
+                    dataStream.write(payload, 0, payload.length);
+                    count++;
+                }
+                if (dataStream.size() >= maxBytes) {
+                    break;
+                }
+            }
+            dataStream.write(']');
+        } catch (final SQLiteException e) {
+            SALog.i(TAG, "Could not pull records for segment out of database events.", e);
+            return 0;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        if (lastId == null) {
+            return 0;
+        }
+        try {
+            Bundle extras = new Bundle();
+            extras.putInt(DbParams.KEY_SEGMENT_ROWS, rows);
+            extras.putInt(DbParams.KEY_SEGMENT_COUNT, count);
+            // 全部为校验失败的数据时只删除事件，不生成 Segment
+            if (count > 0) {
+                String data = encodeData(dataStream.toByteArray());
+                if (data == null) {
+                    return 0;
+                }
+                extras.putString(DbParams.KEY_DATA, data);
+            }
+            Bundle result = contentResolver.call(segmentUri, DbParams.METHOD_SEAL_SEGMENT, lastId, extras);
+            return result == null ? 0 : result.getInt(DbParams.KEY_SEGMENT_ROWS);
+        } catch (Exception e) {
+            SALog.printStackTrace(e);
+        }
+        return 0;
+    }
+
+    private String encodeData(final byte[] bytes) {
+        GZIPOutputStream gos = null;
+        try {
+            ByteArrayOutputStream os = new ByteArrayOutputStream(bytes.length);
+            gos = new GZIPOutputStream(os);
+            gos.write(bytes);
+            gos.close();
+            gos = null;
+            return new String(Base64Coder.encode(os.toByteArray()));
+        } catch (IOException e) {
+            SALog.printStackTrace(e);
+        } finally {
+            if (gos != null) {
+                try {
+                    gos.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+        return null;
+    }
+}
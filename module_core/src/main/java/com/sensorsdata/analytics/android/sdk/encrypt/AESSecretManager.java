@@ -25,11 +25,8 @@ import com.sensorsdata.analytics.android.sdk.SALog;
 import com.sensorsdata.analytics.android.sdk.plugin.encrypt.SAStoreManager;
 import com.sensorsdata.analytics.android.sdk.util.Base64Coder;
 
-import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
-import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
 
 /**
  * AES 加密工具，针对 SP、t_channel 数据表、push File 文件加密
@@ -38,11 +35,12 @@ import javax.crypto.spec.SecretKeySpec;
 public class AESSecretManager {
     private static final String TAG = "SA.AESSecretManager";
     private static final byte[] ZERO_IV = new byte[16];
-    private static final String CBC_PKCS5_PADDING = "AES/CBC/PKCS5Padding";
     private static final String ALGORITHM = "AES";
     private static final String CHARSET_NAME = "UTF-8";
     private static final String SECRET_KEY_FILE = "com.sensorsdata.analytics.android.sdk.other";
     private String mAESSecret;
+    /* Base64 解码后的密钥，避免每次加解密时重复解码 */
+    private byte[] mAESKey;
 
     private AESSecretManager() {
 
@@ -68,6 +66,9 @@ public class AESSecretManager {
             mAESSecret = generateAESKey();
             secretSp.edit().putString(Base64Coder.encodeString(SAStoreManager.SECRET_KEY), mAESSecret).apply();
         }
+        if (!TextUtils.isEmpty(mAESSecret)) {
+            mAESKey = Base64Coder.decode(mAESSecret);
+        }
     }
 
     /**
@@ -87,17 +88,6 @@ public class AESSecretManager {
         return "";
     }
 
-    /**
-     * 将使用 Base64 加密后的字符串类型的 secretKey 转为 SecretKey
-     *
-     * @param strKey 待转换的字符串 secretKey
-     * @return SecretKey
-     */
-    private SecretKey strKey2SecretKey(String strKey) {
-        byte[] bytes = Base64Coder.decode(strKey);
-        return new SecretKeySpec(bytes, ALGORITHM);
-    }
-
     /**
      * 加密，SF SDK 会调用此方法
      *
@@ -106,13 +96,11 @@ public class AESSecretManager {
      */
     public String encryptAES(String content) {
         try {
-            if (content == null || TextUtils.isEmpty(mAESSecret)) {
+            if (content == null || mAESKey == null) {
                 return content;
             }
-            Cipher cipher = Cipher.getInstance(CBC_PKCS5_PADDING);
-            IvParameterSpec zeroIv = new IvParameterSpec(ZERO_IV);
-            cipher.init(Cipher.ENCRYPT_MODE, strKey2SecretKey(mAESSecret), zeroIv);
-            return new String(Base64Coder.encode(cipher.doFinal(content.getBytes(CHARSET_NAME))));
+            byte[] encrypted = SACipherEngine.getInstance().encrypt(SymmetricEncryptMode.AES, mAESKey, ZERO_IV, content.getBytes(CHARSET_NAME));
+            return new String(Base64Coder.encode(encrypted));
         } catch (Exception e) {
             SALog.i(TAG, "encryptAES fail, msg: " + e);
         }
@@ -127,13 +115,11 @@ public class AESSecretManager {
      */
     public String decryptAES(String content) {
         try {
-            if (content == null || TextUtils.isEmpty(mAESSecret)) {
+            if (content == null || mAESKey == null) {
                 return content;
             }
-            Cipher cipher = Cipher.getInstance(CBC_PKCS5_PADDING);
-            IvParameterSpec zeroIv = new IvParameterSpec(ZERO_IV);
-            cipher.init(Cipher.DECRYPT_MODE, strKey2SecretKey(mAESSecret), zeroIv);
-            return new String(cipher.doFinal(Base64Coder.decode(content)), CHARSET_NAME);
+            byte[] decrypted = SACipherEngine.getInstance().decrypt(SymmetricEncryptMode.AES, mAESKey, ZERO_IV, Base64Coder.decode(content));
+            return new String(decrypted, CHARSET_NAME);
         } catch (Exception e) {
             SALog.i(TAG, "decryptAES fail, msg: " + e);
         }
@@ -27,7 +27,6 @@ import java.nio.ByteBuffer;
 import java.security.Key;
 import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
 import java.security.interfaces.ECPublicKey;
 import java.security.spec.KeySpec;
 import java.security.spec.X509EncodedKeySpec;
@@ -35,8 +34,6 @@ import java.security.spec.X509EncodedKeySpec;
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
-import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
 
 /**
  * 加密工具类
@@ -129,15 +126,11 @@ class EncryptUtils {
             return null;
         }
         try {
-            SecureRandom random = new SecureRandom();
+            SACipherEngine cipherEngine = SACipherEngine.getInstance();
             // 随机生成初始化向量
             byte[] ivBytes = new byte[16];
-            random.nextBytes(ivBytes);
-            SecretKeySpec secretKeySpec = new SecretKeySpec(key, mode.algorithm);
-            Cipher cipher = Cipher.getInstance(mode.transformation);
-            cipher.init(Cipher.ENCRYPT_MODE, secretKeySpec, new IvParameterSpec(ivBytes));
-
-            byte[] encryptedBytes = cipher.doFinal(contentBytes);
+            cipherEngine.nextBytes(ivBytes);
+            byte[] encryptedBytes = cipherEngine.encrypt(mode, key, ivBytes, contentBytes);
             ByteBuffer byteBuffer = ByteBuffer.allocate(ivBytes.length + encryptedBytes.length);
             byteBuffer.put(ivBytes);
             byteBuffer.put(encryptedBytes);
@@ -0,0 +1,199 @@
+/*
+ * Created by dengshiwei on 2022/08/04.
+ * Copyright 2015－2022 Sensors Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sensorsdata.analytics.android.sdk.encrypt;
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * 对称加解密引擎：每个线程缓存已初始化的 Cipher 和 SecureRandom，
+ * 密钥和 IV 与上次相同时直接复用 Cipher，不再重复查找 Provider 和初始化，并统计加解密次数和耗时
+ */
+public class SACipherEngine {
+    private final ThreadLocal<CipherHolder[]> mCiphers = new ThreadLocal<CipherHolder[]>() {
+        @Override
+        protected CipherHolder[] initialValue() {
+            return new CipherHolder[SymmetricEncryptMode.values().length * 2];
+        }
+    };
+    private final ThreadLocal<SecureRandom> mRandom = new ThreadLocal<SecureRandom>() {
+        @Override
+        protected SecureRandom initialValue() {
+            return new SecureRandom();
+        }
+    };
+    private final AtomicLong mEncryptCount = new AtomicLong();
+    private final AtomicLong mEncryptTime = new AtomicLong();
+    private final AtomicLong mDecryptCount = new AtomicLong();
+    private final AtomicLong mDecryptTime = new AtomicLong();
+
+    private SACipherEngine() {
+    }
+
+    private static class SingletonHolder {
+        private static final SACipherEngine INSTANCE = new SACipherEngine();
+    }
+
+    public static SACipherEngine getInstance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /**
+     * 加密
+     *
+     * @param mode 对称加密类型
+     * @param key 密钥
+     * @param iv 初始化向量
+     * @param content 明文
+     * @return 密文
+     * @throws GeneralSecurityException 加密失败
+     */
+    byte[] encrypt(SymmetricEncryptMode mode, byte[] key, byte[] iv, byte[] content) throws GeneralSecurityException {
+        long start = System.nanoTime();
+        try {
+            return doFinal(mode, Cipher.ENCRYPT_MODE, key, iv, content);
+        } finally {
+            mEncryptCount.incrementAndGet();
+            mEncryptTime.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 解密
+     *
+     * @param mode 对称加密类型
+     * @param key 密钥
+     * @param iv 初始化向量
+     * @param content 密文
+     * @return 明文
+     * @throws GeneralSecurityException 解密失败
+     */
+    byte[] decrypt(SymmetricEncryptMode mode, byte[] key, byte[] iv, byte[] content) throws GeneralSecurityException {
+        long start = System.nanoTime();
+        try {
+            return doFinal(mode, Cipher.DECRYPT_MODE, key, iv, content);
+        } finally {
+            mDecryptCount.incrementAndGet();
+            mDecryptTime.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 使用当前线程的 SecureRandom 生成随机数据，用于生成初始化向量
+     *
+     * @param bytes 待填充的数组
+     */
+    void nextBytes(byte[] bytes) {
+        mRandom.get().nextBytes(bytes);
+    }
+
+    /**
+     * 获取加密次数
+     *
+     * @return 加密次数
+     */
+    public long getEncryptCount() {
+        return mEncryptCount.get();
+    }
+
+    /**
+     * 获取加密总耗时
+     *
+     * @return 耗时，单位纳秒
+     */
+    public long getEncryptTime() {
+        return mEncryptTime.get();
+    }
+
+    /**
+     * 获取解密次数
+     *
+     * @return 解密次数
+     */
+    public long getDecryptCount() {
+        return mDecryptCount.get();
+    }
+
+    /**
+     * 获取解密总耗时
+     *
+     * @return 耗时，单位纳秒
+     */
+    public long getDecryptTime() {
+        return mDecryptTime.get();
+    }
+
+    /**
+     * 重置统计数据
+     */
+    public void resetStatistics() {
+        mEncryptCount.set(0);
+        mEncryptTime.set(0);
+        mDecryptCount.set(0);
+        mDecryptTime.set(0);
+    }
+
+    private byte[] doFinal(SymmetricEncryptMode mode, int opMode, byte[] key, byte[] iv, byte[] content) throws GeneralSecurityException {
+        CipherHolder[] holders = mCiphers.get();
+        int index = mode.ordinal() * 2 + (opMode == Cipher.ENCRYPT_MODE ? 0 : 1);
+        CipherHolder holder = holders[index];
+        if (holder == null) {
+            holder = new CipherHolder(Cipher.getInstance(mode.transformation));
+            holders[index] = holder;
+        }
+        if (!Arrays.equals(holder.key, key)) {
+            holder.key = key.clone();
+            holder.keySpec = new SecretKeySpec(key, mode.algorithm);
+            holder.iv = null;
+        }
+        // doFinal 后 Cipher 恢复到 init 后的状态，密钥和 IV 不变时无需重新初始化
+        if (!Arrays.equals(holder.iv, iv)) {
+            holder.iv = null;
+            holder.cipher.init(opMode, holder.keySpec, new IvParameterSpec(iv));
+            holder.iv = iv.clone();
+        }
+        boolean success = false;
+        try {
+            byte[] result = holder.cipher.doFinal(content);
+            success = true;
+            return result;
+        } finally {
+            // 异常后 Cipher 状态不确定，下次使用时重新初始化
+            if (!success) {
+                holder.iv = null;
+            }
+        }
+    }
+
+    private static class CipherHolder {
+        final Cipher cipher;
+        byte[] key;
+        SecretKeySpec keySpec;
+        byte[] iv;
+
+        CipherHolder(Cipher cipher) {
+            this.cipher = cipher;
+        }
+    }
+}
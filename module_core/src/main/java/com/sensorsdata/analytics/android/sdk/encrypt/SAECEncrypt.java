@@ -26,7 +26,7 @@ import java.security.Security;
 /**
  * EC+AES 加密
  */
-class SAECEncrypt implements SAEncryptListener {
+class SAECEncrypt implements SAEncryptListener, SessionKeyListener {
     /**
      * 对称密钥
      */
@@ -74,4 +74,10 @@ class SAECEncrypt implements SAEncryptListener {
         }
         return mEncryptKey;
     }
+
+    @Override
+    public void resetSessionKey() {
+        aesKey = null;
+        mEncryptKey = null;
+    }
 }
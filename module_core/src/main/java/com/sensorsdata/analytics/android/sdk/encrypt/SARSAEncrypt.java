@@ -24,7 +24,7 @@ import java.security.NoSuchAlgorithmException;
 /**
  * RSA + AES 加密
  */
-class SARSAEncrypt implements SAEncryptListener {
+class SARSAEncrypt implements SAEncryptListener, SessionKeyListener {
     /**
      * 对称密钥
      */
@@ -63,4 +63,10 @@ class SARSAEncrypt implements SAEncryptListener {
         }
         return mEncryptKey;
     }
+
+    @Override
+    public void resetSessionKey() {
+        aesKey = null;
+        mEncryptKey = null;
+    }
 }
@@ -0,0 +1,180 @@
+/*
+ * Created by dengshiwei on 2022/08/05.
+ * Copyright 2015－2022 Sensors Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sensorsdata.analytics.android.sdk.encrypt;
+
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import com.sensorsdata.analytics.android.sdk.SALog;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 会话密钥管理：同一公钥版本下只用公钥加密一次对称密钥，并在公钥变化、使用时间或加密条数达到上限时更换对称密钥
+ */
+public class SASessionKeyManager {
+    private static final String TAG = "SA.SessionKeyManager";
+    /**
+     * 会话密钥的最长使用时间，单位毫秒
+     */
+    static final long MAX_SESSION_DURATION = 60 * 60 * 1000L;
+    /**
+     * 会话密钥最多加密的事件条数
+     */
+    static final int MAX_SESSION_EVENTS = 10000;
+    private final long mMaxDuration;
+    private final int mMaxEvents;
+    private SAEncryptListener mListener;
+    private String mPublicKey;
+    private int mVersion;
+    private String mEncryptedKey;
+    private long mCreateTime;
+    private int mEventCount;
+    private final AtomicLong mRotationCount = new AtomicLong();
+    private final AtomicLong mKeyRotationCount = new AtomicLong();
+    private final AtomicLong mTimeRotationCount = new AtomicLong();
+    private final AtomicLong mEventRotationCount = new AtomicLong();
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mWrapTime = new AtomicLong();
+
+    SASessionKeyManager() {
+        this(MAX_SESSION_DURATION, MAX_SESSION_EVENTS);
+    }
+
+    SASessionKeyManager(long maxDuration, int maxEvents) {
+        this.mMaxDuration = maxDuration;
+        this.mMaxEvents = maxEvents;
+    }
+
+    /**
+     * 获取公钥加密后的对称密钥，需要更换时重新生成。
+     * 调用方需要在同步块内完成获取密钥和 encryptEvent，避免其它线程在此期间更换对称密钥
+     *
+     * @param listener 加密插件
+     * @param publicKey 公钥
+     * @param version 公钥版本
+     * @param eventCount 本次加密的事件条数
+     * @return 加密后的对称密钥，加密失败时返回 null
+     */
+    synchronized String getEncryptedKey(SAEncryptListener listener, String publicKey, int version, int eventCount) {
+        long now = SystemClock.elapsedRealtime();
+        AtomicLong reason = null;
+        if (mEncryptedKey != null) {
+            if (listener != mListener || version != mVersion || !publicKey.equals(mPublicKey)) {
+                reason = mKeyRotationCount;
+            } else if (now - mCreateTime >= mMaxDuration) {
+                reason = mTimeRotationCount;
+            } else if (mEventCount > 0 && mEventCount + eventCount > mMaxEvents) {
+                reason = mEventRotationCount;
+            } else {
+                mEventCount += eventCount;
+                mHitCount.incrementAndGet();
+                return mEncryptedKey;
+            }
+        }
+
+        mEncryptedKey = null;
+        if (listener instanceof SessionKeyListener) {
+            ((SessionKeyListener) listener).resetSessionKey();
+        }
+        long start = System.nanoTime();
+        String encryptedKey = listener.encryptSymmetricKeyWithPublicKey(publicKey);
+        mWrapTime.addAndGet(System.nanoTime() - start);
+        if (TextUtils.isEmpty(encryptedKey)) {
+            return null;
+        }
+        mListener = listener;
+        mPublicKey = publicKey;
+        mVersion = version;
+        mEncryptedKey = encryptedKey;
+        mCreateTime = now;
+        mEventCount = eventCount;
+        mRotationCount.incrementAndGet();
+        if (reason != null) {
+            reason.incrementAndGet();
+        }
+        SALog.i(TAG, "session key created, version = " + version + ", rotations = " + mRotationCount.get());
+        return encryptedKey;
+    }
+
+    /**
+     * 获取生成会话密钥的次数，包括首次生成
+     *
+     * @return 生成次数
+     */
+    public long getRotationCount() {
+        return mRotationCount.get();
+    }
+
+    /**
+     * 获取因公钥或加密插件变化而更换会话密钥的次数
+     *
+     * @return 更换次数
+     */
+    public long getKeyRotationCount() {
+        return mKeyRotationCount.get();
+    }
+
+    /**
+     * 获取因使用时间达到上限而更换会话密钥的次数
+     *
+     * @return 更换次数
+     */
+    public long getTimeRotationCount() {
+        return mTimeRotationCount.get();
+    }
+
+    /**
+     * 获取因加密条数达到上限而更换会话密钥的次数
+     *
+     * @return 更换次数
+     */
+    public long getEventRotationCount() {
+        return mEventRotationCount.get();
+    }
+
+    /**
+     * 获取直接使用缓存会话密钥的次数
+     *
+     * @return 命中次数
+     */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * 获取公钥加密对称密钥的总耗时
+     *
+     * @return 耗时，单位纳秒
+     */
+    public long getWrapTime() {
+        return mWrapTime.get();
+    }
+
+    /**
+     * 重置统计数据
+     */
+    public void resetStatistics() {
+        mRotationCount.set(0);
+        mKeyRotationCount.set(0);
+        mTimeRotationCount.set(0);
+        mEventRotationCount.set(0);
+        mHitCount.set(0);
+        mWrapTime.set(0);
+    }
+}
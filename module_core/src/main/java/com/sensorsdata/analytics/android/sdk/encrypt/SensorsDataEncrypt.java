@@ -25,6 +25,7 @@ import com.sensorsdata.analytics.android.sdk.SALog;
 import com.sensorsdata.analytics.android.sdk.plugin.encrypt.SAStoreManager;
 import com.sensorsdata.analytics.android.sdk.util.SADisplayUtil;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -42,6 +43,7 @@ public class SensorsDataEncrypt {
     private IPersistentSecretKey mPersistentSecretKey;
     private Context mContext;
     private SAEncryptListener mEncryptListener;
+    private final SASessionKeyManager mSessionKeyManager = new SASessionKeyManager();
 
 
     public SensorsDataEncrypt(Context context, IPersistentSecretKey persistentSecretKey, List<SAEncryptListener> listeners) {
@@ -77,46 +79,42 @@ public class SensorsDataEncrypt {
      */
     public JSONObject encryptTrackData(JSONObject jsonObject) {
         try {
-            if (isSecretKeyNull(mSecreteKey)) {
-                mSecreteKey = loadSecretKey();
-                if (isSecretKeyNull(mSecreteKey)) {
-                    return jsonObject;
-                }
-            }
-
-            if (!isMatchEncryptType(mEncryptListener, mSecreteKey)) {
-                mEncryptListener = getEncryptListener(mSecreteKey);
-            }
-
-            if (mEncryptListener == null) {
-                return jsonObject;
-            }
-
-            //获取公钥加密后的对称密钥
-            String publicKey = mSecreteKey.key;
-            if (publicKey.startsWith("EC:")) {
-                publicKey = publicKey.substring(publicKey.indexOf(":") + 1);
-            }
-
-            String encryptedKey = mEncryptListener.encryptSymmetricKeyWithPublicKey(publicKey);
-
-            if (TextUtils.isEmpty(encryptedKey)) {
-                return jsonObject;
+            JSONObject dataJson = encryptData(jsonObject.toString(), 1);
+            if (dataJson != null) {
+                return dataJson;
             }
+        } catch (Exception ex) {
+            SALog.printStackTrace(ex);
+        }
+        return jsonObject;
+    }
 
-            String encryptData = mEncryptListener.encryptEvent(gzipEventData(jsonObject.toString()));
-            if (TextUtils.isEmpty(encryptData)) {
-                return jsonObject;
+    /**
+     * 针对一批数据整体压缩、加密
+     *
+     * @param events 需要加密的数据
+     * @return 加密后的数据，payloads 中只有一条数据；密钥不可用或加密失败时返回 null
+     */
+    public JSONObject encryptTrackData(JSONArray events) {
+        try {
+            JSONObject dataJson = encryptData(events.toString(), events.length());
+            if (dataJson != null) {
+                dataJson.put("payloads", new JSONArray().put(dataJson.getString("payloads")));
+                return dataJson;
             }
-            JSONObject dataJson = new JSONObject();
-            dataJson.put("ekey", encryptedKey);
-            dataJson.put("pkv", mSecreteKey.version);
-            dataJson.put("payloads", encryptData);
-            return dataJson;
         } catch (Exception ex) {
             SALog.printStackTrace(ex);
         }
-        return jsonObject;
+        return null;
+    }
+
+    /**
+     * 获取会话密钥管理，可用于查看会话密钥的更换次数
+     *
+     * @return 会话密钥管理
+     */
+    public SASessionKeyManager getSessionKeyManager() {
+        return mSessionKeyManager;
     }
 
     /**
@@ -137,6 +135,10 @@ public class SensorsDataEncrypt {
                 } else {
                     SAStoreManager.getInstance().setString(SP_SECRET_KEY, secreteKey.toString());
                 }
+                // 下次加密时重新加载密钥，公钥变化时更换会话密钥
+                synchronized (mSessionKeyManager) {
+                    mSecreteKey = null;
+                }
             }
         } catch (Exception e) {
             SALog.printStackTrace(e);
@@ -217,6 +219,53 @@ public class SensorsDataEncrypt {
         }
     }
 
+    /**
+     * 压缩并加密数据，获取密钥和加密数据在同一个同步块内完成，避免其它线程在此期间更换会话密钥
+     *
+     * @param data 需要加密的数据
+     * @param eventCount 数据中的事件条数
+     * @return 包含 ekey、pkv、payloads 的数据，密钥或加密插件不可用时返回 null
+     * @throws JSONException 异常
+     */
+    private JSONObject encryptData(String data, int eventCount) throws JSONException {
+        synchronized (mSessionKeyManager) {
+            if (isSecretKeyNull(mSecreteKey)) {
+                mSecreteKey = loadSecretKey();
+                if (isSecretKeyNull(mSecreteKey)) {
+                    return null;
+                }
+            }
+
+            if (!isMatchEncryptType(mEncryptListener, mSecreteKey)) {
+                mEncryptListener = getEncryptListener(mSecreteKey);
+            }
+
+            if (mEncryptListener == null) {
+                return null;
+            }
+
+            //获取公钥加密后的对称密钥
+            String publicKey = mSecreteKey.key;
+            if (publicKey.startsWith("EC:")) {
+                publicKey = publicKey.substring(publicKey.indexOf(":") + 1);
+            }
+            String encryptedKey = mSessionKeyManager.getEncryptedKey(mEncryptListener, publicKey, mSecreteKey.version, eventCount);
+            if (TextUtils.isEmpty(encryptedKey)) {
+                return null;
+            }
+
+            String encryptData = mEncryptListener.encryptEvent(gzipEventData(data));
+            if (TextUtils.isEmpty(encryptData)) {
+                return null;
+            }
+            JSONObject dataJson = new JSONObject();
+            dataJson.put("ekey", encryptedKey);
+            dataJson.put("pkv", mSecreteKey.version);
+            dataJson.put("payloads", encryptData);
+            return dataJson;
+        }
+    }
+
     /**
      * 压缩事件
      *
@@ -0,0 +1,28 @@
+/*
+ * Created by dengshiwei on 2022/08/05.
+ * Copyright 2015－2022 Sensors Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sensorsdata.analytics.android.sdk.encrypt;
+
+/**
+ * 由会话密钥管理器控制对称密钥生成的加密插件
+ */
+interface SessionKeyListener {
+    /**
+     * 丢弃当前的对称密钥，下次调用 encryptSymmetricKeyWithPublicKey 时重新生成
+     */
+    void resetSessionKey();
+}
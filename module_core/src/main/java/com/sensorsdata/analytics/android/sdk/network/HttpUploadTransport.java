@@ -0,0 +1,132 @@
+/*
+ * Created by dengshiwei on 2022/07/20.
+ * Copyright 2015－2022 Sensors Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sensorsdata.analytics.android.sdk.network;
+
+import android.text.TextUtils;
+
+import com.sensorsdata.analytics.android.sdk.SAConfigOptions;
+import com.sensorsdata.analytics.android.sdk.SALog;
+import com.sensorsdata.analytics.android.sdk.SensorsDataAPI;
+import com.sensorsdata.analytics.android.sdk.util.NetworkUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+import javax.net.ssl.HttpsURLConnection;
+
+import static com.sensorsdata.analytics.android.sdk.util.Base64Coder.CHARSET_UTF8;
+
+/**
+ * 基于 HttpURLConnection 的默认上报传输层。
+ * 请求完成后读完并关闭响应流，不调用 disconnect，连接由系统连接池保持，后续请求复用已建立的 TCP 和 TLS 连接
+ */
+public class HttpUploadTransport implements UploadTransport {
+    private static final String TAG = "SA.HttpUploadTransport";
+    private static final int TIMEOUT = 30 * 1000;
+
+    @Override
+    public UploadResponse post(String url, Map<String, String> headers, UploadBody body) throws IOException {
+        HttpURLConnection connection = null;
+        boolean reusable = false;
+        try {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            SAConfigOptions configOptions = SensorsDataAPI.getConfigOptions();
+            if (configOptions != null && configOptions.mSSLSocketFactory != null
+                    && connection instanceof HttpsURLConnection) {
+                ((HttpsURLConnection) connection).setSSLSocketFactory(configOptions.mSSLSocketFactory);
+            }
+            connection.setInstanceFollowRedirects(false);
+            connection.setUseCaches(false);
+            connection.setRequestProperty("Connection", "keep-alive");
+            if (headers != null) {
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    connection.setRequestProperty(header.getKey(), header.getValue());
+                }
+            }
+            if (!TextUtils.isEmpty(body.contentType())) {
+                connection.setRequestProperty("Content-Type", body.contentType());
+            }
+            long contentLength = body.contentLength();
+            if (contentLength >= 0) {
+                connection.setFixedLengthStreamingMode((int) contentLength);
+            } else {
+                connection.setChunkedStreamingMode(0);
+            }
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setConnectTimeout(TIMEOUT);
+            connection.setReadTimeout(TIMEOUT);
+
+            OutputStream out = new BufferedOutputStream(connection.getOutputStream());
+            try {
+                body.writeTo(out);
+                out.flush();
+            } finally {
+                out.close();
+            }
+
+            int responseCode = connection.getResponseCode();
+            String location = null;
+            if (NetworkUtils.needRedirects(responseCode)) {
+                location = NetworkUtils.getLocation(connection, url);
+            }
+            InputStream in;
+            try {
+                in = connection.getInputStream();
+            } catch (FileNotFoundException e) {
+                in = connection.getErrorStream();
+            }
+            String response = readFully(in);
+            reusable = true;
+            return new UploadResponse(responseCode, response, location);
+        } finally {
+            // 仅在异常时断开连接，正常读完响应的连接会被放回连接池
+            if (!reusable && connection != null) {
+                try {
+                    connection.disconnect();
+                } catch (Exception e) {
+                    SALog.i(TAG, e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        if (in == null) {
+            return "";
+        }
+        try {
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] data = new byte[8192];
+            int nRead;
+            while ((nRead = in.read(data, 0, data.length)) != -1) {
+                buffer.write(data, 0, nRead);
+            }
+            return new String(buffer.toByteArray(), CHARSET_UTF8);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Created by dengshiwei on 2022/07/20.
+ * Copyright 2015－2022 Sensors Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sensorsdata.analytics.android.sdk.network;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 上报请求的请求体
+ */
+public abstract class UploadBody {
+
+    /**
+     * 请求体的 Content-Type
+     *
+     * @return Content-Type
+     */
+    public abstract String contentType();
+
+    /**
+     * 请求体的长度，未知时返回 -1，此时使用分块传输
+     *
+     * @return 长度
+     */
+    public abstract long contentLength();
+
+    /**
+     * 写入请求体
+     *
+     * @param out 输出流
+     * @throws IOException 写入异常
+     */
+    public abstract void writeTo(OutputStream out) throws IOException;
+
+    /**
+     * 创建固定内容的请求体
+     *
+     * @param contentType Content-Type
+     * @param content 内容
+     * @return UploadBody
+     */
+    public static UploadBody create(final String contentType, final byte[] content) {
+        return new UploadBody() {
+            @Override
+            public String contentType() {
+                return contentType;
+            }
+
+            @Override
+            public long contentLength() {
+                return content.length;
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write(content);
+            }
+        };
+    }
+}
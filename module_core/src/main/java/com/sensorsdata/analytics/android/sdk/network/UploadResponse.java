@@ -0,0 +1,42 @@
+/*
+ * Created by dengshiwei on 2022/07/20.
+ * Copyright 2015－2022 Sensors Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sensorsdata.analytics.android.sdk.network;
+
+/**
+ * 上报请求的响应信息
+ */
+public class UploadResponse {
+    /**
+     * 响应码
+     */
+    public final int code;
+    /**
+     * 响应内容
+     */
+    public final String body;
+    /**
+     * 重定向地址，响应码为 301、302、307 时有效
+     */
+    public final String location;
+
+    public UploadResponse(int code, String body, String location) {
+        this.code = code;
+        this.body = body;
+        this.location = location;
+    }
+}
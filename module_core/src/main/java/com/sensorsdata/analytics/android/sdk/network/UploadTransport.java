@@ -0,0 +1,39 @@
+/*
+ * Created by dengshiwei on 2022/07/20.
+ * Copyright 2015－2022 Sensors Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sensorsdata.analytics.android.sdk.network;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * 事件上报的传输层，可通过 SAConfigOptions.setFlushTransport 替换为自定义的 HTTP 客户端（如支持 HTTP/2 的客户端）。
+ * 实现需要保证线程安全，并发上报时会在多个线程中同时调用；实现不应自动跟随重定向，由 SDK 处理重定向并缓存重定向后的地址
+ */
+public interface UploadTransport {
+
+    /**
+     * 发送 POST 请求
+     *
+     * @param url 请求地址
+     * @param headers 请求头
+     * @param body 请求体
+     * @return 响应信息
+     * @throws IOException 网络异常
+     */
+    UploadResponse post(String url, Map<String, String> headers, UploadBody body) throws IOException;
+}
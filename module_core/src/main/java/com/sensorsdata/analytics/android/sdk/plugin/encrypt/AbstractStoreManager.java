@@ -20,15 +20,19 @@ package com.sensorsdata.analytics.android.sdk.plugin.encrypt;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.text.TextUtils;
 import android.util.LruCache;
 
 import com.sensorsdata.analytics.android.sdk.SALog;
+import com.sensorsdata.analytics.android.sdk.ThreadNameConstants;
 import com.sensorsdata.analytics.android.sdk.util.SASpUtils;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -48,12 +52,48 @@ public abstract class AbstractStoreManager {
     private final Lock mLock;
     protected boolean mDefaultState = true;
     private static final String TAG = "SA.AbstractStoreManager";
+    /* 待写入数据中表示删除的占位值 */
+    private static final Object REMOVED = new Object();
+    /* 开启延迟写入后尚未写入插件的数据，读取时优先于插件 */
+    private final Map<String, Object> mPendingValues;
+    private final Runnable mCommitTask = new Runnable() {
+        @Override
+        public void run() {
+            flush(false);
+        }
+    };
+    private Handler mCommitHandler;
+    private long mCommitDelay;
+    private boolean mCommitScheduled;
 
     protected AbstractStoreManager() {
         mStorePluginList = new ArrayList<>();
         mLruCacheSPData = new LruCacheData(10);
         mLock = new ReentrantLock(true);
         mStoreTypes = new HashSet<>();
+        mPendingValues = new LinkedHashMap<>();
+    }
+
+    /**
+     * 开启延迟写入，set 和 remove 只更新内存，修改的数据在 delay 毫秒后合并写入插件，
+     * 进入后台和 Crash 时通过 flush 立即写入。未调用时每次修改都直接写入插件
+     *
+     * @param delay 延迟写入的时间，单位毫秒
+     */
+    protected void enableWriteBehind(long delay) {
+        mLock.lock();
+        try {
+            if (mCommitHandler == null) {
+                HandlerThread handlerThread = new HandlerThread(ThreadNameConstants.THREAD_STORE_COMMIT);
+                handlerThread.start();
+                mCommitHandler = new Handler(handlerThread.getLooper());
+            }
+            mCommitDelay = delay;
+        } catch (Exception e) {
+            SALog.printStackTrace(e);
+        } finally {
+            mLock.unlock();
+        }
     }
 
     /**
@@ -85,101 +125,32 @@ public abstract class AbstractStoreManager {
     }
 
     public void setString(final String key, final String value) {
-        mLock.lock();
-        try {
-            if (mDefaultState) {//默认处理方式
-                storeKeys(key, value, "String");
-                return;
-            }
-            // value 为 null 时，无法加密，此时应该是移除数据
-            if (value == null) {
-                for (StorePlugin plugin : mStorePluginList) {
-                    plugin.remove(plugin.type() + key);
-                }
-                mLruCacheSPData.remove(key);
-            } else {
-                removeUselessValue(key);
-                mMaxPriorityPlugin.setString(mMaxPluginType + key, value);
-                mLruCacheSPData.put(key, value);
-            }
-        } catch (Exception e) {
-            SALog.i(TAG, "save data failed,key = " + key + "value = " + value, e);
-        } finally {
-            mLock.unlock();
-        }
+        // value 为 null 时，无法加密，此时应该是移除数据
+        setValue(key, value == null ? REMOVED : value);
     }
 
     public void setBool(final String key, final boolean value) {
-        mLock.lock();
-        try {
-            if (mDefaultState) {//默认处理方式
-                storeKeys(key, value, "Bool");
-                return;
-            }
-            removeUselessValue(key);
-            mMaxPriorityPlugin.setBool(mMaxPluginType + key, value);
-            mLruCacheSPData.put(key, value);
-        } catch (Exception e) {
-            SALog.i(TAG, "save data failed,key = " + key + "value = " + value, e);
-        } finally {
-            mLock.unlock();
-        }
+        setValue(key, value);
     }
 
     public void setInteger(final String key, final int value) {
-        mLock.lock();
-        try {
-            if (mDefaultState) {//默认处理方式
-                storeKeys(key, value, "Integer");
-                return;
-            }
-            removeUselessValue(key);
-            mMaxPriorityPlugin.setInteger(mMaxPluginType + key, value);
-            mLruCacheSPData.put(key, value);
-        } catch (Exception e) {
-            SALog.i(TAG, "save data failed,key = " + key + "value = " + value, e);
-        } finally {
-            mLock.unlock();
-        }
+        setValue(key, value);
     }
 
     public void setFloat(final String key, final float value) {
-        mLock.lock();
-        try {
-            if (mDefaultState) {//默认处理方式
-                storeKeys(key, value, "Float");
-                return;
-            }
-            removeUselessValue(key);
-            mMaxPriorityPlugin.setFloat(mMaxPluginType + key, value);
-            mLruCacheSPData.put(key, value);
-        } catch (Exception e) {
-            SALog.i(TAG, "save data failed,key = " + key + "value = " + value, e);
-        } finally {
-            mLock.unlock();
-        }
+        setValue(key, value);
     }
 
     public void setLong(final String key, final long value) {
-        mLock.lock();
-        try {
-            if (mDefaultState) {//默认处理方式
-                storeKeys(key, value, "Long");
-                return;
-            }
-            removeUselessValue(key);
-            mMaxPriorityPlugin.setLong(mMaxPluginType + key, value);
-            mLruCacheSPData.put(key, value);
-        } catch (Exception e) {
-            SALog.i(TAG, "save data failed,key = " + key + "value = " + value, e);
-        } finally {
-            mLock.unlock();
-        }
+        setValue(key, value);
     }
 
     public String getString(final String key, final String defaultValue) {
         mLock.lock();
         try {
+            if (mPendingValues.containsKey(key)) {
+                return getPendingValue(key, defaultValue);
+            }
             String value = (String) mLruCacheSPData.get(key);
             if (value != null) {
                 return value;
@@ -211,6 +182,9 @@ public abstract class AbstractStoreManager {
     public boolean getBool(final String key, final boolean defaultValue) {
         mLock.lock();
         try {
+            if (mPendingValues.containsKey(key)) {
+                return getPendingValue(key, defaultValue);
+            }
             Boolean value = (Boolean) mLruCacheSPData.get(key);
             if (value != null) {
                 return value;
@@ -241,6 +215,9 @@ public abstract class AbstractStoreManager {
     public int getInteger(final String key, final int defaultValue) {
         mLock.lock();
         try {
+            if (mPendingValues.containsKey(key)) {
+                return getPendingValue(key, defaultValue);
+            }
             Integer value = (Integer) mLruCacheSPData.get(key);
             if (value != null) {
                 return value;
@@ -271,6 +248,9 @@ public abstract class AbstractStoreManager {
     public float getFloat(final String key, final float defaultValue) {
         mLock.lock();
         try {
+            if (mPendingValues.containsKey(key)) {
+                return getPendingValue(key, defaultValue);
+            }
             Float value = (Float) mLruCacheSPData.get(key);
             if (value != null) {
                 return value;
@@ -302,6 +282,9 @@ public abstract class AbstractStoreManager {
     public Long getLong(final String key, final long defaultValue) {
         mLock.lock();
         try {
+            if (mPendingValues.containsKey(key)) {
+                return getPendingValue(key, defaultValue);
+            }
             Long value = (Long) mLruCacheSPData.get(key);
             if (value != null) {
                 return value;
@@ -332,22 +315,11 @@ public abstract class AbstractStoreManager {
     public void remove(final String key) {
         mLock.lock();
         try {
-            if (mDefaultState) {
-                StorePlugin tempPlugin = mMaxPriorityPlugin;
-                for (StorePlugin plugin : mStorePluginList) {
-                    if (plugin instanceof DefaultStorePlugin && ((DefaultStorePlugin) plugin).storeKeys() != null
-                            && ((DefaultStorePlugin) plugin).storeKeys().contains(key)) {
-                        tempPlugin = plugin;
-                        break;
-                    }
-                }
-                tempPlugin.remove(tempPlugin.type() + key);
+            if (mCommitHandler != null) {
+                deferValue(key, REMOVED);
             } else {
-                for (StorePlugin plugin : mStorePluginList) {
-                    plugin.remove(plugin.type() + key);
-                }
+                writeValue(key, REMOVED);
             }
-            mLruCacheSPData.remove(key);
         } catch (Exception e) {
             SALog.i(TAG, "remove failed,key = " + key, e);
         } finally {
@@ -355,9 +327,45 @@ public abstract class AbstractStoreManager {
         }
     }
 
+    /**
+     * 将延迟写入的数据写入存储插件，每个插件的修改合并为一次提交
+     *
+     * @param sync true 同步写入磁盘，用于 Crash 等进程即将退出的场景；false 异步写入
+     */
+    public void flush(boolean sync) {
+        mLock.lock();
+        try {
+            if (mCommitHandler != null) {
+                mCommitHandler.removeCallbacks(mCommitTask);
+            }
+            mCommitScheduled = false;
+            if (mPendingValues.isEmpty()) {
+                return;
+            }
+            beginBatch();
+            try {
+                for (Map.Entry<String, Object> entry : mPendingValues.entrySet()) {
+                    try {
+                        writeValue(entry.getKey(), entry.getValue());
+                    } catch (Exception e) {
+                        SALog.i(TAG, "save data failed,key = " + entry.getKey(), e);
+                    }
+                }
+            } finally {
+                mPendingValues.clear();
+                endBatch(sync);
+            }
+        } catch (Exception e) {
+            SALog.i(TAG, "flush failed", e);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
     public void upgrade() {
         mLock.lock();
         try {
+            flush(false);
             int size = mStorePluginList.size();
             for (int i = size - 1; i >= 0; i--) {
                 StorePlugin storePlugin = mStorePluginList.get(i);
@@ -383,6 +391,9 @@ public abstract class AbstractStoreManager {
             if (TextUtils.isEmpty(key)) {
                 return false;
             }
+            if (mPendingValues.containsKey(key)) {
+                return mPendingValues.get(key) != REMOVED;
+            }
             for (StorePlugin plugin : mStorePluginList) {
                 if (plugin.isExists(plugin.type() + key)) {
                     return true;
@@ -422,44 +433,112 @@ public abstract class AbstractStoreManager {
         }
     }
 
-    private void storeKeys(String key, Object value, String type) {
-        StorePlugin tempPlugin = mMaxPriorityPlugin;
+    private void setValue(String key, Object value) {
+        mLock.lock();
+        try {
+            if (mCommitHandler != null) {
+                deferValue(key, value);
+            } else {
+                writeValue(key, value);
+            }
+        } catch (Exception e) {
+            SALog.i(TAG, "save data failed,key = " + key + "value = " + value, e);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * 只记录修改，由 mCommitTask 或 flush 合并写入
+     */
+    private void deferValue(String key, Object value) {
+        mPendingValues.put(key, value);
+        if (!mCommitScheduled) {
+            mCommitScheduled = true;
+            mCommitHandler.postDelayed(mCommitTask, mCommitDelay);
+        }
+    }
+
+    private void writeValue(String key, Object value) {
+        if (mDefaultState) {//默认处理方式
+            StorePlugin tempPlugin = findStorePlugin(key);
+            if (value == REMOVED) {
+                tempPlugin.remove(tempPlugin.type() + key);
+            } else {
+                setPluginValue(tempPlugin, key, value);
+            }
+            mLruCacheSPData.remove(key);
+            return;
+        }
+        if (value == REMOVED) {
+            for (StorePlugin plugin : mStorePluginList) {
+                plugin.remove(plugin.type() + key);
+            }
+            mLruCacheSPData.remove(key);
+        } else {
+            removeUselessValue(key);
+            setPluginValue(mMaxPriorityPlugin, key, value);
+            mLruCacheSPData.put(key, value);
+        }
+    }
+
+    private void setPluginValue(StorePlugin plugin, String key, Object value) {
+        String pluginKey = plugin.type() + key;
+        if (value instanceof String) {
+            plugin.setString(pluginKey, (String) value);
+        } else if (value instanceof Boolean) {
+            plugin.setBool(pluginKey, (Boolean) value);
+        } else if (value instanceof Integer) {
+            plugin.setInteger(pluginKey, (Integer) value);
+        } else if (value instanceof Float) {
+            plugin.setFloat(pluginKey, (Float) value);
+        } else if (value instanceof Long) {
+            plugin.setLong(pluginKey, (Long) value);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T getPendingValue(String key, T defaultValue) {
+        Object value = mPendingValues.get(key);
+        return value == REMOVED ? defaultValue : (T) value;
+    }
+
+    /**
+     * 默认处理方式下，查找指定 key 所在的插件，默认为 sensorsdata 插件
+     */
+    private StorePlugin findStorePlugin(String key) {
         for (StorePlugin plugin : mStorePluginList) {
             if (plugin instanceof DefaultStorePlugin && ((DefaultStorePlugin) plugin).storeKeys() != null
                     && ((DefaultStorePlugin) plugin).storeKeys().contains(key)) {
-                tempPlugin = plugin;
-                break;
+                return plugin;
             }
         }
-        switch (type) {
-            case "String":
-                tempPlugin.setString(tempPlugin.type() + key, (String) value);
-                break;
-            case "Integer":
-                tempPlugin.setInteger(tempPlugin.type() + key, (Integer) value);
-                break;
-            case "Float":
-                tempPlugin.setFloat(tempPlugin.type() + key, (Float) value);
-                break;
-            case "Long":
-                tempPlugin.setLong(tempPlugin.type() + key, (Long) value);
-                break;
-            case "Bool":
-                tempPlugin.setBool(tempPlugin.type() + key, (Boolean) value);
-                break;
+        return mMaxPriorityPlugin;
+    }
+
+    private void beginBatch() {
+        for (StorePlugin plugin : mStorePluginList) {
+            if (plugin instanceof BatchStorePlugin) {
+                ((BatchStorePlugin) plugin).beginBatch();
+            }
         }
     }
 
-    private <T> T getValue(String key, String type, T defaultValue) {
-        //默认为 sensorsdata 插件
-        StorePlugin tempPlugin = mMaxPriorityPlugin;
+    private void endBatch(boolean sync) {
         for (StorePlugin plugin : mStorePluginList) {
-            if (plugin instanceof DefaultStorePlugin && ((DefaultStorePlugin) plugin).storeKeys() != null
-                    && ((DefaultStorePlugin) plugin).storeKeys().contains(key)) {
-                tempPlugin = plugin;
-                break;
+            if (plugin instanceof BatchStorePlugin) {
+                try {
+                    ((BatchStorePlugin) plugin).endBatch(sync);
+                } catch (Exception e) {
+                    SALog.i(TAG, "commit failed,type = " + plugin.type(), e);
+                }
             }
         }
+    }
+
+    private <T> T getValue(String key, String type, T defaultValue) {
+        //默认为 sensorsdata 插件
+        StorePlugin tempPlugin = findStorePlugin(key);
         Object value = null;
         switch (type) {
             case "String":
@@ -0,0 +1,36 @@
+/*
+ * Created by dengshiwei on 2022/08/02.
+ * Copyright 2015－2022 Sensors Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sensorsdata.analytics.android.sdk.plugin.encrypt;
+
+/**
+ * 支持批量写入的存储插件，beginBatch 和 endBatch 之间的修改合并为一次 Editor 提交
+ */
+interface BatchStorePlugin {
+
+    /**
+     * 开始批量写入
+     */
+    void beginBatch();
+
+    /**
+     * 结束批量写入并提交修改
+     *
+     * @param sync true 同步写入磁盘，false 异步写入
+     */
+    void endBatch(boolean sync);
+}
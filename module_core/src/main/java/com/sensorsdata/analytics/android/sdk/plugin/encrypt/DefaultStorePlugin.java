@@ -22,11 +22,14 @@ import android.content.SharedPreferences;
 
 import com.sensorsdata.analytics.android.sdk.util.SASpUtils;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
-public abstract class DefaultStorePlugin implements StorePlugin {
+public abstract class DefaultStorePlugin implements StorePlugin, BatchStorePlugin {
     private final SharedPreferences mStoreSp;
     private final String mFileName;
+    private SharedPreferences.Editor mBatchEditor;
 
     public DefaultStorePlugin(Context context, String fileName) {
         mStoreSp = SASpUtils.getSharedPreferences(context, fileName, Context.MODE_PRIVATE);
@@ -50,27 +53,27 @@ public abstract class DefaultStorePlugin implements StorePlugin {
 
     @Override
     public void setString(String key, String value) {
-        mStoreSp.edit().putString(getKey(key), value).apply();
+        apply(edit().putString(getKey(key), value));
     }
 
     @Override
     public void setBool(String key, boolean value) {
-        mStoreSp.edit().putBoolean(getKey(key), value).apply();
+        apply(edit().putBoolean(getKey(key), value));
     }
 
     @Override
     public void setInteger(String key, int value) {
-        mStoreSp.edit().putInt(getKey(key), value).apply();
+        apply(edit().putInt(getKey(key), value));
     }
 
     @Override
     public void setFloat(String key, float value) {
-        mStoreSp.edit().putFloat(getKey(key), value).apply();
+        apply(edit().putFloat(getKey(key), value));
     }
 
     @Override
     public void setLong(String key, long value) {
-        mStoreSp.edit().putLong(getKey(key), value).apply();
+        apply(edit().putLong(getKey(key), value));
     }
 
     @Override
@@ -115,7 +118,45 @@ public abstract class DefaultStorePlugin implements StorePlugin {
 
     @Override
     public void remove(String key) {
-        mStoreSp.edit().remove(getKey(key)).apply();
+        apply(edit().remove(getKey(key)));
+    }
+
+    @Override
+    public void beginBatch() {
+        if (mBatchEditor == null) {
+            mBatchEditor = mStoreSp.edit();
+        }
+    }
+
+    @Override
+    public void endBatch(boolean sync) {
+        SharedPreferences.Editor editor = mBatchEditor;
+        mBatchEditor = null;
+        if (editor == null) {
+            return;
+        }
+        if (sync) {
+            editor.commit();
+        } else {
+            editor.apply();
+        }
+    }
+
+    /**
+     * 导出数据，用于迁移到其它插件
+     *
+     * @return 不带插件类型前缀的 key 和字符串形式的 value
+     */
+    Map<String, String> exportValues() {
+        Map<String, String> values = new HashMap<>();
+        for (Map.Entry<String, ?> entry : mStoreSp.getAll().entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof String || value instanceof Boolean || value instanceof Integer
+                    || value instanceof Long || value instanceof Float) {
+                values.put(entry.getKey(), String.valueOf(value));
+            }
+        }
+        return values;
     }
 
     /**
@@ -124,6 +165,19 @@ public abstract class DefaultStorePlugin implements StorePlugin {
      */
     public abstract List<String> storeKeys();
 
+    private SharedPreferences.Editor edit() {
+        return mBatchEditor != null ? mBatchEditor : mStoreSp.edit();
+    }
+
+    /**
+     * 批量写入时由 endBatch 统一提交
+     */
+    private void apply(SharedPreferences.Editor editor) {
+        if (editor != mBatchEditor) {
+            editor.apply();
+        }
+    }
+
     private String getKey(String key) {
         return key.replaceFirst(type(), "");
     }
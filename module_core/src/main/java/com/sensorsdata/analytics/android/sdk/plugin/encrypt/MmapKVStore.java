@@ -0,0 +1,380 @@
+/*
+ * Created by dengshiwei on 2022/08/03.
+ * Copyright 2015－2022 Sensors Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sensorsdata.analytics.android.sdk.plugin.encrypt;
+
+import com.sensorsdata.analytics.android.sdk.SALog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 基于内存映射文件的 Key-Value 存储，数据以追加日志的方式写入：
+ * 文件头（magic、version、state、有效数据长度） + 记录（payload 长度、CRC32、payload）。
+ * 先写记录再更新文件头中的有效数据长度，读取时丢弃 CRC 校验失败的记录。
+ * 进程间通过 .lock 文件加锁，文件需要扩容且无效数据超过一半时整理为新文件，旧文件标记为失效，其它进程访问时重新打开
+ */
+class MmapKVStore {
+    private static final String TAG = "SA.MmapKVStore";
+    private static final int MAGIC = 0x53414B56;
+    private static final int VERSION = 1;
+    private static final int STATE_ACTIVE = 0;
+    private static final int STATE_STALE = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_STATE = 8;
+    private static final int OFFSET_USED = 12;
+    /* 记录头：payload 长度、CRC32 */
+    private static final int RECORD_HEADER_SIZE = 8;
+    /* payload：操作类型、key 长度、key、value */
+    private static final int PAYLOAD_HEADER_SIZE = 5;
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final int PAGE_SIZE = 4096;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Map<String, MmapKVStore> sInstances = new HashMap<>();
+
+    private final File mFile;
+    private final File mLockFile;
+    private final Map<String, String> mValues = new HashMap<>();
+    private FileChannel mLockChannel;
+    private RandomAccessFile mDataFile;
+    private MappedByteBuffer mBuffer;
+    /* 已加载的数据长度，不包含文件头 */
+    private int mLoadedLength;
+
+    /**
+     * 同一文件在进程内只打开一次，FileLock 不支持同一进程内重复加锁
+     *
+     * @param file 数据文件
+     * @return MmapKVStore
+     */
+    static MmapKVStore getInstance(File file) {
+        synchronized (sInstances) {
+            String path = file.getAbsolutePath();
+            MmapKVStore store = sInstances.get(path);
+            if (store == null) {
+                store = new MmapKVStore(file);
+                sInstances.put(path, store);
+            }
+            return store;
+        }
+    }
+
+    private MmapKVStore(File file) {
+        mFile = file;
+        mLockFile = new File(file.getPath() + ".lock");
+        try {
+            File parent = file.getParentFile();
+            if (parent != null && !parent.exists()) {
+                parent.mkdirs();
+            }
+            mLockChannel = new RandomAccessFile(mLockFile, "rw").getChannel();
+            FileLock lock = mLockChannel.lock();
+            try {
+                openDataFile();
+                loadLocked();
+            } finally {
+                lock.release();
+            }
+        } catch (Exception e) {
+            // 文件不可用时仅保存在内存中
+            SALog.printStackTrace(e);
+            closeDataFile();
+        }
+    }
+
+    synchronized String get(String key) {
+        syncIfChanged();
+        return mValues.get(key);
+    }
+
+    synchronized boolean contains(String key) {
+        syncIfChanged();
+        return mValues.containsKey(key);
+    }
+
+    synchronized void put(String key, String value) {
+        write(Collections.singletonMap(key, value));
+    }
+
+    synchronized void remove(String key) {
+        write(Collections.singletonMap(key, (String) null));
+    }
+
+    /**
+     * 批量写入，value 为 null 时删除对应的 key
+     *
+     * @param values 待写入的数据
+     */
+    synchronized void putAll(Map<String, String> values) {
+        if (values != null && !values.isEmpty()) {
+            write(values);
+        }
+    }
+
+    private void write(Map<String, String> values) {
+        if (mBuffer == null) {
+            applyValues(values);
+            return;
+        }
+        FileLock lock = null;
+        try {
+            lock = mLockChannel.lock();
+            syncLocked();
+            applyValues(values);
+            byte[] records = encodeRecords(values);
+            if (HEADER_SIZE + mLoadedLength + records.length > mBuffer.capacity()) {
+                // 扩容前先判断是否需要整理，整理后的文件已包含本次写入的数据
+                int liveLength = encodeRecords(mValues).length;
+                if (liveLength * 2 < mLoadedLength + records.length) {
+                    compactLocked();
+                    return;
+                }
+                growLocked(HEADER_SIZE + mLoadedLength + records.length);
+            }
+            mBuffer.position(HEADER_SIZE + mLoadedLength);
+            mBuffer.put(records);
+            mLoadedLength += records.length;
+            mBuffer.putInt(OFFSET_USED, mLoadedLength);
+        } catch (Exception e) {
+            SALog.printStackTrace(e);
+        } finally {
+            release(lock);
+        }
+    }
+
+    private void applyValues(Map<String, String> values) {
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            if (entry.getValue() == null) {
+                mValues.remove(entry.getKey());
+            } else {
+                mValues.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * 其它进程写入或整理文件后，重新加载数据。未加锁读取文件头，只在有变化时加锁
+     */
+    private void syncIfChanged() {
+        if (mBuffer == null) {
+            return;
+        }
+        if (mBuffer.getInt(OFFSET_STATE) == STATE_ACTIVE && mBuffer.getInt(OFFSET_USED) == mLoadedLength) {
+            return;
+        }
+        FileLock lock = null;
+        try {
+            lock = mLockChannel.lock();
+            syncLocked();
+        } catch (Exception e) {
+            SALog.printStackTrace(e);
+        } finally {
+            release(lock);
+        }
+    }
+
+    private void syncLocked() throws IOException {
+        if (mBuffer.getInt(OFFSET_STATE) == STATE_STALE) {
+            closeDataFile();
+            openDataFile();
+            mValues.clear();
+            mLoadedLength = 0;
+        }
+        int used = mBuffer.getInt(OFFSET_USED);
+        if (HEADER_SIZE + used > mBuffer.capacity()) {
+            // 其它进程扩容了文件
+            mBuffer = mDataFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mDataFile.length());
+        }
+        if (used < mLoadedLength) {
+            mValues.clear();
+            mLoadedLength = 0;
+        }
+        if (used != mLoadedLength) {
+            loadLocked();
+        }
+    }
+
+    /**
+     * 从 mLoadedLength 开始读取记录，遇到损坏的记录时截断
+     */
+    private void loadLocked() {
+        int used = Math.min(mBuffer.getInt(OFFSET_USED), mBuffer.capacity() - HEADER_SIZE);
+        int position = mLoadedLength;
+        while (position + RECORD_HEADER_SIZE <= used) {
+            int offset = HEADER_SIZE + position;
+            int length = mBuffer.getInt(offset);
+            if (length < PAYLOAD_HEADER_SIZE || length > used - position - RECORD_HEADER_SIZE) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            mBuffer.position(offset + RECORD_HEADER_SIZE);
+            mBuffer.get(payload);
+            CRC32 crc32 = new CRC32();
+            crc32.update(payload, 0, length);
+            if ((int) crc32.getValue() != mBuffer.getInt(offset + 4) || !readRecord(payload)) {
+                break;
+            }
+            position += RECORD_HEADER_SIZE + length;
+        }
+        if (position != mBuffer.getInt(OFFSET_USED)) {
+            SALog.i(TAG, "discard corrupted data, file = " + mFile.getName() + ", length = " + (used - position));
+            mBuffer.putInt(OFFSET_USED, position);
+        }
+        mLoadedLength = position;
+    }
+
+    private boolean readRecord(byte[] payload) {
+        int keyLength = ByteBuffer.wrap(payload, 1, 4).getInt();
+        if (keyLength < 0 || keyLength > payload.length - PAYLOAD_HEADER_SIZE) {
+            return false;
+        }
+        String key = new String(payload, PAYLOAD_HEADER_SIZE, keyLength, UTF8);
+        if (payload[0] == OP_PUT) {
+            int valueOffset = PAYLOAD_HEADER_SIZE + keyLength;
+            mValues.put(key, new String(payload, valueOffset, payload.length - valueOffset, UTF8));
+        } else if (payload[0] == OP_REMOVE) {
+            mValues.remove(key);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private void growLocked(int minCapacity) throws IOException {
+        int capacity = mBuffer.capacity();
+        while (capacity < minCapacity) {
+            capacity *= 2;
+        }
+        mDataFile.setLength(capacity);
+        mBuffer = mDataFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    /**
+     * 将有效数据写入临时文件后替换数据文件，替换过程中异常退出不会影响原文件
+     */
+    private void compactLocked() throws IOException {
+        byte[] records = encodeRecords(mValues);
+        int capacity = PAGE_SIZE;
+        while (capacity < (HEADER_SIZE + records.length) * 2) {
+            capacity *= 2;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(STATE_ACTIVE).putInt(records.length);
+        File tempFile = new File(mFile.getPath() + ".tmp");
+        RandomAccessFile outputFile = new RandomAccessFile(tempFile, "rw");
+        try {
+            outputFile.setLength(0);
+            outputFile.write(header.array());
+            outputFile.write(records);
+            outputFile.setLength(capacity);
+            outputFile.getFD().sync();
+        } finally {
+            outputFile.close();
+        }
+        if (!tempFile.renameTo(mFile)) {
+            tempFile.delete();
+            throw new IOException("rename failed: " + tempFile.getName());
+        }
+        // 旧文件仍被其它进程映射，标记为失效
+        mBuffer.putInt(OFFSET_STATE, STATE_STALE);
+        closeDataFile();
+        openDataFile();
+        mLoadedLength = records.length;
+        SALog.i(TAG, "compact " + mFile.getName() + ", length = " + records.length);
+    }
+
+    private void openDataFile() throws IOException {
+        mDataFile = new RandomAccessFile(mFile, "rw");
+        long length = mDataFile.length();
+        if (length < PAGE_SIZE) {
+            length = PAGE_SIZE;
+            mDataFile.setLength(length);
+        }
+        mBuffer = mDataFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+        if (mBuffer.getInt(0) != MAGIC || mBuffer.getInt(OFFSET_VERSION) != VERSION) {
+            mBuffer.putInt(0, MAGIC);
+            mBuffer.putInt(OFFSET_VERSION, VERSION);
+            mBuffer.putInt(OFFSET_STATE, STATE_ACTIVE);
+            mBuffer.putInt(OFFSET_USED, 0);
+        }
+    }
+
+    private void closeDataFile() {
+        mBuffer = null;
+        if (mDataFile != null) {
+            try {
+                mDataFile.close();
+            } catch (IOException e) {
+                SALog.printStackTrace(e);
+            }
+            mDataFile = null;
+        }
+    }
+
+    private static byte[] encodeRecords(Map<String, String> values) {
+        byte[][] keys = new byte[values.size()][];
+        byte[][] data = new byte[values.size()][];
+        int length = 0;
+        int index = 0;
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            keys[index] = entry.getKey().getBytes(UTF8);
+            data[index] = entry.getValue() == null ? null : entry.getValue().getBytes(UTF8);
+            length += RECORD_HEADER_SIZE + PAYLOAD_HEADER_SIZE + keys[index].length + (data[index] == null ? 0 : data[index].length);
+            index++;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        CRC32 crc32 = new CRC32();
+        for (int i = 0; i < keys.length; i++) {
+            int start = buffer.position();
+            int payloadLength = PAYLOAD_HEADER_SIZE + keys[i].length + (data[i] == null ? 0 : data[i].length);
+            buffer.putInt(payloadLength);
+            buffer.putInt(0);
+            buffer.put(data[i] == null ? OP_REMOVE : OP_PUT);
+            buffer.putInt(keys[i].length);
+            buffer.put(keys[i]);
+            if (data[i] != null) {
+                buffer.put(data[i]);
+            }
+            crc32.reset();
+            crc32.update(buffer.array(), start + RECORD_HEADER_SIZE, payloadLength);
+            buffer.putInt(start + 4, (int) crc32.getValue());
+        }
+        return buffer.array();
+    }
+
+    private static void release(FileLock lock) {
+        if (lock != null) {
+            try {
+                lock.release();
+            } catch (IOException e) {
+                SALog.printStackTrace(e);
+            }
+        }
+    }
+}
@@ -24,10 +24,17 @@ import android.text.TextUtils;
 import com.sensorsdata.analytics.android.sdk.encrypt.AESSecretManager;
 import com.sensorsdata.analytics.android.sdk.util.SASpUtils;
 
-public class SAEncryptStorePlugin implements StorePlugin {
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class SAEncryptStorePlugin implements StorePlugin, BatchStorePlugin {
 
     private final SharedPreferences mStoreSp;
     private final String mFileName;
+    /* key 的密文是固定的，缓存后读写时不再重复加密 key */
+    private final Map<String, String> mEncryptKeys = new ConcurrentHashMap<>();
+    private SharedPreferences.Editor mBatchEditor;
 
     public SAEncryptStorePlugin(Context context) {
         this(context, "com.sensorsdata.analytics.android.sdk");
@@ -40,32 +47,32 @@ public class SAEncryptStorePlugin implements StorePlugin {
 
     @Override
     public void setString(String key, String value) {
-        mStoreSp.edit().putString(encryptValue(key), encryptValue(value)).apply();
+        apply(edit().putString(encryptKey(key), encryptValue(value)));
     }
 
     @Override
     public void setBool(String key, boolean value) {
-        mStoreSp.edit().putString(encryptValue(key), encryptValue(String.valueOf(value))).apply();
+        apply(edit().putString(encryptKey(key), encryptValue(String.valueOf(value))));
     }
 
     @Override
     public void setInteger(String key, int value) {
-        mStoreSp.edit().putString(encryptValue(key), encryptValue(String.valueOf(value))).apply();
+        apply(edit().putString(encryptKey(key), encryptValue(String.valueOf(value))));
     }
 
     @Override
     public void setFloat(String key, float value) {
-        mStoreSp.edit().putString(encryptValue(key), encryptValue(String.valueOf(value))).apply();
+        apply(edit().putString(encryptKey(key), encryptValue(String.valueOf(value))));
     }
 
     @Override
     public void setLong(String key, long value) {
-        mStoreSp.edit().putString(encryptValue(key), encryptValue(String.valueOf(value))).apply();
+        apply(edit().putString(encryptKey(key), encryptValue(String.valueOf(value))));
     }
 
     @Override
     public String getString(String key) {
-        String value = mStoreSp.getString(encryptValue(key), null);
+        String value = mStoreSp.getString(encryptKey(key), null);
         if (!TextUtils.isEmpty(value)) {
             return decryptValue(value);
         }
@@ -110,12 +117,12 @@ public class SAEncryptStorePlugin implements StorePlugin {
 
     @Override
     public void remove(String key) {
-        mStoreSp.edit().remove(encryptValue(key)).apply();
+        apply(edit().remove(encryptKey(key)));
     }
 
     @Override
     public boolean isExists(String key) {
-        return mStoreSp.contains(encryptValue(key));
+        return mStoreSp.contains(encryptKey(key));
     }
 
     @Override
@@ -128,10 +135,78 @@ public class SAEncryptStorePlugin implements StorePlugin {
 
     }
 
+    /**
+     * 导出数据，用于迁移到其它插件
+     *
+     * @return 不带插件类型前缀的 key 和解密后的 value
+     */
+    Map<String, String> exportValues() {
+        Map<String, String> values = new HashMap<>();
+        for (Map.Entry<String, ?> entry : mStoreSp.getAll().entrySet()) {
+            if (!(entry.getValue() instanceof String)) {
+                continue;
+            }
+            String key = decryptValue(entry.getKey());
+            if (key != null && key.startsWith(mFileName)) {
+                values.put(key.substring(mFileName.length()), decryptValue((String) entry.getValue()));
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public void beginBatch() {
+        if (mBatchEditor == null) {
+            mBatchEditor = mStoreSp.edit();
+        }
+    }
+
+    @Override
+    public void endBatch(boolean sync) {
+        SharedPreferences.Editor editor = mBatchEditor;
+        mBatchEditor = null;
+        if (editor == null) {
+            return;
+        }
+        if (sync) {
+            editor.commit();
+        } else {
+            editor.apply();
+        }
+    }
+
+    private SharedPreferences.Editor edit() {
+        return mBatchEditor != null ? mBatchEditor : mStoreSp.edit();
+    }
+
+    /**
+     * 批量写入时由 endBatch 统一提交
+     */
+    private void apply(SharedPreferences.Editor editor) {
+        if (editor != mBatchEditor) {
+            editor.apply();
+        }
+    }
+
     private String decryptValue(final String value) {
         return AESSecretManager.getInstance().decryptAES(value);
     }
 
+    private String encryptKey(String key) {
+        if (key == null) {
+            return null;
+        }
+        String encryptKey = mEncryptKeys.get(key);
+        if (encryptKey == null) {
+            encryptKey = encryptValue(key);
+            // 加密失败或秘钥未初始化时不缓存
+            if (!TextUtils.isEmpty(encryptKey) && !encryptKey.equals(key)) {
+                mEncryptKeys.put(key, encryptKey);
+            }
+        }
+        return encryptKey;
+    }
+
     private String encryptValue(String value) {
         return AESSecretManager.getInstance().encryptAES(value);
     }
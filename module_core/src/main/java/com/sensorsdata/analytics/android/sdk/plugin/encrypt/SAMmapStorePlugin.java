@@ -0,0 +1,160 @@
+/*
+ * Created by dengshiwei on 2022/08/03.
+ * Copyright 2015－2022 Sensors Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sensorsdata.analytics.android.sdk.plugin.encrypt;
+
+import android.content.Context;
+import android.text.TextUtils;
+
+import com.sensorsdata.analytics.android.sdk.SALog;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 基于内存映射文件的存储插件，支持多进程访问，数据未加密。
+ * 通过 SAConfigOptions.registerStorePlugin 注册，注册后会将原有 SharedPreferences 插件中的数据迁移到此插件
+ */
+public class SAMmapStorePlugin implements StorePlugin {
+    private static final String TAG = "SA.SAMmapStorePlugin";
+    private final MmapKVStore mStore;
+    private final String mFileName;
+
+    public SAMmapStorePlugin(Context context) {
+        this(context, "com.sensorsdata.analytics.android.sdk.kv");
+    }
+
+    public SAMmapStorePlugin(Context context, String fileName) {
+        this.mStore = MmapKVStore.getInstance(new File(context.getFilesDir(), fileName));
+        this.mFileName = fileName;
+    }
+
+    @Override
+    public void setString(String key, String value) {
+        mStore.put(key, value);
+    }
+
+    @Override
+    public void setBool(String key, boolean value) {
+        mStore.put(key, String.valueOf(value));
+    }
+
+    @Override
+    public void setInteger(String key, int value) {
+        mStore.put(key, String.valueOf(value));
+    }
+
+    @Override
+    public void setFloat(String key, float value) {
+        mStore.put(key, String.valueOf(value));
+    }
+
+    @Override
+    public void setLong(String key, long value) {
+        mStore.put(key, String.valueOf(value));
+    }
+
+    @Override
+    public String getString(String key) {
+        return mStore.get(key);
+    }
+
+    @Override
+    public Boolean getBool(String key) {
+        String value = getString(key);
+        if (!TextUtils.isEmpty(value)) {
+            return Boolean.parseBoolean(value);
+        }
+        return null;
+    }
+
+    @Override
+    public Integer getInteger(String key) {
+        String value = getString(key);
+        if (!TextUtils.isEmpty(value)) {
+            return Integer.parseInt(value);
+        }
+        return null;
+    }
+
+    @Override
+    public Float getFloat(String key) {
+        String value = getString(key);
+        if (!TextUtils.isEmpty(value)) {
+            return Float.parseFloat(value);
+        }
+        return null;
+    }
+
+    @Override
+    public Long getLong(String key) {
+        String value = getString(key);
+        if (!TextUtils.isEmpty(value)) {
+            return Long.parseLong(value);
+        }
+        return null;
+    }
+
+    @Override
+    public void remove(String key) {
+        mStore.remove(key);
+    }
+
+    @Override
+    public boolean isExists(String key) {
+        return mStore.contains(key);
+    }
+
+    @Override
+    public String type() {
+        return mFileName;
+    }
+
+    /**
+     * 迁移 SharedPreferences 插件中的数据，已存在的 key 以当前插件为准，迁移完成后删除旧插件中的数据
+     *
+     * @param oldPlugin 旧插件
+     */
+    @Override
+    public void upgrade(StorePlugin oldPlugin) {
+        Map<String, String> oldValues = null;
+        if (oldPlugin instanceof DefaultStorePlugin) {
+            oldValues = ((DefaultStorePlugin) oldPlugin).exportValues();
+        } else if (oldPlugin instanceof SAEncryptStorePlugin) {
+            oldValues = ((SAEncryptStorePlugin) oldPlugin).exportValues();
+        }
+        if (oldValues == null || oldValues.isEmpty()) {
+            return;
+        }
+        Map<String, String> values = new HashMap<>();
+        for (Map.Entry<String, String> entry : oldValues.entrySet()) {
+            String key = mFileName + entry.getKey();
+            if (!mStore.contains(key)) {
+                values.put(key, entry.getValue());
+            }
+        }
+        mStore.putAll(values);
+        BatchStorePlugin batchPlugin = (BatchStorePlugin) oldPlugin;
+        batchPlugin.beginBatch();
+        for (String key : oldValues.keySet()) {
+            oldPlugin.remove(oldPlugin.type() + key);
+        }
+        batchPlugin.endBatch(true);
+        SALog.i(TAG, "upgrade from " + oldPlugin.type() + ", size = " + oldValues.size());
+    }
+}
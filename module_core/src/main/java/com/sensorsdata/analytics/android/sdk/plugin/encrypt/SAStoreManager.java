@@ -34,6 +34,8 @@ public class SAStoreManager extends AbstractStoreManager {
     private static final String SP_SENSORS_DATA_API = "com.sensorsdata.analytics.android.sdk.SensorsDataAPI";
     private static final String SP_SENSORS_DATA = "sensorsdata";
     private static final String SP_SENSORS_DATA_EXIT = "sensorsdata.exit";
+    /* 延迟写入的时间，单位毫秒 */
+    private static final long WRITE_BEHIND_DELAY = 1000;
     private final ArrayList<String> mAPIStoreKeys = new ArrayList<>();
 
     private SAStoreManager() {
@@ -74,6 +76,8 @@ public class SAStoreManager extends AbstractStoreManager {
                 registerPlugin(plugin);
             }
         }
+        // 每条事件都会更新 session 等数据，合并写入以减少加密和磁盘写入次数
+        enableWriteBehind(WRITE_BEHIND_DELAY);
     }
 
     private static class SingletonHolder {
@@ -66,4 +66,12 @@ interface ISAPropertyPlugin {
      * @return 属性的优先级枚举对象
      */
     SAPropertyPluginPriority priority();
+
+    /**
+     * 插件的属性是否固定不变。返回 true 时插件只使用 appendProperties 添加的静态属性，
+     * 属性校验后会被缓存，不再为每条事件重新获取和校验
+     *
+     * @return 默认为 false
+     */
+    boolean isStaticProperties();
 }
@@ -115,4 +115,9 @@ public final class SAPresetPropertyPlugin extends SAPropertyPlugin {
     public SAPropertyPluginPriority priority() {
         return SAPropertyPluginPriority.LOW;
     }
+
+    @Override
+    public boolean isStaticProperties() {
+        return true;
+    }
 }
@@ -108,4 +108,9 @@ public abstract class SAPropertyPlugin implements ISAPropertyPlugin {
     public SAPropertyPluginPriority priority() {
         return SAPropertyPluginPriority.DEFAULT;
     }
+
+    @Override
+    public boolean isStaticProperties() {
+        return false;
+    }
 }
@@ -25,21 +25,25 @@ import com.sensorsdata.analytics.android.sdk.util.SensorsDataUtils;
 
 import org.json.JSONObject;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 /**
- * 属性插件的管理类，用于管理插件的添加和移除，以及事件属性的获取
+ * 属性插件的管理类，用于管理插件的添加和移除，以及事件属性的获取。
+ * 插件的匹配规则在注册时读取，按事件类型和事件名建立已排序的插件索引，每条事件只需查找索引
  */
 public final class SensorsDataPropertyPluginManager {
     private static final String TAG = "SA.SAPropertyPluginManager";
     private final Map<String, SAPropertyPlugin> plugins = new LinkedHashMap<>();
+    private volatile PluginIndex mPluginIndex = new PluginIndex(new ArrayList<PluginEntry>());
 
     private static class SingleHolder {
         private static final SensorsDataPropertyPluginManager INSTANCE = new SensorsDataPropertyPluginManager();
@@ -57,7 +61,7 @@ public final class SensorsDataPropertyPluginManager {
      *
      * @param plugin 注册属性插件对象
      */
-    public final void registerPropertyPlugin(SAPropertyPlugin plugin) {
+    public final synchronized void registerPropertyPlugin(SAPropertyPlugin plugin) {
         try {
             if (plugin == null) return;
             String propertyType = getPluginType(plugin);
@@ -65,20 +69,23 @@ public final class SensorsDataPropertyPluginManager {
                 plugins.put(propertyType, plugin);
                 //插件注册成功后，立即开启插件的初始化
                 plugin.start();
+                rebuildIndex();
             } else {
-                SALog.i(TAG, String.format("plugin [ %s ] has exist!", propertyType));
+                SALog.i(TAG, "plugin [ " + propertyType + " ] has exist!");
             }
         } catch (Exception e) {
             SALog.i(TAG, "register property plugin exception! " + e.toString());
         }
     }
 
-    public final void unregisterPropertyPlugin(SAPropertyPlugin plugin) {
+    public final synchronized void unregisterPropertyPlugin(SAPropertyPlugin plugin) {
         if (plugin == null) {
             return;
         }
         String propertyType = getPluginType(plugin);
-        plugins.remove(propertyType);
+        if (plugins.remove(propertyType) != null) {
+            rebuildIndex();
+        }
     }
 
     /**
@@ -96,12 +103,14 @@ public final class SensorsDataPropertyPluginManager {
         long startPropertiesTime = System.currentTimeMillis();
         JSONObject jsonObject;
         try {
-            jsonObject = properties(filter(eventName, eventType, properties));
+            jsonObject = properties(mPluginIndex.match(eventName, eventType), properties);
         } catch (Exception e) {
-            SALog.i(TAG, String.format("Event [%s] error is happened when matching property-plugins, e=%s", eventName, e.toString()));
+            SALog.i(TAG, "Event [" + eventName + "] error is happened when matching property-plugins, e=" + e.toString());
             jsonObject = new JSONObject();
         }
-        SALog.i(TAG, String.format("Event [%s] spend [%sms] on matching property-plugins", eventName, (System.currentTimeMillis() - startPropertiesTime)));
+        if (SALog.isLogEnabled()) {
+            SALog.i(TAG, String.format("Event [%s] spend [%sms] on matching property-plugins", eventName, (System.currentTimeMillis() - startPropertiesTime)));
+        }
         return jsonObject;
     }
 
@@ -117,53 +126,21 @@ public final class SensorsDataPropertyPluginManager {
     }
 
     /**
-     * 过滤所有插件，筛选出符合当前事件条件的插件
-     *
-     * @param eventName 事件名
-     * @param eventType 事件类型
-     * @param properties 事件已有的属性
-     * @return 符合条件的插件列表
+     * 读取所有插件的匹配规则，重新生成插件索引
      */
-    private List<SAPropertyPlugin> filter(String eventName, EventType eventType, JSONObject properties) {
-        List<SAPropertyPlugin> filterPlugins = new LinkedList<>();
-        // step1.遍历插件
+    private void rebuildIndex() {
+        List<PluginEntry> entries = new ArrayList<>(plugins.size());
         for (SAPropertyPlugin plugin : plugins.values()) {
-            // step2.过滤出匹配当前事件的插件
-            if (isMatchEventType(plugin.getEventTypeFilter(), eventType)
-                    && isMatchEventName(plugin.getEventNameFilter(), eventName)
-                    && isMatchPropertyKey(plugin.getPropertyKeyFilter(), properties)
-            ) {
-                filterPlugins.add(plugin);
-            }
+            entries.add(new PluginEntry(plugin));
         }
-        // step3.将能匹配上当前事件的插件按优先级排序
-        Collections.sort(filterPlugins, new Comparator<SAPropertyPlugin>() {
+        // 按优先级从低到高排序，优先级相同时保持注册顺序，合并属性时高优先级插件的属性覆盖低优先级插件的属性
+        Collections.sort(entries, new Comparator<PluginEntry>() {
             @Override
-            public int compare(SAPropertyPlugin o1, SAPropertyPlugin o2) {
-                if (o1.priority().getPriority() >= o2.priority().getPriority()) {
-                    return 0;
-                } else {
-                    return -1;
-                }
+            public int compare(PluginEntry o1, PluginEntry o2) {
+                return o1.priority < o2.priority ? -1 : (o1.priority == o2.priority ? 0 : 1);
             }
         });
-        // step4.返回已匹配上且已按优先级排序的插件
-        return filterPlugins;
-    }
-
-    /**
-     * 根据事件名匹配插件
-     *
-     * @param eventNameFilter 事件名匹配规则
-     * @param eventName 事件名
-     * @return 是否匹配
-     */
-    private boolean isMatchEventName(Set<String> eventNameFilter, String eventName) {
-        if (eventNameFilter == null || eventNameFilter.size() == 0) {
-            return true;
-        } else {
-            return eventNameFilter.contains(eventName);
-        }
+        mPluginIndex = new PluginIndex(entries);
     }
 
     /**
@@ -196,12 +173,10 @@ public final class SensorsDataPropertyPluginManager {
      * @param eventType 当前事件类型
      * @return 是否匹配
      */
-    private boolean isMatchEventType(Set<EventType> eventTypeFilter, EventType eventType) {
+    private static boolean isMatchEventType(Set<EventType> eventTypeFilter, EventType eventType) {
         // 如果用户没有实现 eventTypeFilter 添加支持事件类型，则默认只支持 track 类型事件
         if (eventTypeFilter == null || eventTypeFilter.isEmpty()) {
-            if (eventType == EventType.TRACK) {
-                return true;
-            }
+            return eventType == EventType.TRACK;
         }
         // 如果匹配到 EventType.ALL，则对所有类型事件都成功匹配
         if (eventTypeFilter.contains(EventType.ALL)) {
@@ -213,26 +188,37 @@ public final class SensorsDataPropertyPluginManager {
     /**
      * 根据属性插件列表，收集所有属性
      *
-     * @param plugins 属性插件列表
+     * @param entries 已排序的属性插件列表
+     * @param eventProperties 事件已有的属性
      * @return 属性对象
      */
-    private JSONObject properties(List<SAPropertyPlugin> plugins) {
+    private JSONObject properties(List<PluginEntry> entries, JSONObject eventProperties) {
         JSONObject jsonObject = new JSONObject();
-        if (plugins == null) {
+        if (entries == null) {
             return jsonObject;
         }
-        for (SAPropertyPlugin plugin : plugins) {
-            Map<String, Object> properties = plugin.properties();
-            if (properties == null || properties.isEmpty()) {
+        for (PluginEntry entry : entries) {
+            if (!isMatchPropertyKey(entry.propertyKeyFilter, eventProperties)) {
                 continue;
             }
-            JSONObject pluginProperties = new JSONObject(properties);
-            try {
-                SADataHelper.assertPropertyTypes(pluginProperties);
-                SensorsDataUtils.mergeJSONObject(pluginProperties, jsonObject);
-            } catch (InvalidDataException e) {
-                SALog.printStackTrace(e);
+            JSONObject pluginProperties = entry.cachedProperties;
+            if (pluginProperties == null) {
+                Map<String, Object> properties = entry.plugin.properties();
+                if (properties == null || properties.isEmpty()) {
+                    continue;
+                }
+                pluginProperties = new JSONObject(properties);
+                try {
+                    SADataHelper.assertPropertyTypes(pluginProperties);
+                } catch (InvalidDataException e) {
+                    SALog.printStackTrace(e);
+                    continue;
+                }
+                if (entry.isStatic) {
+                    entry.cachedProperties = pluginProperties;
+                }
             }
+            SensorsDataUtils.mergeJSONObject(pluginProperties, jsonObject);
         }
         return jsonObject;
     }
@@ -243,7 +229,7 @@ public final class SensorsDataPropertyPluginManager {
      * @param clazz 指定获取已注册的插件类型
      * @return 已注册类型插件的事件属性 map
      */
-    public final Map<String, Object> getPropertiesByPlugin(Class<?> clazz) {
+    public final synchronized Map<String, Object> getPropertiesByPlugin(Class<?> clazz) {
         Map<String, Object> properties = new HashMap<>();
         if (clazz == null) return properties;
         String pluginType = clazz.getName();
@@ -255,4 +241,74 @@ public final class SensorsDataPropertyPluginManager {
         }
         return properties;
     }
+
+    /**
+     * 注册时读取的插件匹配规则
+     */
+    private static class PluginEntry {
+        final SAPropertyPlugin plugin;
+        final long priority;
+        final Set<EventType> eventTypeFilter;
+        final Set<String> eventNameFilter;
+        final Set<String> propertyKeyFilter;
+        final boolean isStatic;
+        /* 静态插件校验后的属性 */
+        volatile JSONObject cachedProperties;
+
+        PluginEntry(SAPropertyPlugin plugin) {
+            this.plugin = plugin;
+            this.priority = plugin.priority().getPriority();
+            this.eventTypeFilter = new HashSet<>(plugin.getEventTypeFilter());
+            this.eventNameFilter = new HashSet<>(plugin.getEventNameFilter());
+            this.propertyKeyFilter = new HashSet<>(plugin.getPropertyKeyFilter());
+            this.isStatic = plugin.isStaticProperties();
+        }
+    }
+
+    /**
+     * 插件索引：事件类型 -> 事件名 -> 已排序的插件列表，未指定事件名的插件放在通配列表中并合并到每个事件名的列表里
+     */
+    private static class PluginIndex {
+        private final Map<EventType, Map<String, List<PluginEntry>>> mNamedPlugins = new EnumMap<>(EventType.class);
+        private final Map<EventType, List<PluginEntry>> mWildcardPlugins = new EnumMap<>(EventType.class);
+
+        PluginIndex(List<PluginEntry> sortedEntries) {
+            for (EventType eventType : EventType.values()) {
+                List<PluginEntry> wildcard = new ArrayList<>();
+                Set<String> eventNames = new HashSet<>();
+                for (PluginEntry entry : sortedEntries) {
+                    if (!isMatchEventType(entry.eventTypeFilter, eventType)) {
+                        continue;
+                    }
+                    if (entry.eventNameFilter.isEmpty()) {
+                        wildcard.add(entry);
+                    } else {
+                        eventNames.addAll(entry.eventNameFilter);
+                    }
+                }
+                Map<String, List<PluginEntry>> named = new HashMap<>();
+                for (String eventName : eventNames) {
+                    List<PluginEntry> list = new ArrayList<>();
+                    for (PluginEntry entry : sortedEntries) {
+                        if (isMatchEventType(entry.eventTypeFilter, eventType)
+                                && (entry.eventNameFilter.isEmpty() || entry.eventNameFilter.contains(eventName))) {
+                            list.add(entry);
+                        }
+                    }
+                    named.put(eventName, Collections.unmodifiableList(list));
+                }
+                mWildcardPlugins.put(eventType, Collections.unmodifiableList(wildcard));
+                mNamedPlugins.put(eventType, named);
+            }
+        }
+
+        List<PluginEntry> match(String eventName, EventType eventType) {
+            if (eventType == null) {
+                return null;
+            }
+            Map<String, List<PluginEntry>> named = mNamedPlugins.get(eventType);
+            List<PluginEntry> entries = (named == null || eventName == null) ? null : named.get(eventName);
+            return entries != null ? entries : mWildcardPlugins.get(eventType);
+        }
+    }
 }
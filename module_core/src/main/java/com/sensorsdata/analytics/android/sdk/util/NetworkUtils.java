@@ -31,6 +31,7 @@ import android.net.NetworkInfo;
 import android.net.NetworkRequest;
 import android.net.Uri;
 import android.os.Build;
+import android.os.SystemClock;
 import android.telephony.TelephonyManager;
 import android.text.TextUtils;
 
@@ -42,6 +43,7 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class NetworkUtils {
 
@@ -51,9 +53,30 @@ public class NetworkUtils {
     private static final int HTTP_307 = 307;
 
     /**
-     * 缓存的网络状态
+     * 网络不可用或网络类型为 NULL 时快照的有效时间。部分机型冷启动时获取不到网络类型；
+     * 默认网络从 WIFI 切换到已连接的移动网络时只回调 onLost，不会再回调 onAvailable，需要重新获取
      */
-    private static String networkType;
+    private static final long NULL_STATE_TTL = 5 * 1000;
+
+    /**
+     * 缓存的网络状态快照，为空时重新获取
+     */
+    private static volatile NetworkState sNetworkState;
+
+    /**
+     * 是否已注册网络状态监听，注册后网络变化时由回调更新快照
+     */
+    private static volatile boolean sListenerRegistered;
+
+    /**
+     * 网络连接或断开的次数，更换 SIM 卡后移动网络会重新连接，用于判断运营商信息是否需要重新获取
+     */
+    private static volatile int sConnectionGeneration;
+    private static Context sContext;
+    /* 查询系统网络状态的次数 */
+    private static final AtomicLong sQueryCount = new AtomicLong();
+    /* 使用快照省去的查询次数 */
+    private static final AtomicLong sSavedQueryCount = new AtomicLong();
 
     private static final String TAG = "SA.NetworkUtils";
 
@@ -67,16 +90,47 @@ public class NetworkUtils {
      * @return 网络类型
      */
     public static String networkType(Context context) {
-        try {
-            //小米特殊机型冷启动时获取不到 Network，为 NULL 字符串时需要重新尝试获取
-            if (!TextUtils.isEmpty(networkType) && !"NULL".equals(networkType)) {
-                return networkType;
-            }
+        NetworkState state = sNetworkState;
+        //小米特殊机型冷启动时获取不到 Network，为 NULL 字符串时需要过一段时间重新尝试获取
+        if (state != null && state.isValid()) {
+            sSavedQueryCount.incrementAndGet();
+            return state.networkType;
+        }
+        state = queryNetworkState(context);
+        sNetworkState = state;
+        return state.networkType;
+    }
+
+    /**
+     * 获取使用网络状态快照省去的系统网络状态查询次数
+     *
+     * @return 省去的查询次数
+     */
+    public static long getSavedQueryCount() {
+        return sSavedQueryCount.get();
+    }
 
+    /**
+     * 获取查询系统网络状态的次数
+     *
+     * @return 查询次数
+     */
+    public static long getQueryCount() {
+        return sQueryCount.get();
+    }
+
+    /**
+     * 查询系统网络状态，生成快照
+     *
+     * @param context Context
+     * @return 网络状态快照
+     */
+    private static NetworkState queryNetworkState(Context context) {
+        sQueryCount.incrementAndGet();
+        try {
             // 检测权限
             if (!SensorsDataUtils.checkHasPermission(context, Manifest.permission.ACCESS_NETWORK_STATE)) {
-                networkType = "NULL";
-                return networkType;
+                return new NetworkState(false, "NULL");
             }
 
             ConnectivityManager connectivityManager = (ConnectivityManager)
@@ -84,23 +138,19 @@ public class NetworkUtils {
             if (connectivityManager != null) {
                 // 网络不可用返回 NULL
                 if (!isNetworkAvailable(connectivityManager)) {
-                    networkType = "NULL";
-                    return networkType;
+                    return new NetworkState(false, "NULL");
                 }
                 // WIFI 网络
                 if (isWiFiNetwork(connectivityManager)) {
-                    networkType = "WIFI";
-                    return networkType;
+                    return new NetworkState(true, "WIFI");
                 }
             }
             //读取移动网络类型
             TelephonyManager telephonyManager = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
-            networkType = mobileNetworkType(context, telephonyManager, connectivityManager);
-            return networkType;
+            return new NetworkState(connectivityManager != null, mobileNetworkType(context, telephonyManager, connectivityManager));
         } catch (Exception e) {
             SALog.printStackTrace(e);
-            networkType = "NULL";
-            return networkType;
+            return new NetworkState(false, "NULL");
         }
     }
 
@@ -112,6 +162,18 @@ public class NetworkUtils {
      */
     @SuppressLint("WrongConstant")
     public static boolean isNetworkAvailable(Context context) {
+        // 未注册网络状态监听时无法感知网络恢复，需要实时查询
+        if (sListenerRegistered) {
+            NetworkState state = sNetworkState;
+            if (state != null && state.isValid()) {
+                sSavedQueryCount.incrementAndGet();
+                return state.available;
+            }
+            state = queryNetworkState(context);
+            sNetworkState = state;
+            return state.available;
+        }
+        sQueryCount.incrementAndGet();
         // 检测权限
         if (!SensorsDataUtils.checkHasPermission(context, Manifest.permission.ACCESS_NETWORK_STATE)) {
             return false;
@@ -195,6 +257,7 @@ public class NetworkUtils {
 
     public static void registerNetworkListener(Context context) {
         try {
+            sContext = context.getApplicationContext();
             if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
                 if (mReceiver == null) {
                     mReceiver = new SABroadcastReceiver();
@@ -202,6 +265,7 @@ public class NetworkUtils {
                 IntentFilter intentFilter = new IntentFilter();
                 intentFilter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
                 context.registerReceiver(mReceiver, intentFilter);
+                sListenerRegistered = true;
                 SALog.i(TAG, "Register BroadcastReceiver");
             } else {
                 if (networkCallback == null) {
@@ -212,6 +276,7 @@ public class NetworkUtils {
                         .getSystemService(Context.CONNECTIVITY_SERVICE);
                 if (connectivityManager != null) {
                     connectivityManager.registerNetworkCallback(request, networkCallback);
+                    sListenerRegistered = true;
                     SALog.i(TAG, "Register ConnectivityManager");
                 }
             }
@@ -222,6 +287,7 @@ public class NetworkUtils {
 
     public static void unregisterNetworkListener(Context context) {
         try {
+            sListenerRegistered = false;
             if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
                 if (mReceiver == null) {
                     return;
@@ -244,8 +310,29 @@ public class NetworkUtils {
         }
     }
 
+    /**
+     * 获取网络连接或断开的次数，次数变化后运营商可能已变化
+     *
+     * @return 次数
+     */
+    public static int getConnectionGeneration() {
+        return sConnectionGeneration;
+    }
+
     public static void cleanNetworkTypeCache() {
-        networkType = null;
+        sNetworkState = null;
+    }
+
+    /**
+     * 网络变化时在回调线程中更新快照，事件采集和上报线程只读取快照
+     */
+    private static void refreshNetworkState() {
+        Context context = sContext;
+        if (context == null) {
+            sNetworkState = null;
+            return;
+        }
+        sNetworkState = queryNetworkState(context);
     }
 
     /**
@@ -365,7 +452,8 @@ public class NetworkUtils {
         public void onReceive(Context context, Intent intent) {
             String action = intent.getAction();
             if (ConnectivityManager.CONNECTIVITY_ACTION.equals(action)) {
-                NetworkUtils.cleanNetworkTypeCache();
+                sConnectionGeneration++;
+                NetworkUtils.refreshNetworkState();
                 SensorsDataAPI.sharedInstance().flush();
                 SALog.i(TAG, "SABroadcastReceiver is receiving ConnectivityManager.CONNECTIVITY_ACTION broadcast");
             }
@@ -378,7 +466,8 @@ public class NetworkUtils {
         @Override
         public void onAvailable(Network network) {
             super.onAvailable(network);
-            NetworkUtils.cleanNetworkTypeCache();
+            sConnectionGeneration++;
+            NetworkUtils.refreshNetworkState();
             SensorsDataAPI.sharedInstance().flush();
             SALog.i(TAG, "onAvailable is calling");
         }
@@ -386,14 +475,15 @@ public class NetworkUtils {
         @Override
         public void onCapabilitiesChanged(Network network, NetworkCapabilities networkCapabilities) {
             super.onCapabilitiesChanged(network, networkCapabilities);
-            NetworkUtils.cleanNetworkTypeCache();
+            NetworkUtils.refreshNetworkState();
             SALog.i(TAG, "onCapabilitiesChanged is calling");
         }
 
         @Override
         public void onLost(Network network) {
             super.onLost(network);
-            NetworkUtils.cleanNetworkTypeCache();
+            sConnectionGeneration++;
+            NetworkUtils.refreshNetworkState();
             SALog.i(TAG, "onLost is calling");
         }
     }
@@ -437,4 +527,30 @@ public class NetworkUtils {
         }
         return false;
     }
-}
\ No newline at end of file
+
+    /**
+     * 网络状态快照，创建后不再修改
+     */
+    private static final class NetworkState {
+        final boolean available;
+        /* 网络类型：WIFI、2G、3G、4G、5G 或 NULL */
+        final String networkType;
+        final long createTime;
+
+        NetworkState(boolean available, String networkType) {
+            this.available = available;
+            this.networkType = networkType;
+            this.createTime = SystemClock.elapsedRealtime();
+        }
+
+        /**
+         * 快照是否可以继续使用：网络可用时由监听回调更新，网络不可用或网络类型为 NULL 时只短时间有效
+         */
+        boolean isValid() {
+            if (!available || "NULL".equals(networkType)) {
+                return SystemClock.elapsedRealtime() - createTime < NULL_STATE_TTL;
+            }
+            return true;
+        }
+    }
+}
@@ -124,6 +124,17 @@ public final class SensorsDataUtils {
         return mCurrentCarrier;
     }
 
+    /**
+     * 清除缓存的运营商信息并重新获取，网络重新连接后调用
+     *
+     * @param context Context
+     * @return 运营商信息
+     */
+    public static String refreshCarrier(Context context) {
+        mCurrentCarrier = null;
+        return getCarrier(context);
+    }
+
     /**
      * 获取 Activity 的 title
      *
@@ -46,6 +46,10 @@ public class ThreadUtils {
         return getPoolByTypeAndPriority(TYPE_SINGLE, priority);
     }
 
+    public static ExecutorService getFixedPool(final int size, final int priority) {
+        return getPoolByTypeAndPriority(size, priority);
+    }
+
     private static ExecutorService getPoolByTypeAndPriority(final int type) {
         return getPoolByTypeAndPriority(type, Thread.NORM_PRIORITY);
     }
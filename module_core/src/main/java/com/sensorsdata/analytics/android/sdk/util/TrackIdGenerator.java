@@ -0,0 +1,83 @@
+/*
+ * Created by dengshiwei on 2022/07/22.
+ * Copyright 2015－2022 Sensors Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sensorsdata.analytics.android.sdk.util;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * _track_id 生成器：进程内只使用一次 SecureRandom 生成随机种子，之后由自增序号与种子混合得到 _track_id。
+ * 序号到 _track_id 的映射是 32 位整数上的双射，同一进程内前 2^32 个 _track_id 不会重复，且分布与随机数一致
+ */
+public final class TrackIdGenerator {
+    /* 黄金分割常量，奇数保证乘法为双射 */
+    private static final int GOLDEN_GAMMA = 0x9E3779B9;
+    private static volatile TrackIdGenerator sInstance;
+    private final int mSeed;
+    private final AtomicInteger mSequence = new AtomicInteger();
+
+    TrackIdGenerator(int seed) {
+        this.mSeed = seed;
+    }
+
+    /**
+     * 生成 _track_id
+     *
+     * @return _track_id
+     */
+    public static int nextTrackId() {
+        TrackIdGenerator generator = sInstance;
+        if (generator == null) {
+            synchronized (TrackIdGenerator.class) {
+                generator = sInstance;
+                if (generator == null) {
+                    generator = new TrackIdGenerator(new SecureRandom().nextInt());
+                    sInstance = generator;
+                }
+            }
+        }
+        return generator.nextId();
+    }
+
+    /**
+     * 使用固定的种子重置生成器，生成的序列可复现，仅用于测试
+     *
+     * @param seed 种子
+     */
+    static void resetForTest(int seed) {
+        synchronized (TrackIdGenerator.class) {
+            sInstance = new TrackIdGenerator(seed);
+        }
+    }
+
+    int nextId() {
+        return mix(mSeed + mSequence.getAndIncrement() * GOLDEN_GAMMA);
+    }
+
+    /**
+     * MurmurHash3 的 fmix32，32 位整数上的双射
+     */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Created by dengshiwei on 2022/07/25.
+ * Copyright 2015－2022 Sensors Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sensorsdata.analytics.android.sdk;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * formatLibDetail 与原有的 $lib_detail 格式一致
+ */
+public class LibDetailFormatTest {
+
+    @Test
+    public void formatMatchesLegacyFormat() {
+        StackTraceElement[] trace = (new Exception()).getStackTrace();
+        StackTraceElement traceElement = trace[0];
+        String legacy = String.format("%s##%s##%s##%s", traceElement
+                        .getClassName(), traceElement.getMethodName(), traceElement.getFileName(),
+                traceElement.getLineNumber());
+        Assert.assertEquals(legacy, AbstractSensorsDataAPI.formatLibDetail(trace));
+        Assert.assertEquals("", AbstractSensorsDataAPI.formatLibDetail(new StackTraceElement[0]));
+    }
+}
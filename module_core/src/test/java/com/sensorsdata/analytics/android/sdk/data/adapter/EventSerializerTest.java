@@ -0,0 +1,81 @@
+/*
+ * Created by dengshiwei on 2022/07/30.
+ * Copyright 2015－2022 Sensors Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sensorsdata.analytics.android.sdk.data.adapter;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.zip.CRC32;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Config.OLDEST_SDK})
+public class EventSerializerTest {
+
+    @Test
+    public void sameAsJSONObjectToString() throws Exception {
+        JSONObject properties = new JSONObject();
+        properties.put("$lib", "Android");
+        properties.put("int", 12);
+        properties.put("long", 1660000000000L);
+        properties.put("double", 3.25);
+        properties.put("integral_double", 2.0);
+        properties.put("bool", true);
+        properties.put("null", JSONObject.NULL);
+        properties.put("escape", "a\"b\\c/d\te\nf\u0001g");
+        properties.put("unicode", "神策数据 😀");
+        properties.put("broken_surrogate", "x\uD83Dy\uDE00");
+        properties.put("list", new JSONArray().put("a").put(1).put(new JSONObject().put("k", "v")));
+        JSONObject event = new JSONObject();
+        event.put("event", "$AppStart");
+        event.put("_track_id", -123456);
+        event.put("properties", properties);
+
+        EventSerializer serializer = new EventSerializer();
+        serializer.serialize(event);
+        // 未配对的代理字符与 String.getBytes 一样替换为 '?'，校验值按写入的内容计算
+        byte[] bytes = event.toString().getBytes("UTF-8");
+        String expected = new String(bytes, "UTF-8");
+        Assert.assertTrue(expected.contains("x?y?"));
+        Assert.assertEquals(expected, serializer.text());
+        Assert.assertEquals(expected.hashCode(), serializer.textHash());
+        Assert.assertEquals(bytes.length, serializer.length());
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes);
+        Assert.assertEquals(crc32.getValue(), serializer.crc32());
+    }
+
+    @Test
+    public void reuseBuffer() throws Exception {
+        EventSerializer serializer = new EventSerializer();
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            builder.append('a');
+        }
+        JSONObject large = new JSONObject().put("value", builder.toString());
+        serializer.serialize(large);
+        Assert.assertEquals(large.toString(), serializer.text());
+        JSONObject small = new JSONObject().put("value", "b");
+        serializer.serialize(small);
+        Assert.assertEquals(small.toString(), serializer.text());
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Created by dengshiwei on 2022/08/05.
+ * Copyright 2015－2022 Sensors Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sensorsdata.analytics.android.sdk.encrypt;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Config.OLDEST_SDK})
+public class SASessionKeyManagerTest {
+
+    @Test
+    public void rotateOnKeyVersionAndEventCount() {
+        CountingListener listener = new CountingListener();
+        SASessionKeyManager manager = new SASessionKeyManager(SASessionKeyManager.MAX_SESSION_DURATION, 3);
+        String first = manager.getEncryptedKey(listener, "publicKey", 1, 1);
+        Assert.assertEquals(first, manager.getEncryptedKey(listener, "publicKey", 1, 1));
+        Assert.assertEquals(first, manager.getEncryptedKey(listener, "publicKey", 1, 1));
+        Assert.assertEquals(1, listener.wrapCount);
+        // 加密条数达到上限
+        String second = manager.getEncryptedKey(listener, "publicKey", 1, 1);
+        Assert.assertNotEquals(first, second);
+        Assert.assertEquals(1, manager.getEventRotationCount());
+        // 公钥版本变化
+        Assert.assertNotEquals(second, manager.getEncryptedKey(listener, "publicKey", 2, 1));
+        Assert.assertEquals(1, manager.getKeyRotationCount());
+        Assert.assertEquals(3, manager.getRotationCount());
+        Assert.assertEquals(2, manager.getHitCount());
+        Assert.assertEquals(3, listener.wrapCount);
+    }
+
+    @Test
+    public void rotateOnTime() throws Exception {
+        CountingListener listener = new CountingListener();
+        SASessionKeyManager manager = new SASessionKeyManager(0, SASessionKeyManager.MAX_SESSION_EVENTS);
+        String first = manager.getEncryptedKey(listener, "publicKey", 1, 1);
+        Assert.assertNotEquals(first, manager.getEncryptedKey(listener, "publicKey", 1, 1));
+        Assert.assertEquals(1, manager.getTimeRotationCount());
+    }
+
+    private static class CountingListener implements SAEncryptListener {
+        int wrapCount;
+
+        @Override
+        public String symmetricEncryptType() {
+            return "AES";
+        }
+
+        @Override
+        public String encryptEvent(byte[] event) {
+            return null;
+        }
+
+        @Override
+        public String asymmetricEncryptType() {
+            return "RSA";
+        }
+
+        @Override
+        public String encryptSymmetricKeyWithPublicKey(String publicKey) {
+            wrapCount++;
+            return publicKey + wrapCount;
+        }
+    }
+}
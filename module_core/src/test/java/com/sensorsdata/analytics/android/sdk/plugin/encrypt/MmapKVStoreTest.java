@@ -0,0 +1,72 @@
+/*
+ * Created by dengshiwei on 2022/08/03.
+ * Copyright 2015－2022 Sensors Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sensorsdata.analytics.android.sdk.plugin.encrypt;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Config.OLDEST_SDK})
+public class MmapKVStoreTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void putAndCompact() throws Exception {
+        File file = new File(mFolder.getRoot(), "compact.kv");
+        MmapKVStore store = MmapKVStore.getInstance(file);
+        for (int i = 0; i < 20000; i++) {
+            store.put("key" + (i % 50), "value" + i);
+        }
+        store.remove("key0");
+        Assert.assertNull(store.get("key0"));
+        Assert.assertEquals("value19999", store.get("key49"));
+        // 有效数据不足 4K，整理后文件不会随写入次数增长
+        Assert.assertTrue(file.length() <= 16 * 1024);
+    }
+
+    @Test
+    public void discardCorruptedRecord() throws Exception {
+        File file = new File(mFolder.getRoot(), "corrupted.kv");
+        MmapKVStore store = MmapKVStore.getInstance(file);
+        store.put("key", "value");
+        store.put("broken", "value");
+        RandomAccessFile dataFile = new RandomAccessFile(file, "rw");
+        try {
+            dataFile.seek(12);
+            int used = dataFile.readInt();
+            dataFile.seek(16 + used - 1);
+            dataFile.write('x');
+            // 文件头中的数据长度变短时重新加载，CRC 校验失败的记录被丢弃
+            dataFile.seek(12);
+            dataFile.writeInt(used - 1);
+        } finally {
+            dataFile.close();
+        }
+        Assert.assertEquals("value", store.get("key"));
+        Assert.assertNull(store.get("broken"));
+    }
+}
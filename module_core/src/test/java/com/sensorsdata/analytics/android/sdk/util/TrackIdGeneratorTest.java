@@ -0,0 +1,72 @@
+/*
+ * Created by dengshiwei on 2022/07/22.
+ * Copyright 2015－2022 Sensors Data Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sensorsdata.analytics.android.sdk.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+public class TrackIdGeneratorTest {
+
+    @Test
+    public void deterministicWithSameSeed() {
+        TrackIdGenerator first = new TrackIdGenerator(42);
+        TrackIdGenerator second = new TrackIdGenerator(42);
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(first.nextId(), second.nextId());
+        }
+    }
+
+    @Test
+    public void uniqueUnderConcurrentTracking() throws InterruptedException {
+        TrackIdGenerator.resetForTest(7);
+        final int threadCount = 8;
+        final int idsPerThread = 20000;
+        final Set<Integer> ids = Collections.synchronizedSet(new HashSet<Integer>());
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < idsPerThread; j++) {
+                        ids.add(TrackIdGenerator.nextTrackId());
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        startLatch.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(threadCount * idsPerThread, ids.size());
+    }
+}
@@ -29,6 +29,8 @@ import android.text.TextUtils;
 import com.sensorsdata.analytics.android.sdk.SALog;
 import com.sensorsdata.analytics.android.sdk.data.adapter.DbParams;
 
+import java.nio.charset.Charset;
+
 public class DatabaseUtilsTest {
     /**
      * 查询数据库中的数据
@@ -42,7 +44,13 @@ public class DatabaseUtilsTest {
         assertNotNull(cursor);
         assertEquals(1, cursor.getCount());
         cursor.moveToFirst();
-        String data =  parseData(cursor.getString(cursor.getColumnIndexOrThrow(DbParams.KEY_DATA)));
+        String data;
+        int payloadIndex = cursor.getColumnIndex(DbParams.KEY_PAYLOAD);
+        if (payloadIndex >= 0 && !cursor.isNull(payloadIndex)) {
+            data = new String(cursor.getBlob(payloadIndex), Charset.forName("UTF-8"));
+        } else {
+            data = parseData(cursor.getString(cursor.getColumnIndexOrThrow(DbParams.KEY_DATA)));
+        }
         cursor.close();
         return data;
     }